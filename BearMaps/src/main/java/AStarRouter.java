@@ -0,0 +1,69 @@
+import java.util.Map;
+
+/**
+ * A* search with the straight-line distance to the goal as heuristic. Each thread keeps its
+ * own SearchState, so concurrent searches share nothing but the read-only graph, and a search
+ * allocates nothing but the path it returns.
+ */
+public class AStarRouter implements Router {
+    private final RoadGraph roads;
+    private final ThreadLocal<SearchState> states;
+    private final RouterStats stats = new RouterStats("astar");
+
+    public AStarRouter(RoadGraph roads) {
+        this.roads = roads;
+        this.states = ThreadLocal.withInitial(() -> new SearchState(roads.size()));
+    }
+
+    @Override
+    public int[] shortestPath(int start, int end) {
+        long begin = System.nanoTime();
+        SearchState state = states.get();
+        state.reset();
+        int[] path = search(state, start, end);
+        stats.record(state.settledCount(), System.nanoTime() - begin);
+        return path;
+    }
+
+    private int[] search(SearchState state, int start, int end) {
+        double goalLat = roads.lat(end);
+        double goalLon = roads.lon(end);
+        NodeHeap fringe = state.heap;
+        state.reach(start, 0, -1);
+        state.cached[start] = RoadGraph.distance(roads.lat(start), roads.lon(start),
+                goalLat, goalLon);
+        fringe.offer(start, state.cached[start]);
+        while (!fringe.isEmpty()) {
+            int v = fringe.poll();
+            state.settle(v);
+            if (v == end) {
+                return state.pathTo(end);
+            }
+            double dv = state.dist[v];
+            for (int e = roads.firstEdge(v), last = roads.endEdge(v); e < last; e++) {
+                int c = roads.target(e);
+                double d = dv + roads.weight(e);
+                if (!state.isReached(c)) {
+                    /* The heuristic is computed once per node, when it is first reached. */
+                    state.cached[c] = RoadGraph.distance(roads.lat(c), roads.lon(c),
+                            goalLat, goalLon);
+                } else if (d >= state.dist[c] || state.isSettled(c)) {
+                    continue;
+                }
+                state.reach(c, d, v);
+                fringe.offer(c, d + state.cached[c]);
+            }
+        }
+        return new int[0];
+    }
+
+    @Override
+    public int lastSettledCount() {
+        return states.get().settledCount();
+    }
+
+    @Override
+    public Map<String, Object> stats() {
+        return stats.toMap();
+    }
+}
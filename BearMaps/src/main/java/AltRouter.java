@@ -0,0 +1,134 @@
+import java.util.Arrays;
+import java.util.Map;
+
+/**
+ * Bidirectional A* with ALT lower bounds (A*, Landmarks, Triangle inequality). A forward search
+ * from the start and a backward search from the end run in turns, each expanding the side with
+ * the smaller queue, until no unsettled pair of nodes can improve on the best meeting found.
+ * Both searches use the average potential p(v) = (pi_t(v) - pi_s(v)) / 2 and its negation,
+ * where pi_x(v) is the larger of the straight-line distance and the landmark bound between v
+ * and x. Average potentials stay consistent in both directions, which makes the simple
+ * stopping rule below exact.
+ */
+public class AltRouter implements Router {
+    private final RoadGraph roads;
+    private final Landmarks landmarks;
+    private final ThreadLocal<SearchState[]> states;
+    private final RouterStats stats = new RouterStats("alt");
+
+    public AltRouter(RoadGraph roads, Landmarks landmarks) {
+        this.roads = roads;
+        this.landmarks = landmarks;
+        this.states = ThreadLocal.withInitial(() -> new SearchState[]{
+            new SearchState(roads.size()), new SearchState(roads.size())});
+    }
+
+    @Override
+    public int[] shortestPath(int start, int end) {
+        long begin = System.nanoTime();
+        SearchState[] pair = states.get();
+        SearchState forward = pair[0];
+        SearchState backward = pair[1];
+        forward.reset();
+        backward.reset();
+        int[] path = search(forward, backward, start, end);
+        stats.record(forward.settledCount() + backward.settledCount(),
+                System.nanoTime() - begin);
+        return path;
+    }
+
+    private int[] search(SearchState forward, SearchState backward, int start, int end) {
+        if (start == end) {
+            forward.settle(start);
+            return new int[]{start};
+        }
+        forward.reach(start, 0, -1);
+        forward.cached[start] = potential(start, start, end);
+        forward.heap.offer(start, forward.cached[start]);
+        backward.reach(end, 0, -1);
+        backward.cached[end] = -potential(end, start, end);
+        backward.heap.offer(end, backward.cached[end]);
+
+        Meeting best = new Meeting();
+        while (!forward.heap.isEmpty() && !backward.heap.isEmpty()
+                && forward.heap.minKey() + backward.heap.minKey() < best.length) {
+            if (forward.heap.size() <= backward.heap.size()) {
+                expand(forward, backward, 1, start, end, best);
+            } else {
+                expand(backward, forward, -1, start, end, best);
+            }
+        }
+        if (best.node < 0) {
+            return new int[0];
+        }
+
+        /* The forward path up to the meeting node, then the backward chain down to the end. */
+        int[] head = forward.pathTo(best.node);
+        int tail = 0;
+        for (int v = backward.prev[best.node]; v >= 0; v = backward.prev[v]) {
+            tail += 1;
+        }
+        int[] path = Arrays.copyOf(head, head.length + tail);
+        for (int v = backward.prev[best.node], i = head.length; v >= 0; v = backward.prev[v]) {
+            path[i++] = v;
+        }
+        return path;
+    }
+
+    /**
+     * Settles the closest node of one search and relaxes its edges, recording any better
+     * meeting with the other search.
+     *
+     * @param sign 1 for the forward search, -1 for the backward one.
+     */
+    private void expand(SearchState self, SearchState other, int sign, int start, int end,
+                        Meeting best) {
+        int v = self.heap.poll();
+        self.settle(v);
+        double dv = self.dist[v];
+        for (int e = roads.firstEdge(v), last = roads.endEdge(v); e < last; e++) {
+            int c = roads.target(e);
+            double d = dv + roads.weight(e);
+            if (!self.isReached(c)) {
+                self.cached[c] = sign * potential(c, start, end);
+            } else if (d >= self.dist[c] || self.isSettled(c)) {
+                continue;
+            }
+            self.reach(c, d, v);
+            self.heap.offer(c, d + self.cached[c]);
+            if (other.isReached(c) && d + other.dist[c] < best.length) {
+                best.length = d + other.dist[c];
+                best.node = c;
+            }
+        }
+    }
+
+    private double potential(int v, int start, int end) {
+        return (bound(v, end) - bound(v, start)) / 2;
+    }
+
+    private double bound(int v, int x) {
+        return Math.max(roads.distance(v, x), landmarks.lowerBound(v, x));
+    }
+
+    @Override
+    public int lastSettledCount() {
+        SearchState[] pair = states.get();
+        return pair[0].settledCount() + pair[1].settledCount();
+    }
+
+    @Override
+    public Map<String, Object> stats() {
+        Map<String, Object> stats = this.stats.toMap();
+        stats.put("landmarks", landmarks.count());
+        return stats;
+    }
+
+    /**
+     * The shortest connection between the two searches found so far.
+     */
+    private static class Meeting {
+        double length = Double.POSITIVE_INFINITY;
+        int node = -1;
+    }
+}
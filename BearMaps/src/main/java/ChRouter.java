@@ -0,0 +1,116 @@
+import java.util.Map;
+import java.util.stream.IntStream;
+
+/**
+ * Queries a ContractionHierarchy: Dijkstra searches from both ends that only follow upward
+ * edges, in turns, each stopping once its queue cannot beat the best meeting found. The path
+ * through the meeting node is then unpacked into road graph nodes.
+ * Upward searches reach many nodes by detours, so nodes are stalled on demand.
+ */
+public class ChRouter implements Router {
+    private final ContractionHierarchy hierarchy;
+    private final ThreadLocal<SearchState[]> states;
+    private final RouterStats stats = new RouterStats("ch");
+
+    public ChRouter(ContractionHierarchy hierarchy) {
+        this.hierarchy = hierarchy;
+        this.states = ThreadLocal.withInitial(() -> new SearchState[]{
+            new SearchState(hierarchy.size()), new SearchState(hierarchy.size())});
+    }
+
+    @Override
+    public int[] shortestPath(int start, int end) {
+        long begin = System.nanoTime();
+        SearchState[] pair = states.get();
+        SearchState forward = pair[0];
+        SearchState backward = pair[1];
+        forward.reset();
+        backward.reset();
+        int[] path = search(forward, backward, start, end);
+        stats.record(forward.settledCount() + backward.settledCount(),
+                System.nanoTime() - begin);
+        return path;
+    }
+
+    private int[] search(SearchState forward, SearchState backward, int start, int end) {
+        forward.reach(start, 0, -1);
+        forward.heap.offer(start, 0);
+        backward.reach(end, 0, -1);
+        backward.heap.offer(end, 0);
+        double best = start == end ? 0 : Double.POSITIVE_INFINITY;
+        int meeting = start == end ? start : -1;
+        boolean forwardTurn = true;
+        while (true) {
+            boolean forwardOpen = !forward.heap.isEmpty() && forward.heap.minKey() < best;
+            boolean backwardOpen = !backward.heap.isEmpty() && backward.heap.minKey() < best;
+            if (!forwardOpen && !backwardOpen) {
+                break;
+            }
+            forwardTurn = forwardOpen && (forwardTurn || !backwardOpen);
+            SearchState self = forwardTurn ? forward : backward;
+            SearchState other = forwardTurn ? backward : forward;
+            forwardTurn = !forwardTurn;
+
+            int v = self.heap.poll();
+            self.settle(v);
+            double dv = self.dist[v];
+            if (other.isReached(v) && dv + other.dist[v] < best) {
+                best = dv + other.dist[v];
+                meeting = v;
+            }
+            if (isStalled(self, v, dv)) {
+                continue;
+            }
+            for (int e = hierarchy.firstEdge(v), last = hierarchy.endEdge(v); e < last; e++) {
+                int c = hierarchy.target(e);
+                double d = dv + hierarchy.weight(e);
+                if (!self.isReached(c) || d < self.dist[c]) {
+                    self.reach(c, d, v);
+                    self.heap.offer(c, d);
+                }
+            }
+        }
+        if (meeting < 0) {
+            return new int[0];
+        }
+
+        int[] up = forward.pathTo(meeting);
+        IntStream.Builder path = IntStream.builder();
+        path.add(start);
+        for (int i = 1; i < up.length; i++) {
+            hierarchy.unpack(up[i - 1], up[i], path);
+        }
+        for (int v = meeting; backward.prev[v] >= 0; v = backward.prev[v]) {
+            hierarchy.unpack(v, backward.prev[v], path);
+        }
+        return path.build().toArray();
+    }
+
+    /**
+     * Stall-on-demand: v's distance cannot be shortest if a higher node this search has
+     * already reached is closer through the edge down to v, so v need not be expanded.
+     * Edges are two-way, so v's upward edges are exactly the edges reaching it from above.
+     */
+    private boolean isStalled(SearchState self, int v, double dv) {
+        for (int e = hierarchy.firstEdge(v), last = hierarchy.endEdge(v); e < last; e++) {
+            int u = hierarchy.target(e);
+            if (self.isReached(u) && self.dist[u] + hierarchy.weight(e) < dv) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    @Override
+    public int lastSettledCount() {
+        SearchState[] pair = states.get();
+        return pair[0].settledCount() + pair[1].settledCount();
+    }
+
+    @Override
+    public Map<String, Object> stats() {
+        Map<String, Object> stats = this.stats.toMap();
+        stats.put("shortcuts", hierarchy.shortcutCount());
+        return stats;
+    }
+}
@@ -0,0 +1,465 @@
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+import java.util.stream.IntStream;
+
+/**
+ * Contraction Hierarchy over a RoadGraph. Nodes are contracted one by one in order of
+ * importance; contracting a node removes it and adds a shortcut between two of its neighbors
+ * wherever the path through it was the only shortest one. Each node then keeps only its edges
+ * to nodes contracted after it, its "upward" edges, in CSR form. A shortest path always climbs
+ * and then descends in rank, so queries only search upward from both ends.
+ * A shortcut remembers the node it bypasses, so paths unpack back to road graph nodes.
+ * File layout (big-endian):
+ * <pre>
+ * int    magic "BMCH"
+ * int    format version
+ * int    node count, long graph checksum
+ * int    upward edge count m
+ * node count x int    ranks
+ * (node count + 1) x int   offsets
+ * m x int targets, m x double weights, m x int middle nodes (-1 for road segments)
+ * </pre>
+ */
+public class ContractionHierarchy {
+    private static final int MAGIC = 0x424D4348;
+    private static final int VERSION = 1;
+    private static final int HEADER_SIZE = 24;
+
+    private final int[] ranks;
+    private final int[] offsets;
+    private final int[] targets;
+    private final double[] weights;
+    private final int[] middles;
+
+    private ContractionHierarchy(int[] ranks, int[] offsets, int[] targets, double[] weights,
+                                 int[] middles) {
+        this.ranks = ranks;
+        this.offsets = offsets;
+        this.targets = targets;
+        this.weights = weights;
+        this.middles = middles;
+    }
+
+    /**
+     * Contracts every node of roads; see Contractor for the ordering.
+     */
+    public static ContractionHierarchy build(RoadGraph roads) {
+        return new Contractor(roads).contract();
+    }
+
+    public int size() {
+        return ranks.length;
+    }
+
+    public int rank(int v) {
+        return ranks[v];
+    }
+
+    /**
+     * @return The index of node v's first upward edge.
+     */
+    public int firstEdge(int v) {
+        return offsets[v];
+    }
+
+    /**
+     * @return One past the index of node v's last upward edge.
+     */
+    public int endEdge(int v) {
+        return offsets[v + 1];
+    }
+
+    public int target(int edge) {
+        return targets[edge];
+    }
+
+    public double weight(int edge) {
+        return weights[edge];
+    }
+
+    public int edgeCount() {
+        return targets.length;
+    }
+
+    public int shortcutCount() {
+        int count = 0;
+        for (int middle : middles) {
+            count += middle >= 0 ? 1 : 0;
+        }
+        return count;
+    }
+
+    /**
+     * Appends the road graph nodes of the hierarchy edge between u and w, after u up to and
+     * including w, to path.
+     */
+    public void unpack(int u, int w, IntStream.Builder path) {
+        int lower = ranks[u] < ranks[w] ? u : w;
+        int upper = lower == u ? w : u;
+        int middle = -1;
+        for (int e = offsets[lower]; e < offsets[lower + 1]; e++) {
+            if (targets[e] == upper) {
+                middle = middles[e];
+                break;
+            }
+        }
+        if (middle < 0) {
+            path.add(w);
+        } else {
+            unpack(u, middle, path);
+            unpack(middle, w, path);
+        }
+    }
+
+    /**
+     * Reads a hierarchy written by write.
+     *
+     * @throws IOException If the file is missing, is not a hierarchy of the current version,
+     *                     or was built for a different graph.
+     */
+    public static ContractionHierarchy read(RoadGraph roads, String path) throws IOException {
+        try (RandomAccessFile file = new RandomAccessFile(path, "r");
+             FileChannel channel = file.getChannel()) {
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0,
+                    channel.size());
+            if (buffer.limit() < HEADER_SIZE || buffer.getInt() != MAGIC
+                    || buffer.getInt() != VERSION || buffer.getInt() != roads.size()
+                    || buffer.getLong() != roads.checksum()) {
+                throw new IOException(path + " does not hold a version " + VERSION
+                        + " hierarchy for this graph.");
+            }
+            int n = roads.size();
+            int m = buffer.getInt();
+            if (buffer.remaining() != (2L * n + 1) * 4 + m * 16L) {
+                throw new IOException(path + " is truncated.");
+            }
+            int[] ranks = new int[n];
+            int[] offsets = new int[n + 1];
+            int[] targets = new int[m];
+            double[] weights = new double[m];
+            int[] middles = new int[m];
+            buffer.asIntBuffer().get(ranks);
+            buffer.position(buffer.position() + n * 4);
+            buffer.asIntBuffer().get(offsets);
+            buffer.position(buffer.position() + (n + 1) * 4);
+            buffer.asIntBuffer().get(targets);
+            buffer.position(buffer.position() + m * 4);
+            buffer.asDoubleBuffer().get(weights);
+            buffer.position(buffer.position() + m * 8);
+            buffer.asIntBuffer().get(middles);
+            return new ContractionHierarchy(ranks, offsets, targets, weights, middles);
+        }
+    }
+
+    /**
+     * Saves the hierarchy built from roads to path, overwriting it.
+     */
+    public void write(RoadGraph roads, String path) throws IOException {
+        try (DataOutputStream out = new DataOutputStream(
+                new BufferedOutputStream(new FileOutputStream(path), 1 << 16))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(roads.size());
+            out.writeLong(roads.checksum());
+            out.writeInt(targets.length);
+            ByteBuffer chunk = ByteBuffer.allocate(1 << 16);
+            for (int[] ints : new int[][]{ranks, offsets, targets}) {
+                for (int i : ints) {
+                    chunk = room(out, chunk).putInt(i);
+                }
+            }
+            for (double weight : weights) {
+                chunk = room(out, chunk).putDouble(weight);
+            }
+            for (int middle : middles) {
+                chunk = room(out, chunk).putInt(middle);
+            }
+            out.write(chunk.array(), 0, chunk.position());
+        }
+    }
+
+    /* Flushes chunk to out when it cannot take another long. */
+    private static ByteBuffer room(DataOutputStream out, ByteBuffer chunk) throws IOException {
+        if (chunk.remaining() < 8) {
+            out.write(chunk.array(), 0, chunk.position());
+            chunk.clear();
+        }
+        return chunk;
+    }
+
+    /**
+     * @return The heap footprint of the upward graph, in bytes.
+     */
+    public long bytes() {
+        return ranks.length * 4L + offsets.length * 4L + targets.length * 16L;
+    }
+
+    @Override
+    public String toString() {
+        return "ContractionHierarchy{"
+                + "nodes=" + size()
+                + ", edges=" + edgeCount()
+                + ", shortcuts=" + shortcutCount()
+                + ", megabytes=" + bytes() / (1024 * 1024)
+                + '}';
+    }
+
+    /**
+     * Contracts a graph in rounds. Each round recomputes the priority of every node whose
+     * neighborhood changed, then contracts at once every node whose priority is lower than
+     * all of its neighbors'. Priorities and shortcuts both need witness searches, which run on
+     * the WorkerPool; a round's nodes are never adjacent, and witness paths avoid all of them,
+     * so their shortcuts can be computed independently and applied afterwards.
+     * A node's priority is its edge difference, the shortcuts it would add minus the edges it
+     * would remove, plus the number of its neighbors already contracted and its level, one
+     * more than the highest level among them. The last two spread contraction evenly over the
+     * map and keep the hierarchy shallow.
+     */
+    private static class Contractor {
+        /* Witness searches give up after settling this many nodes and keep the shortcut. */
+        private static final int WITNESS_SETTLE_LIMIT = 500;
+
+        private final int n;
+        /* Edges between nodes not yet contracted, per node, including shortcuts. */
+        private final int[][] neighbors;
+        private final double[][] lengths;
+        private final int[][] middles;
+        private final int[] degrees;
+        private final boolean[] contracted;
+        private final int[] deletedNeighbors;
+        private final int[] priorities;
+        private final int[] levels;
+        private final ThreadLocal<SearchState> states;
+
+        private final int[] ranks;
+        private final int[][] upTargets;
+        private final double[][] upWeights;
+        private final int[][] upMiddles;
+
+        Contractor(RoadGraph roads) {
+            n = roads.size();
+            neighbors = new int[n][];
+            lengths = new double[n][];
+            middles = new int[n][];
+            degrees = new int[n];
+            for (int v = 0; v < n; v++) {
+                int degree = roads.endEdge(v) - roads.firstEdge(v);
+                neighbors[v] = new int[degree];
+                lengths[v] = new double[degree];
+                middles[v] = new int[degree];
+                for (int e = roads.firstEdge(v), i = 0; i < degree; e++, i++) {
+                    neighbors[v][i] = roads.target(e);
+                    lengths[v][i] = roads.weight(e);
+                    middles[v][i] = -1;
+                }
+                degrees[v] = degree;
+            }
+            contracted = new boolean[n];
+            deletedNeighbors = new int[n];
+            priorities = new int[n];
+            levels = new int[n];
+            states = ThreadLocal.withInitial(() -> new SearchState(n));
+            ranks = new int[n];
+            upTargets = new int[n][];
+            upWeights = new double[n][];
+            upMiddles = new int[n][];
+        }
+
+        ContractionHierarchy contract() {
+            int[] remaining = IntStream.range(0, n).toArray();
+            int[] dirty = remaining;
+            int rank = 0;
+            while (remaining.length > 0) {
+                int[] update = dirty;
+                WorkerPool.forEach(update.length, i -> {
+                    int v = update[i];
+                    priorities[v] = shortcuts(v, null) - degrees[v] + deletedNeighbors[v]
+                            + levels[v];
+                });
+
+                int[] batch = Arrays.stream(remaining).filter(this::isLocalMinimum).toArray();
+                for (int v : batch) {
+                    contracted[v] = true;
+                }
+                Shortcuts[] found = new Shortcuts[batch.length];
+                WorkerPool.forEach(batch.length, i -> {
+                    found[i] = new Shortcuts();
+                    shortcuts(batch[i], found[i]);
+                });
+
+                boolean[] changed = new boolean[n];
+                for (int i = 0; i < batch.length; i++) {
+                    int v = batch[i];
+                    ranks[v] = rank++;
+                    upTargets[v] = Arrays.copyOf(neighbors[v], degrees[v]);
+                    upWeights[v] = Arrays.copyOf(lengths[v], degrees[v]);
+                    upMiddles[v] = Arrays.copyOf(middles[v], degrees[v]);
+                    for (int j = 0; j < degrees[v]; j++) {
+                        int u = neighbors[v][j];
+                        removeEdge(u, v);
+                        deletedNeighbors[u] += 1;
+                        levels[u] = Math.max(levels[u], levels[v] + 1);
+                        changed[u] = true;
+                    }
+                    Shortcuts s = found[i];
+                    for (int j = 0; j < s.size; j++) {
+                        addEdge(s.from[j], s.to[j], s.length[j], v);
+                        addEdge(s.to[j], s.from[j], s.length[j], v);
+                    }
+                }
+                remaining = Arrays.stream(remaining).filter(v -> !contracted[v]).toArray();
+                dirty = Arrays.stream(remaining).filter(v -> changed[v]).toArray();
+            }
+            return pack();
+        }
+
+        /* Whether v ranks before all its neighbors, by priority and then index. */
+        private boolean isLocalMinimum(int v) {
+            for (int j = 0; j < degrees[v]; j++) {
+                int u = neighbors[v][j];
+                if (priorities[u] < priorities[v]
+                        || priorities[u] == priorities[v] && u < v) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        /**
+         * Finds the shortcuts contracting v needs: for each pair of neighbors, one unless a
+         * witness path avoiding every contracted node is no longer than the path through v.
+         *
+         * @param out Receives the shortcuts, or null to only count them.
+         * @return The number of shortcuts needed.
+         */
+        private int shortcuts(int v, Shortcuts out) {
+            int count = 0;
+            double longest = 0;
+            for (int j = 0; j < degrees[v]; j++) {
+                longest = Math.max(longest, lengths[v][j]);
+            }
+            SearchState state = states.get();
+            for (int i = 0; i < degrees[v] - 1; i++) {
+                int u = neighbors[v][i];
+                witnessSearch(state, u, v, lengths[v][i] + longest);
+                for (int j = i + 1; j < degrees[v]; j++) {
+                    int w = neighbors[v][j];
+                    double via = lengths[v][i] + lengths[v][j];
+                    if (!state.isReached(w) || state.dist[w] > via) {
+                        count += 1;
+                        if (out != null) {
+                            out.add(u, w, via);
+                        }
+                    }
+                }
+            }
+            return count;
+        }
+
+        /**
+         * Dijkstra from source over nodes not yet contracted, skipping v, until limit.
+         */
+        private void witnessSearch(SearchState state, int source, int v, double limit) {
+            state.reset();
+            state.reach(source, 0, -1);
+            state.heap.offer(source, 0);
+            while (!state.heap.isEmpty() && state.heap.minKey() <= limit
+                    && state.settledCount() < WITNESS_SETTLE_LIMIT) {
+                int x = state.heap.poll();
+                state.settle(x);
+                for (int j = 0; j < degrees[x]; j++) {
+                    int c = neighbors[x][j];
+                    if (c == v || contracted[c]) {
+                        continue;
+                    }
+                    double d = state.dist[x] + lengths[x][j];
+                    if (!state.isReached(c) || d < state.dist[c]) {
+                        state.reach(c, d, x);
+                        state.heap.offer(c, d);
+                    }
+                }
+            }
+        }
+
+        private void removeEdge(int u, int v) {
+            for (int j = 0; j < degrees[u]; j++) {
+                if (neighbors[u][j] == v) {
+                    int last = --degrees[u];
+                    neighbors[u][j] = neighbors[u][last];
+                    lengths[u][j] = lengths[u][last];
+                    middles[u][j] = middles[u][last];
+                    return;
+                }
+            }
+        }
+
+        /* Adds the edge from u to w, or shortens it if it already exists and is longer. */
+        private void addEdge(int u, int w, double length, int middle) {
+            for (int j = 0; j < degrees[u]; j++) {
+                if (neighbors[u][j] == w) {
+                    if (length < lengths[u][j]) {
+                        lengths[u][j] = length;
+                        middles[u][j] = middle;
+                    }
+                    return;
+                }
+            }
+            int j = degrees[u]++;
+            if (j == neighbors[u].length) {
+                int capacity = Math.max(4, j * 2);
+                neighbors[u] = Arrays.copyOf(neighbors[u], capacity);
+                lengths[u] = Arrays.copyOf(lengths[u], capacity);
+                middles[u] = Arrays.copyOf(middles[u], capacity);
+            }
+            neighbors[u][j] = w;
+            lengths[u][j] = length;
+            middles[u][j] = middle;
+        }
+
+        private ContractionHierarchy pack() {
+            int[] offsets = new int[n + 1];
+            for (int v = 0; v < n; v++) {
+                offsets[v + 1] = offsets[v] + upTargets[v].length;
+            }
+            int m = offsets[n];
+            int[] targets = new int[m];
+            double[] weights = new double[m];
+            int[] middle = new int[m];
+            for (int v = 0; v < n; v++) {
+                System.arraycopy(upTargets[v], 0, targets, offsets[v], upTargets[v].length);
+                System.arraycopy(upWeights[v], 0, weights, offsets[v], upWeights[v].length);
+                System.arraycopy(upMiddles[v], 0, middle, offsets[v], upMiddles[v].length);
+            }
+            return new ContractionHierarchy(ranks, offsets, targets, weights, middle);
+        }
+    }
+
+    /**
+     * Shortcuts found for one node.
+     */
+    private static class Shortcuts {
+        int[] from = new int[4];
+        int[] to = new int[4];
+        double[] length = new double[4];
+        int size;
+
+        void add(int u, int w, double via) {
+            if (size == from.length) {
+                from = Arrays.copyOf(from, size * 2);
+                to = Arrays.copyOf(to, size * 2);
+                length = Arrays.copyOf(length, size * 2);
+            }
+            from[size] = u;
+            to[size] = w;
+            length[size] = via;
+            size += 1;
+        }
+    }
+}
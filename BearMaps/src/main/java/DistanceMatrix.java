@@ -0,0 +1,94 @@
+import java.util.Arrays;
+import java.util.Map;
+
+/**
+ * Shortest path distances from each of many sources to each of many targets, by one Dijkstra
+ * search per source that stops as soon as every target is settled. Sources are searched in
+ * parallel on the WorkerPool, each worker reusing its own SearchState like AStarRouter does.
+ * Safe to use from many request threads at once.
+ */
+public class DistanceMatrix {
+    private final RoadGraph roads;
+    private final ThreadLocal<SearchState> states;
+    private final RouterStats stats = new RouterStats("matrix");
+
+    public DistanceMatrix(RoadGraph roads) {
+        this.roads = roads;
+        this.states = ThreadLocal.withInitial(() -> new SearchState(roads.size()));
+    }
+
+    /**
+     * @param sources Node indices to search from.
+     * @param targets Node indices to measure to; may repeat and may share nodes with sources.
+     * @return distances[i][j], the length of a shortest path from sources[i] to targets[j], or
+     * Double.POSITIVE_INFINITY if there is none.
+     */
+    public double[][] compute(int[] sources, int[] targets) {
+        /* Each distinct target node is searched for once; column j reads slot[j]. */
+        LongIntHashMap slots = new LongIntHashMap(targets.length);
+        int[] slot = new int[targets.length];
+        for (int j = 0; j < targets.length; j++) {
+            int s = slots.get(targets[j]);
+            if (s < 0) {
+                s = slots.size();
+                slots.put(targets[j], s);
+            }
+            slot[j] = s;
+        }
+        double[][] distances = new double[sources.length][];
+        WorkerPool.forEach(sources.length, i -> {
+            double[] bySlot = fromSource(sources[i], slots);
+            double[] row = new double[targets.length];
+            for (int j = 0; j < targets.length; j++) {
+                row[j] = bySlot[slot[j]];
+            }
+            distances[i] = row;
+        });
+        return distances;
+    }
+
+    /**
+     * Dijkstra from source until every node in slots is settled or nothing is left to reach.
+     *
+     * @return The distance to each slot's node, by slot.
+     */
+    private double[] fromSource(int source, LongIntHashMap slots) {
+        long begin = System.nanoTime();
+        double[] result = new double[slots.size()];
+        Arrays.fill(result, Double.POSITIVE_INFINITY);
+        int remaining = slots.size();
+        SearchState state = states.get();
+        state.reset();
+        NodeHeap fringe = state.heap;
+        state.reach(source, 0, -1);
+        fringe.offer(source, 0);
+        while (!fringe.isEmpty() && remaining > 0) {
+            int v = fringe.poll();
+            state.settle(v);
+            double dv = state.dist[v];
+            int s = slots.get(v);
+            if (s >= 0) {
+                result[s] = dv;
+                remaining -= 1;
+            }
+            for (int e = roads.firstEdge(v), last = roads.endEdge(v); e < last; e++) {
+                int c = roads.target(e);
+                double d = dv + roads.weight(e);
+                if (state.isReached(c) && (d >= state.dist[c] || state.isSettled(c))) {
+                    continue;
+                }
+                state.reach(c, d, v);
+                fringe.offer(c, d);
+            }
+        }
+        stats.record(state.settledCount(), System.nanoTime() - begin);
+        return result;
+    }
+
+    /**
+     * @return Totals over all source searches, for the stats endpoint.
+     */
+    public Map<String, Object> stats() {
+        return stats.toMap();
+    }
+}
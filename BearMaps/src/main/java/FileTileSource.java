@@ -0,0 +1,24 @@
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+
+/**
+ * Reads tiles as individual png files named by quadtree id, e.g. img/1234.png.
+ */
+public class FileTileSource implements TileSource {
+    private final String imgRoot;
+
+    public FileTileSource(String imgRoot) {
+        this.imgRoot = imgRoot;
+    }
+
+    @Override
+    public ByteBuffer read(String id) throws IOException {
+        return ByteBuffer.wrap(Files.readAllBytes(file(id).toPath()));
+    }
+
+    File file(String id) {
+        return new File(imgRoot + id + ".png");
+    }
+}
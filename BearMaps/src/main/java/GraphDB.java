@@ -5,7 +5,6 @@ import java.io.IOException;
 import javax.xml.parsers.ParserConfigurationException;
 import javax.xml.parsers.SAXParser;
 import javax.xml.parsers.SAXParserFactory;
-import java.util.HashMap;
 
 /**
  * Wraps the parsing functionality of the MapDBHandler as an example.
@@ -14,56 +13,124 @@ import java.util.HashMap;
  * @author Alan Yao
  */
 public class GraphDB {
+    /**
+     * How OSM XML is read: -Dbearmaps.importer=stream (the default) scans it with
+     * OsmXmlImporter, sax parses it with MapDBHandler.
+     */
+    private static final String IMPORTER = System.getProperty("bearmaps.importer", "stream");
+    private final RoadGraph roads;
+    private final SpatialIndex spatialIndex;
+    private final Places places;
+
     /**
      * Example constructor shows how to create and start an XML parser.
      *
      * @param db_path Path to the XML file to be parsed.
      */
-    HashMap<String, Node> dirtyPlaces;
-    HashMap<String, Node> cleanPlaces = new HashMap<>();
-
     public GraphDB(String db_path) {
+        this(db_path, null);
+    }
+
+    /**
+     * Loads the graph from a snapshot of the OSM file if there is a current one, and otherwise
+     * parses the file and, if that succeeds, saves a snapshot for next time. A failed parse
+     * leaves the graph with whatever was read before the failure.
+     *
+     * @param db_path      Path to the OSM file: PBF if it ends in .pbf, XML otherwise.
+     * @param snapshotPath Path of the GraphSnapshot, or null to always parse the OSM file.
+     */
+    public GraphDB(String db_path, String snapshotPath) {
+        long start = System.currentTimeMillis();
+        File source = new File(db_path);
+        GraphSnapshot snapshot = null;
+        if (snapshotPath != null && new File(snapshotPath).isFile()) {
+            try {
+                snapshot = GraphSnapshot.read(snapshotPath, source);
+            } catch (IOException e) {
+                System.out.println(e.getMessage() + " Parsing " + db_path + " instead.");
+            }
+        }
+        if (snapshot != null) {
+            roads = snapshot.roads();
+            spatialIndex = snapshot.spatialIndex();
+            places = snapshot.places();
+            System.out.println("Loaded " + roads + " and " + places + " from " + snapshotPath
+                    + " in " + (System.currentTimeMillis() - start) + " ms.");
+            return;
+        }
+
+        RoadGraph.Builder builder = new RoadGraph.Builder();
+        Places.Builder placesBuilder = new Places.Builder();
+        boolean imported = false;
         try {
-            File inputFile = new File(db_path);
-            SAXParserFactory factory = SAXParserFactory.newInstance();
-            SAXParser saxParser = factory.newSAXParser();
-            MapDBHandler maphandler = new MapDBHandler(this);
-            saxParser.parse(inputFile, maphandler);
-            dirtyPlaces = maphandler.getHashMap();
+            if (db_path.endsWith(".pbf")) {
+                new OsmPbfImporter(source).importInto(builder, placesBuilder);
+            } else if (IMPORTER.equals("sax")) {
+                SAXParserFactory factory = SAXParserFactory.newInstance();
+                SAXParser saxParser = factory.newSAXParser();
+                MapDBHandler maphandler = new MapDBHandler(builder, placesBuilder);
+                saxParser.parse(source, maphandler);
+            } else {
+                new OsmXmlImporter(source).importInto(builder, placesBuilder);
+            }
+            imported = true;
         } catch (ParserConfigurationException | SAXException | IOException e) {
             e.printStackTrace();
         }
-        clean();
+        roads = builder.build();
+        spatialIndex = new SpatialIndex(roads);
+        places = placesBuilder.build();
+        System.out.println("Loaded " + roads + " and " + places + " from " + db_path + " in "
+                + (System.currentTimeMillis() - start) + " ms.");
+        /* A snapshot of a failed import would look current until the source changes. */
+        if (snapshotPath != null && imported && source.isFile()) {
+            try {
+                new GraphSnapshot(roads, spatialIndex, places).write(snapshotPath, source);
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
     }
 
     /**
-     * Helper to process strings into their "cleaned" form, ignoring punctuation and capitalization.
-     *
-     * @param s Input string.
-     * @return Cleaned string.
+     * @return The road network, without nodes that are on no road.
      */
-    public HashMap getCleanHasMap() {
-        return cleanPlaces;
+    public RoadGraph roads() {
+        return roads;
     }
 
-    public HashMap getDirtyHashMap() {
-        return dirtyPlaces;
+    /**
+     * @return The index for finding road nodes near a point.
+     */
+    public SpatialIndex spatialIndex() {
+        return spatialIndex;
     }
 
-    static String cleanString(String s) {
-        return s.replaceAll("[^a-zA-Z ]", "").toLowerCase();
+    /**
+     * @return The named places, for search.
+     */
+    public Places places() {
+        return places;
     }
 
     /**
-     * Remove nodes with no connections from the graph.
-     * While this does not guarantee that any two nodes in the remaining graph are connected,
-     * we can reasonably assume this since typically roads are connected.
+     * Helper to process strings into their "cleaned" form, ignoring punctuation and capitalization.
+     *
+     * @param s Input string.
+     * @return Cleaned string.
      */
-    private void clean() {
-        for (Node s : dirtyPlaces.values()) {
-            if (s.getEdge().size() > 0) {
-                cleanPlaces.put(s.id, s);
+    static String cleanString(String s) {
+        /* Keeps only ASCII letters and spaces, like s.replaceAll("[^a-zA-Z ]", "") followed by
+         * toLowerCase(), without compiling a pattern per call. */
+        StringBuilder cleaned = new StringBuilder(s.length());
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            if (c >= 'A' && c <= 'Z') {
+                cleaned.append((char) (c + ('a' - 'A')));
+            } else if (c >= 'a' && c <= 'z' || c == ' ') {
+                cleaned.append(c);
             }
         }
+        return cleaned.toString();
     }
 }
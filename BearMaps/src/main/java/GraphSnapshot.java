@@ -0,0 +1,262 @@
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedOutputStream;
+
+/**
+ * Everything GraphDB derives from the OSM file, saved in one binary file so later starts can
+ * memory-map it instead of parsing XML. Layout (big-endian):
+ * <pre>
+ * int    magic "BMGS"
+ * int    format version
+ * long   source file length, long source file modification time
+ * int    node count n, int directed edge count m
+ * int    CRC-32 of everything after the header
+ * int    distinct place name count e, int place count p
+ * int    cleaned name byte count, int full name byte count
+ * n x long OSM ids, n x double latitudes, n x double longitudes
+ * (n + 1) x int offsets, m x int targets, m x double weights
+ * n x int spatial index order
+ * (e + 1) x int cleaned name offsets, (e + 1) x int full name offsets, e x int scores,
+ * (e + 1) x int place offsets, p x long place ids, p x double latitudes, p x double longitudes
+ * cleaned names, full names
+ * </pre>
+ * A snapshot is stale when the source file's length or modification time no longer match.
+ * Build one ahead of time with <code>java GraphSnapshot berkeley.osm berkeley.osm.snapshot</code>.
+ */
+public class GraphSnapshot {
+    private static final int MAGIC = 0x424D4753;
+    private static final int VERSION = 2;
+    private static final int CRC_OFFSET = 32;
+    private static final int HEADER_SIZE = 52;
+
+    private final RoadGraph roads;
+    private final SpatialIndex spatialIndex;
+    private final Places places;
+
+    GraphSnapshot(RoadGraph roads, SpatialIndex spatialIndex, Places places) {
+        this.roads = roads;
+        this.spatialIndex = spatialIndex;
+        this.places = places;
+    }
+
+    public RoadGraph roads() {
+        return roads;
+    }
+
+    public SpatialIndex spatialIndex() {
+        return spatialIndex;
+    }
+
+    public Places places() {
+        return places;
+    }
+
+    /**
+     * Maps a snapshot and copies it into a graph.
+     *
+     * @param source The OSM file it was made from; if that exists, it must not have changed.
+     * @throws IOException If the file is missing, corrupt, of another version or stale.
+     */
+    public static GraphSnapshot read(String path, File source) throws IOException {
+        try (RandomAccessFile file = new RandomAccessFile(path, "r");
+             FileChannel channel = file.getChannel()) {
+            if (channel.size() > Integer.MAX_VALUE) {
+                throw new IOException(path + " is too large to be a graph snapshot.");
+            }
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0,
+                    channel.size());
+            if (buffer.limit() < HEADER_SIZE || buffer.getInt() != MAGIC
+                    || buffer.getInt() != VERSION) {
+                throw new IOException(path + " is not a version " + VERSION
+                        + " graph snapshot.");
+            }
+            long sourceLength = buffer.getLong();
+            long sourceModified = buffer.getLong();
+            if (source.isFile() && (source.length() != sourceLength
+                    || source.lastModified() != sourceModified)) {
+                throw new IOException(path + " is older than " + source + ".");
+            }
+            int n = buffer.getInt();
+            int m = buffer.getInt();
+            int crc = buffer.getInt();
+            int e = buffer.getInt();
+            int p = buffer.getInt();
+            int keyBytes = buffer.getInt();
+            int nameBytes = buffer.getInt();
+            if ((n | m | e | p | keyBytes | nameBytes) < 0) {
+                throw new IOException(path + " is corrupt.");
+            }
+            /* With no count negative, matching the total means every section below fits. */
+            if (buffer.remaining() != n * 28L + (n + 1) * 4L + m * 12L + (e + 1) * 12L
+                    + e * 4L + p * 24L + keyBytes + nameBytes) {
+                throw new IOException(path + " is truncated.");
+            }
+            CRC32 expected = new CRC32();
+            expected.update(buffer.duplicate());
+            if ((int) expected.getValue() != crc) {
+                throw new IOException(path + " is corrupt.");
+            }
+
+            long[] osmIds = new long[n];
+            double[] lats = new double[n];
+            double[] lons = new double[n];
+            int[] offsets = new int[n + 1];
+            int[] targets = new int[m];
+            double[] weights = new double[m];
+            int[] order = new int[n];
+            buffer.asLongBuffer().get(osmIds);
+            buffer.position(buffer.position() + n * 8);
+            buffer.asDoubleBuffer().get(lats);
+            buffer.position(buffer.position() + n * 8);
+            buffer.asDoubleBuffer().get(lons);
+            buffer.position(buffer.position() + n * 8);
+            buffer.asIntBuffer().get(offsets);
+            buffer.position(buffer.position() + (n + 1) * 4);
+            buffer.asIntBuffer().get(targets);
+            buffer.position(buffer.position() + m * 4);
+            buffer.asDoubleBuffer().get(weights);
+            buffer.position(buffer.position() + m * 8);
+            buffer.asIntBuffer().get(order);
+            buffer.position(buffer.position() + n * 4);
+            RoadGraph roads = new RoadGraph(osmIds, lats, lons, offsets, targets, weights);
+
+            int[] keyOffsets = new int[e + 1];
+            int[] nameOffsets = new int[e + 1];
+            int[] scores = new int[e];
+            int[] placeOffsets = new int[e + 1];
+            long[] placeIds = new long[p];
+            double[] placeLats = new double[p];
+            double[] placeLons = new double[p];
+            byte[] keys = new byte[keyBytes];
+            byte[] names = new byte[nameBytes];
+            buffer.asIntBuffer().get(keyOffsets);
+            buffer.position(buffer.position() + (e + 1) * 4);
+            buffer.asIntBuffer().get(nameOffsets);
+            buffer.position(buffer.position() + (e + 1) * 4);
+            buffer.asIntBuffer().get(scores);
+            buffer.position(buffer.position() + e * 4);
+            buffer.asIntBuffer().get(placeOffsets);
+            buffer.position(buffer.position() + (e + 1) * 4);
+            buffer.asLongBuffer().get(placeIds);
+            buffer.position(buffer.position() + p * 8);
+            buffer.asDoubleBuffer().get(placeLats);
+            buffer.position(buffer.position() + p * 8);
+            buffer.asDoubleBuffer().get(placeLons);
+            buffer.position(buffer.position() + p * 8);
+            buffer.get(keys);
+            buffer.get(names);
+            Places places = new Places(keys, keyOffsets, names, nameOffsets, scores,
+                    placeOffsets, placeIds, placeLats, placeLons);
+            return new GraphSnapshot(roads, new SpatialIndex(roads, order), places);
+        } catch (RuntimeException e) {
+            /* A file that passed the checks but still does not decode, so callers that fall
+             * back to parsing on an IOException do so here too. */
+            throw new IOException(path + " is corrupt.", e);
+        }
+    }
+
+    /**
+     * Saves the snapshot to path, replacing any existing file only once it is complete.
+     *
+     * @param source The OSM file the graph was parsed from.
+     */
+    public void write(String path, File source) throws IOException {
+        File temp = new File(path + ".tmp");
+        CRC32 crc = new CRC32();
+        try (DataOutputStream out = new DataOutputStream(new CheckedOutputStream(
+                new BufferedOutputStream(new FileOutputStream(temp), 1 << 16), crc))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeLong(source.length());
+            out.writeLong(source.lastModified());
+            out.writeInt(roads.size());
+            out.writeInt(roads.edgeCount());
+            out.writeInt(0);
+            out.writeInt(places.size());
+            out.writeInt(places.placeCount());
+            out.writeInt(places.keys().length);
+            out.writeInt(places.names().length);
+            crc.reset();
+
+            int n = roads.size();
+            ByteBuffer chunk = ByteBuffer.allocate(1 << 16);
+            for (int v = 0; v < n; v++) {
+                chunk = room(out, chunk).putLong(roads.osmId(v));
+            }
+            for (int v = 0; v < n; v++) {
+                chunk = room(out, chunk).putDouble(roads.lat(v));
+            }
+            for (int v = 0; v < n; v++) {
+                chunk = room(out, chunk).putDouble(roads.lon(v));
+            }
+            for (int v = 0; v < n; v++) {
+                chunk = room(out, chunk).putInt(roads.firstEdge(v));
+            }
+            chunk = room(out, chunk).putInt(roads.edgeCount());
+            for (int e = 0; e < roads.edgeCount(); e++) {
+                chunk = room(out, chunk).putInt(roads.target(e));
+            }
+            for (int e = 0; e < roads.edgeCount(); e++) {
+                chunk = room(out, chunk).putDouble(roads.weight(e));
+            }
+            for (int v : spatialIndex.order()) {
+                chunk = room(out, chunk).putInt(v);
+            }
+            for (int[] ints : new int[][]{places.keyOffsets(), places.nameOffsets(),
+                places.scores(), places.nodeOffsets()}) {
+                for (int i : ints) {
+                    chunk = room(out, chunk).putInt(i);
+                }
+            }
+            for (long id : places.ids()) {
+                chunk = room(out, chunk).putLong(id);
+            }
+            for (double[] doubles : new double[][]{places.lats(), places.lons()}) {
+                for (double d : doubles) {
+                    chunk = room(out, chunk).putDouble(d);
+                }
+            }
+            out.write(chunk.array(), 0, chunk.position());
+            out.write(places.keys());
+            out.write(places.names());
+        }
+        try (RandomAccessFile file = new RandomAccessFile(temp, "rw")) {
+            file.seek(CRC_OFFSET);
+            file.writeInt((int) crc.getValue());
+        }
+        Files.move(temp.toPath(), new File(path).toPath(), StandardCopyOption.REPLACE_EXISTING,
+                StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /* Flushes chunk to out when it cannot take another long. */
+    private static ByteBuffer room(DataOutputStream out, ByteBuffer chunk) throws IOException {
+        if (chunk.remaining() < 8) {
+            out.write(chunk.array(), 0, chunk.position());
+            chunk.clear();
+        }
+        return chunk;
+    }
+
+    public static void main(String[] args) throws IOException {
+        if (args.length != 2) {
+            System.err.println("Usage: java GraphSnapshot <osm file> <snapshot file>");
+            System.exit(1);
+        }
+        GraphDB graph = new GraphDB(args[0]);
+        long start = System.currentTimeMillis();
+        new GraphSnapshot(graph.roads(), graph.spatialIndex(), graph.places())
+                .write(args[1], new File(args[0]));
+        System.out.println("Wrote " + args[1] + " in " + (System.currentTimeMillis() - start)
+                + " ms.");
+    }
+}
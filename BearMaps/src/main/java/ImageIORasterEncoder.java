@@ -0,0 +1,57 @@
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Iterator;
+import javax.imageio.IIOImage;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageWriteParam;
+import javax.imageio.ImageWriter;
+import javax.imageio.stream.ImageOutputStream;
+
+/**
+ * Encodes rasters with the ImageIO writer for a format. PNG uses ImageIO's default settings,
+ * which is what the server has always sent; JPEG takes an explicit quality.
+ */
+public class ImageIORasterEncoder implements RasterEncoder {
+    private final String format;
+    private final String contentType;
+    private final float quality;
+
+    /**
+     * @param format  ImageIO format name, e.g. "png" or "jpeg".
+     * @param quality Compression quality from 0 to 1, or a negative number for the writer's
+     *                default.
+     */
+    public ImageIORasterEncoder(String format, float quality) {
+        this.format = format;
+        this.contentType = "image/" + format;
+        this.quality = quality;
+    }
+
+    @Override
+    public String contentType() {
+        return contentType;
+    }
+
+    @Override
+    public void encode(BufferedImage image, OutputStream os) throws IOException {
+        if (quality < 0) {
+            ImageIO.write(image, format, os);
+            return;
+        }
+        Iterator<ImageWriter> writers = ImageIO.getImageWritersByFormatName(format);
+        if (!writers.hasNext()) {
+            throw new IOException("No ImageIO writer for " + format + ".");
+        }
+        ImageWriter writer = writers.next();
+        ImageWriteParam param = writer.getDefaultWriteParam();
+        param.setCompressionMode(ImageWriteParam.MODE_EXPLICIT);
+        param.setCompressionQuality(quality);
+        try (ImageOutputStream ios = ImageIO.createImageOutputStream(os)) {
+            writer.setOutput(ios);
+            writer.write(null, new IIOImage(image, null, null), param);
+        } finally {
+            writer.dispose();
+        }
+    }
+}
@@ -0,0 +1,240 @@
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+
+/**
+ * Landmarks for ALT search: a few nodes on the edge of the map and the road distance from each
+ * of them to every node. By the triangle inequality, |d(L, t) - d(L, v)| is a lower bound on
+ * the distance between v and t for every landmark L, and usually a much tighter one than the
+ * straight line.
+ * Distances are stored node-major, so the bounds for one node are adjacent in memory.
+ * File layout (big-endian):
+ * <pre>
+ * int    magic "BMLM"
+ * int    format version
+ * int    node count, long graph checksum
+ * int    landmark count k
+ * k x int               landmark nodes
+ * node count x k double distances; +Infinity where a node cannot reach a landmark
+ * </pre>
+ */
+public class Landmarks {
+    private static final int MAGIC = 0x424D4C4D;
+    private static final int VERSION = 1;
+    private static final int HEADER_SIZE = 24;
+
+    private final int[] nodes;
+    private final double[] distances;
+
+    private Landmarks(int[] nodes, double[] distances) {
+        this.nodes = nodes;
+        this.distances = distances;
+    }
+
+    /**
+     * Picks up to count landmarks and computes their distance tables, one Dijkstra search per
+     * landmark on the WorkerPool.
+     * Landmarks are chosen planar-style: the largest connected component is cut into count
+     * equal angles around its center, and the node farthest from the center in each slice is
+     * taken. Landmarks far out and spread around the map give good bounds for most queries.
+     * A count below 1 gives no landmarks, whose lower bounds are all 0.
+     */
+    public static Landmarks select(RoadGraph roads, int count) {
+        if (count < 1) {
+            return new Landmarks(new int[0], new double[0]);
+        }
+        int[] candidates = largestComponent(roads);
+        double centerLat = 0, centerLon = 0;
+        for (int v : candidates) {
+            centerLat += roads.lat(v) / candidates.length;
+            centerLon += roads.lon(v) / candidates.length;
+        }
+        int[] farthest = new int[count];
+        double[] farthestDistance = new double[count];
+        Arrays.fill(farthest, -1);
+        for (int v : candidates) {
+            double dLat = roads.lat(v) - centerLat;
+            double dLon = roads.lon(v) - centerLon;
+            int sector = (int) ((Math.atan2(dLat, dLon) + Math.PI) / (2 * Math.PI) * count);
+            sector = Math.min(sector, count - 1);
+            double distance = dLat * dLat + dLon * dLon;
+            if (farthest[sector] < 0 || distance > farthestDistance[sector]) {
+                farthest[sector] = v;
+                farthestDistance[sector] = distance;
+            }
+        }
+        int[] nodes = Arrays.stream(farthest).filter(v -> v >= 0).toArray();
+
+        int k = nodes.length;
+        double[] distances = new double[roads.size() * k];
+        WorkerPool.forEach(k, landmark -> {
+            double[] dist = distancesFrom(roads, nodes[landmark]);
+            for (int v = 0; v < dist.length; v++) {
+                distances[v * k + landmark] = dist[v];
+            }
+        });
+        return new Landmarks(nodes, distances);
+    }
+
+    /**
+     * @return The nodes of the largest connected component, or no nodes for an empty graph.
+     */
+    private static int[] largestComponent(RoadGraph roads) {
+        int[] component = new int[roads.size()];
+        Arrays.fill(component, -1);
+        int[] queue = new int[roads.size()];
+        int best = -1;
+        int bestSize = 0;
+        for (int root = 0; root < roads.size(); root++) {
+            if (component[root] >= 0) {
+                continue;
+            }
+            int head = 0, tail = 0;
+            queue[tail++] = root;
+            component[root] = root;
+            while (head < tail) {
+                int v = queue[head++];
+                for (int e = roads.firstEdge(v); e < roads.endEdge(v); e++) {
+                    int c = roads.target(e);
+                    if (component[c] < 0) {
+                        component[c] = root;
+                        queue[tail++] = c;
+                    }
+                }
+            }
+            if (tail > bestSize) {
+                best = root;
+                bestSize = tail;
+            }
+        }
+        int[] nodes = new int[bestSize];
+        for (int v = 0, n = 0; v < roads.size(); v++) {
+            if (component[v] == best) {
+                nodes[n++] = v;
+            }
+        }
+        return nodes;
+    }
+
+    /**
+     * Dijkstra's algorithm from source over the whole graph.
+     */
+    private static double[] distancesFrom(RoadGraph roads, int source) {
+        double[] dist = new double[roads.size()];
+        Arrays.fill(dist, Double.POSITIVE_INFINITY);
+        NodeHeap fringe = new NodeHeap(roads.size());
+        dist[source] = 0;
+        fringe.offer(source, 0);
+        while (!fringe.isEmpty()) {
+            int v = fringe.poll();
+            for (int e = roads.firstEdge(v); e < roads.endEdge(v); e++) {
+                int c = roads.target(e);
+                double d = dist[v] + roads.weight(e);
+                if (d < dist[c]) {
+                    dist[c] = d;
+                    fringe.offer(c, d);
+                }
+            }
+        }
+        return dist;
+    }
+
+    /**
+     * Reads landmarks written by write.
+     *
+     * @throws IOException If the file is missing, is not a landmark file of the current
+     *                     version, or was computed for a different graph.
+     */
+    public static Landmarks read(RoadGraph roads, String path) throws IOException {
+        try (RandomAccessFile file = new RandomAccessFile(path, "r");
+             FileChannel channel = file.getChannel()) {
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0,
+                    channel.size());
+            if (buffer.limit() < HEADER_SIZE || buffer.getInt() != MAGIC
+                    || buffer.getInt() != VERSION || buffer.getInt() != roads.size()
+                    || buffer.getLong() != roads.checksum()) {
+                throw new IOException(path + " does not hold version " + VERSION
+                        + " landmarks for this graph.");
+            }
+            int k = buffer.getInt();
+            if (buffer.remaining() != k * 4L + (long) roads.size() * k * 8) {
+                throw new IOException(path + " is truncated.");
+            }
+            int[] nodes = new int[k];
+            buffer.asIntBuffer().get(nodes);
+            buffer.position(buffer.position() + k * 4);
+            double[] distances = new double[roads.size() * k];
+            buffer.asDoubleBuffer().get(distances);
+            return new Landmarks(nodes, distances);
+        }
+    }
+
+    /**
+     * Saves the landmarks of roads to path, overwriting it.
+     */
+    public void write(RoadGraph roads, String path) throws IOException {
+        try (DataOutputStream out = new DataOutputStream(
+                new BufferedOutputStream(new FileOutputStream(path), 1 << 16))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(roads.size());
+            out.writeLong(roads.checksum());
+            out.writeInt(nodes.length);
+            for (int node : nodes) {
+                out.writeInt(node);
+            }
+            ByteBuffer chunk = ByteBuffer.allocate(1 << 16);
+            for (double distance : distances) {
+                if (!chunk.hasRemaining()) {
+                    out.write(chunk.array(), 0, chunk.position());
+                    chunk.clear();
+                }
+                chunk.putDouble(distance);
+            }
+            out.write(chunk.array(), 0, chunk.position());
+        }
+    }
+
+    public int count() {
+        return nodes.length;
+    }
+
+    /**
+     * @return A lower bound on the road distance between v and t; 0 if no landmark bounds it.
+     * Infinite when exactly one of them reaches some landmark, since then they are not
+     * connected.
+     */
+    public double lowerBound(int v, int t) {
+        int k = nodes.length;
+        double bound = 0;
+        for (int i = v * k, j = t * k, end = i + k; i < end; i++, j++) {
+            /* Where neither node reaches the landmark, the difference is NaN and is skipped. */
+            double difference = Math.abs(distances[j] - distances[i]);
+            if (difference > bound) {
+                bound = difference;
+            }
+        }
+        return bound;
+    }
+
+    /**
+     * @return The heap footprint of the distance table, in bytes.
+     */
+    public long bytes() {
+        return distances.length * 8L;
+    }
+
+    @Override
+    public String toString() {
+        return "Landmarks{"
+                + "count=" + nodes.length
+                + ", megabytes=" + bytes() / (1024 * 1024)
+                + '}';
+    }
+}
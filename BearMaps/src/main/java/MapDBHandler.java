@@ -2,8 +2,6 @@ import org.xml.sax.Attributes;
 import org.xml.sax.SAXException;
 import org.xml.sax.helpers.DefaultHandler;
 
-import java.util.HashMap;
-import java.util.ArrayList;
 import java.util.Set;
 import java.util.HashSet;
 import java.util.Arrays;
@@ -27,20 +25,27 @@ public class MapDBHandler extends DefaultHandler {
      * roads, but in practice we walk all over them with such impunity that we forget cars can
      * actually drive on them.
      */
-    HashMap<String, Node> places = new HashMap<String, Node>();
-    ArrayList<String> tempConnect = new ArrayList<String>();
-
-    private static final Set<String> ALLOWED_HIGHWAY_TYPES
+    static final Set<String> ALLOWED_HIGHWAY_TYPES
             = new HashSet<String>(Arrays.asList
             ("motorway", "trunk", "primary", "secondary", "tertiary", "unclassified",
                     "residential", "living_street", "motorway_link", "trunk_link", "primary_link",
                     "secondary_link", "tertiary_link"));
     private String activeState = "";
-    private final GraphDB g;
+    private final RoadGraph.Builder roads;
+    private final Places.Builder places;
+    /* The node being parsed, and its name and importance if it has tags. */
+    private long nodeId;
+    private double nodeLat, nodeLon;
+    private String nodeName;
+    private int nodeImportance;
+    /* Node refs of the way being parsed, and whether it has turned out to be a road. */
+    private long[] wayRefs = new long[64];
+    private int wayLength;
+    private boolean highway;
 
-    //arraylist
-    public MapDBHandler(GraphDB g) {
-        this.g = g;
+    public MapDBHandler(RoadGraph.Builder roads, Places.Builder places) {
+        this.roads = roads;
+        this.places = places;
     }
 
     /**
@@ -66,34 +71,40 @@ public class MapDBHandler extends DefaultHandler {
             throws SAXException {
         if (qName.equals("node")) {
             activeState = "node";
-            places.put(attributes.getValue("id"),
-                    new Node(attributes.getValue("id"),
-                            Double.parseDouble(attributes.getValue("lat")),
-                            Double.parseDouble(attributes.getValue("lon"))));
-        } else if (qName.equals("way") && activeState.equals("way")) {
+            nodeId = Long.parseLong(attributes.getValue("id"));
+            nodeLat = Double.parseDouble(attributes.getValue("lat"));
+            nodeLon = Double.parseDouble(attributes.getValue("lon"));
+            nodeName = null;
+            nodeImportance = 0;
+            roads.addNode(nodeId, nodeLat, nodeLon);
+        } else if (qName.equals("way")) {
             activeState = "way";
-            tempConnect = new ArrayList<String>();
+            wayLength = 0;
+            highway = false;
         } else if (activeState.equals("way")
                 && qName.equals("nd")) {
-            String ref = attributes.getValue("ref");
-            tempConnect.add(ref);
+            if (wayLength == wayRefs.length) {
+                wayRefs = Arrays.copyOf(wayRefs, wayLength * 2);
+            }
+            wayRefs[wayLength++] = Long.parseLong(attributes.getValue("ref"));
         } else if (activeState.equals("way")
                 && qName.equals("tag")) {
             if (ALLOWED_HIGHWAY_TYPES.contains(attributes.getValue("v"))
                     && attributes.getValue("k").equals("highway")) {
-                for (int i = 0; i < tempConnect.size() - 1; i++) {
-                    places.get(tempConnect.get(i)).setEdge(places.get(tempConnect.get(i + 1)));
-                    places.get(tempConnect.get(i + 1)).setEdge(places.get(tempConnect.get(i)));
-                }
-                tempConnect = new ArrayList<String>();
+                highway = true;
+            }
+        } else if (activeState.equals("node")
+                && qName.equals("tag")) {
+            String k = attributes.getValue("k");
+            if (k.equals("name")) {
+                nodeName = attributes.getValue("v");
+            } else {
+                nodeImportance = Math.max(nodeImportance,
+                        Places.importance(k, attributes.getValue("v")));
             }
         }
     }
 
-    public HashMap getHashMap() {
-        return places;
-    }
-
     /**
      * Receive notification of the end of an element. You may want to take specific terminating
      * actions here, like finalizing vertices or edges found.
@@ -109,7 +120,17 @@ public class MapDBHandler extends DefaultHandler {
     @Override
     public void endElement(String uri, String localName, String qName) throws SAXException {
         if (qName.equals("way")) {
-            tempConnect = new ArrayList<String>();
+            if (highway) {
+                for (int i = 0; i < wayLength - 1; i++) {
+                    roads.addEdge(wayRefs[i], wayRefs[i + 1]);
+                }
+            }
+            activeState = "";
+        } else if (qName.equals("node")) {
+            if (nodeName != null) {
+                places.add(nodeId, nodeLat, nodeLon, nodeName, nodeImportance);
+            }
+            activeState = "";
         }
     }
 
@@ -1,23 +1,31 @@
 import java.awt.BasicStroke;
 import java.awt.Stroke;
-import java.awt.Graphics;
 import java.awt.Color;
 import java.awt.Graphics2D;
 import java.io.ByteArrayOutputStream;
-import java.io.File;
 import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.Map;
+import java.util.HashSet;
 import java.util.Set;
 import java.util.LinkedList;
-import java.util.ArrayList;
 import java.util.Base64;
-import java.util.HashSet;
-import java.util.PriorityQueue;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.Future;
+import java.util.function.Function;
+import java.util.zip.Deflater;
 import java.awt.image.BufferedImage;
 import javax.imageio.ImageIO;
 
 import com.google.gson.Gson;
+import com.google.gson.JsonParseException;
+import com.google.gson.annotations.SerializedName;
 
 import java.io.*;
 import java.util.List;
@@ -48,6 +56,14 @@ public class MapServer {
      * HTTP failed response.
      */
     private static final int HALT_RESPONSE = 403;
+    /**
+     * HTTP response telling the client its cached copy is still current.
+     */
+    private static final int NOT_MODIFIED_RESPONSE = 304;
+    /**
+     * HTTP response for a tile id that names no tile.
+     */
+    private static final int NOT_FOUND_RESPONSE = 404;
     /**
      * Route stroke information: typically roads are not more than 5px wide.
      */
@@ -60,11 +76,109 @@ public class MapServer {
      * The tile images are in the IMG_ROOT folder.
      */
     private static final String IMG_ROOT = "img/";
+    /**
+     * Packed tile file built by TilePack. When present it is memory-mapped and used instead of
+     * the individual files in IMG_ROOT. Set with -Dbearmaps.tilePack=path.
+     */
+    private static final String TILE_PACK_PATH =
+            System.getProperty("bearmaps.tilePack", "tiles.pack");
+    /**
+     * Budget for decoded tiles kept in memory, in megabytes of pixel data.
+     * Set with -Dbearmaps.tileCacheMb=N.
+     */
+    private static final long TILE_CACHE_BYTES =
+            Long.getLong("bearmaps.tileCacheMb", 256L) * 1024 * 1024;
+    /**
+     * When set, every tile through TILE_ATLAS_DEPTH is decoded at startup into an off-heap
+     * pixel atlas and rasters are assembled by copying scanlines. Set with
+     * -Dbearmaps.tileAtlas=true; the depth with -Dbearmaps.tileAtlasDepth=N.
+     */
+    private static final boolean TILE_ATLAS = Boolean.getBoolean("bearmaps.tileAtlas");
+    private static final int TILE_ATLAS_DEPTH =
+            Integer.getInteger("bearmaps.tileAtlasDepth", TileIndex.MAX_DEPTH);
+    /**
+     * Rasters of at least this many tiles are composed in parallel on the WorkerPool.
+     * Set with -Dbearmaps.parallelTiles=N.
+     */
+    private static final int PARALLEL_TILES = Integer.getInteger("bearmaps.parallelTiles", 16);
+    /**
+     * Budget for finished raster pngs kept in memory, in megabytes; 0 disables the cache and
+     * encodes straight into the response. Set with -Dbearmaps.rasterCacheMb=N.
+     */
+    private static final long RASTER_CACHE_BYTES =
+            Long.getLong("bearmaps.rasterCacheMb", 64L) * 1024 * 1024;
+    /**
+     * Raster encoding. -Dbearmaps.rasterEncoder=imageio (the default) uses ImageIO's png
+     * writer; png uses PngRasterEncoder, tuned with -Dbearmaps.pngLevel=0..9,
+     * -Dbearmaps.pngFilter=none|sub|up|average|paeth|adaptive and
+     * -Dbearmaps.pngStrategy=default|filtered|huffman.
+     * -Dbearmaps.imageryEncoder=jpeg sends rasters without a route drawn on them as JPEG at
+     * -Dbearmaps.jpegQuality (0 to 1, default 0.85); routes stay lossless.
+     */
+    private static final String RASTER_ENCODER = System.getProperty("bearmaps.rasterEncoder",
+            "imageio");
+    private static final String IMAGERY_ENCODER = System.getProperty("bearmaps.imageryEncoder",
+            RASTER_ENCODER);
+    /**
+     * How long browsers and proxies may reuse a tile from /tiles without revalidating it, in
+     * seconds. Set with -Dbearmaps.tileMaxAge=N.
+     */
+    private static final long TILE_MAX_AGE = Long.getLong("bearmaps.tileMaxAge", 30L * 24 * 3600);
     /**
      * The OSM XML file path. Downloaded from <a href="http://download.bbbike.org/osm/">here</a>
-     * using custom region selection.
+     * using custom region selection. Set with -Dbearmaps.osmFile=path; a path ending in .pbf
+     * is read as OSM PBF.
      **/
-    private static final String OSM_DB_PATH = "berkeley.osm";
+    private static final String OSM_DB_PATH = System.getProperty("bearmaps.osmFile",
+            "berkeley.osm");
+    /**
+     * Binary snapshot of the parsed graph, written on the first start and memory-mapped on
+     * later ones until OSM_DB_PATH changes. Set with -Dbearmaps.graphSnapshot=path; an empty
+     * path always parses the OSM file.
+     */
+    private static final String GRAPH_SNAPSHOT_PATH =
+            System.getProperty("bearmaps.graphSnapshot", OSM_DB_PATH + ".snapshot");
+    /**
+     * Routing algorithm: -Dbearmaps.routing=astar (the default) for A* with a straight-line
+     * heuristic, alt for bidirectional A* with landmark bounds, or ch for a Contraction
+     * Hierarchy. ALT computes -Dbearmaps.landmarks=N landmarks (default 16) at startup; with
+     * -Dbearmaps.landmarkFile=path, e.g. berkeley.osm.landmarks, they are read from that file
+     * when it matches the graph and saved to it otherwise. -Dbearmaps.chFile=path does the
+     * same for the hierarchy.
+     */
+    private static final String ROUTING = System.getProperty("bearmaps.routing", "astar");
+    private static final int LANDMARKS = Integer.getInteger("bearmaps.landmarks", 16);
+    private static final String LANDMARK_PATH = System.getProperty("bearmaps.landmarkFile");
+    private static final String CH_PATH = System.getProperty("bearmaps.chFile");
+    /**
+     * Routes found through /route are kept per client until unused for
+     * -Dbearmaps.routeTtlSeconds=N (default 30 minutes), at most -Dbearmaps.maxRoutes=N of them.
+     */
+    private static final int MAX_ROUTES = Integer.getInteger("bearmaps.maxRoutes", 10000);
+    private static final long ROUTE_TTL_MILLIS =
+            Long.getLong("bearmaps.routeTtlSeconds", 30L * 60) * 1000;
+    /**
+     * Largest number of sources times targets one /matrix request may ask for.
+     * Set with -Dbearmaps.maxMatrixCells=N.
+     */
+    private static final long MAX_MATRIX_CELLS =
+            Long.getLong("bearmaps.maxMatrixCells", 1000000L);
+    /**
+     * Largest number of routes one /routes request may ask for.
+     * Set with -Dbearmaps.maxBatchRoutes=N.
+     */
+    private static final int MAX_BATCH_ROUTES = Integer.getInteger("bearmaps.maxBatchRoutes",
+            10000);
+    /**
+     * How many names /search suggests for a prefix when the request has no limit parameter.
+     * Set with -Dbearmaps.searchLimit=N.
+     */
+    private static final int SEARCH_LIMIT = Integer.getInteger("bearmaps.searchLimit", 10);
+    /**
+     * Whether full-name searches that match nothing fall back to names a few typos away when
+     * the request has no fuzzy parameter. Set with -Dbearmaps.fuzzySearch=true.
+     */
+    private static final boolean FUZZY_SEARCH = Boolean.getBoolean("bearmaps.fuzzySearch");
     /**
      * Each raster request to the server will have the following parameters
      * as keys in the params map accessible by,
@@ -75,6 +189,27 @@ public class MapServer {
      **/
     private static final String[] REQUIRED_RASTER_REQUEST_PARAMS = {"ullat", "ullon", "lrlat",
             "lrlon", "w", "h"};
+    /**
+     * Raster requests may also opt into viewport-sized output with these parameters, each
+     * "true"/"1" or "false"/"0":<br>
+     * crop -> cut the raster down to the whole pixels covering the query box,<br>
+     * resample -> crop, then scale to w by h pixels,<br>
+     * draw_route -> whether to draw the route named by route_id, true by default. Clients
+     * drawing the polyline from /route themselves pass false, and get the same cached raster
+     * whatever their route.
+     **/
+    private static final String[] OPTIONAL_RASTER_REQUEST_PARAMS = {"crop", "resample",
+        "draw_route"};
+    /**
+     * Raster and clear_route requests name the route to draw or clear with this parameter, the
+     * route_id /route returned. Rasters without one show no route.
+     **/
+    private static final String ROUTE_ID_PARAM = "route_id";
+    /**
+     * Full-name searches may also set, "true"/"1" or "false"/"0":<br>
+     * fuzzy -> when no name matches exactly, return names a few typos away instead.
+     **/
+    private static final String[] OPTIONAL_SEARCH_REQUEST_PARAMS = {"fuzzy"};
     /**
      * Each route request to the server will have the following parameters
      * as keys in the params map.<br>
@@ -83,8 +218,35 @@ public class MapServer {
      **/
     private static final String[] REQUIRED_ROUTE_REQUEST_PARAMS = {"start_lat", "start_lon",
             "end_lat", "end_lon"};
+    /**
+     * Route requests may also ask, "true"/"1" or "false"/"0", for:<br>
+     * levels -> the route simplified for each raster depth, see getRouteGeometry.
+     **/
+    private static final String[] OPTIONAL_ROUTE_REQUEST_PARAMS = {"levels"};
+    /**
+     * Headers /raster.png sends the raster parameters in, see rasterHeader.
+     */
+    private static final String[] RASTER_HEADERS = {"X-Raster-Ul-Lon", "X-Raster-Ul-Lat",
+            "X-Raster-Lr-Lon", "X-Raster-Lr-Lat", "X-Raster-Width", "X-Raster-Height",
+            "X-Depth", "X-Query-Success"};
+    /**
+     * Gson instances are thread-safe, so all handlers share one.
+     */
+    private static final Gson GSON = new Gson();
     /* Define any static variables here. Do not define any instance variables of MapServer. */
     private static GraphDB graph;
+    private static Router router;
+    private static TileIndex tileIndex;
+    private static TileSource tileSource;
+    private static TileETags tileETags;
+    private static TileCache tileCache;
+    private static TileAtlas tileAtlas;
+    private static RasterComposer rasterComposer;
+    private static RasterCache rasterCache;
+    private static RasterEncoder routeEncoder;
+    private static RasterEncoder imageryEncoder;
+    private static RouteStore routeStore;
+    private static DistanceMatrix distanceMatrix;
 
     /**
      * Place any initialization statements that will be run before the server main loop here.
@@ -92,7 +254,137 @@ public class MapServer {
      * This is for testing purposes, and you may fail tests otherwise.
      **/
     public static void initialize() {
-        graph = new GraphDB(OSM_DB_PATH);
+        graph = new GraphDB(OSM_DB_PATH,
+                GRAPH_SNAPSHOT_PATH.isEmpty() ? null : GRAPH_SNAPSHOT_PATH);
+        router = createRouter(ROUTING);
+        tileIndex = new TileIndex(ROOT_ULLAT, ROOT_ULLON, ROOT_LRLAT, ROOT_LRLON);
+        /* Tiles are decoded from memory; ImageIO's temp file cache would only add disk I/O. */
+        ImageIO.setUseCache(false);
+        tileSource = openTileSource();
+        tileETags = new TileETags();
+        tileCache = new TileCache(tileSource, TILE_CACHE_BYTES);
+        if (TILE_ATLAS) {
+            long start = System.currentTimeMillis();
+            tileAtlas = TileAtlas.load(tileSource, TILE_ATLAS_DEPTH);
+            System.out.println("Loaded " + tileAtlas + " in "
+                    + (System.currentTimeMillis() - start) + " ms.");
+        }
+        rasterComposer = new RasterComposer(tileCache, tileAtlas, PARALLEL_TILES);
+        if (RASTER_CACHE_BYTES > 0) {
+            rasterCache = new RasterCache(RASTER_CACHE_BYTES);
+        }
+        routeEncoder = createEncoder(RASTER_ENCODER);
+        imageryEncoder = createEncoder(IMAGERY_ENCODER);
+        routeStore = new RouteStore(MAX_ROUTES, ROUTE_TTL_MILLIS);
+        distanceMatrix = new DistanceMatrix(graph.roads());
+    }
+
+    /**
+     * Opens the packed tile file if one has been built, falling back to IMG_ROOT otherwise.
+     */
+    private static TileSource openTileSource() {
+        if (new File(TILE_PACK_PATH).isFile()) {
+            try {
+                return TilePack.open(TILE_PACK_PATH);
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+        return new FileTileSource(IMG_ROOT);
+    }
+
+    /**
+     * Builds the router named by bearmaps.routing, preparing whatever data it needs.
+     */
+    private static Router createRouter(String name) {
+        RoadGraph roads = graph.roads();
+        switch (name.toLowerCase()) {
+            case "alt":
+                return new AltRouter(roads, loadLandmarks(roads));
+            case "ch":
+                return new ChRouter(loadHierarchy(roads));
+            default:
+                return new AStarRouter(roads);
+        }
+    }
+
+    /**
+     * Reads landmarks from LANDMARK_PATH, or computes them and saves them there.
+     */
+    private static Landmarks loadLandmarks(RoadGraph roads) {
+        long start = System.currentTimeMillis();
+        if (LANDMARK_PATH != null && new File(LANDMARK_PATH).isFile()) {
+            try {
+                Landmarks landmarks = Landmarks.read(roads, LANDMARK_PATH);
+                System.out.println("Read " + landmarks + " from " + LANDMARK_PATH + " in "
+                        + (System.currentTimeMillis() - start) + " ms.");
+                return landmarks;
+            } catch (IOException e) {
+                System.out.println(e.getMessage() + " Recomputing them.");
+            }
+        }
+        Landmarks landmarks = Landmarks.select(roads, LANDMARKS);
+        System.out.println("Computed " + landmarks + " in "
+                + (System.currentTimeMillis() - start) + " ms.");
+        if (LANDMARK_PATH != null) {
+            try {
+                landmarks.write(roads, LANDMARK_PATH);
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+        return landmarks;
+    }
+
+    /**
+     * Reads the Contraction Hierarchy from CH_PATH, or builds it and saves it there.
+     */
+    private static ContractionHierarchy loadHierarchy(RoadGraph roads) {
+        long start = System.currentTimeMillis();
+        if (CH_PATH != null && new File(CH_PATH).isFile()) {
+            try {
+                ContractionHierarchy hierarchy = ContractionHierarchy.read(roads, CH_PATH);
+                System.out.println("Read " + hierarchy + " from " + CH_PATH + " in "
+                        + (System.currentTimeMillis() - start) + " ms.");
+                return hierarchy;
+            } catch (IOException e) {
+                System.out.println(e.getMessage() + " Rebuilding it.");
+            }
+        }
+        ContractionHierarchy hierarchy = ContractionHierarchy.build(roads);
+        System.out.println("Built " + hierarchy + " in "
+                + (System.currentTimeMillis() - start) + " ms.");
+        if (CH_PATH != null) {
+            try {
+                hierarchy.write(roads, CH_PATH);
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+        return hierarchy;
+    }
+
+    /**
+     * Builds the raster encoder named by a bearmaps.*Encoder property.
+     */
+    private static RasterEncoder createEncoder(String name) {
+        switch (name.toLowerCase()) {
+            case "png":
+                int level = Integer.getInteger("bearmaps.pngLevel", Deflater.DEFAULT_COMPRESSION);
+                PngRasterEncoder.Filter filter = PngRasterEncoder.Filter.valueOf(
+                        System.getProperty("bearmaps.pngFilter", "adaptive").toUpperCase());
+                String strategy = System.getProperty("bearmaps.pngStrategy", "filtered");
+                return new PngRasterEncoder(level, strategy.equals("huffman")
+                        ? Deflater.HUFFMAN_ONLY : strategy.equals("default")
+                        ? Deflater.DEFAULT_STRATEGY : Deflater.FILTERED, filter);
+            case "jpeg":
+            case "jpg":
+                float quality = Float.parseFloat(System.getProperty("bearmaps.jpegQuality",
+                        "0.85"));
+                return new ImageIORasterEncoder("jpeg", quality);
+            default:
+                return new ImageIORasterEncoder("png", -1);
+        }
     }
 
     public static void main(String[] args) {
@@ -111,10 +403,12 @@ public class MapServer {
         get("/raster", (req, res) -> {
             HashMap<String, Double> params =
                     getRequestParams(req, REQUIRED_RASTER_REQUEST_PARAMS);
+            params.putAll(getOptionalRequestParams(req, OPTIONAL_RASTER_REQUEST_PARAMS));
             /* The png image is written to the ByteArrayOutputStream */
             ByteArrayOutputStream os = new ByteArrayOutputStream();
             /* getMapRaster() does almost all the work for this API call */
-            Map<String, Object> rasteredImgParams = getMapRaster(params, os);
+            Map<String, Object> rasteredImgParams = getMapRaster(params,
+                    routeToDraw(req, params), os);
             /* On an image query success, add the image data to the response */
             if (rasteredImgParams.containsKey("query_success")
                     && (Boolean) rasteredImgParams.get("query_success")) {
@@ -122,38 +416,200 @@ public class MapServer {
                 rasteredImgParams.put("b64_encoded_image_data", encodedImage);
             }
             /* Encode response to Json */
-            Gson gson = new Gson();
-            return gson.toJson(rasteredImgParams);
+            return GSON.toJson(rasteredImgParams);
+        });
+
+        /* Define the binary raster endpoint. The png is streamed as the response body and the
+         * raster parameters are sent as X-Raster-* headers, e.g. raster_ul_lon is sent as
+         * X-Raster-Ul-Lon. Like /raster and /raster_params, a query box that misses the map is
+         * not an error: the response is 200 with X-Query-Success: false and an empty body.
+         * Missing parameters get the usual 403. */
+        get("/raster.png", (req, res) -> {
+            HashMap<String, Double> params =
+                    getRequestParams(req, REQUIRED_RASTER_REQUEST_PARAMS);
+            params.putAll(getOptionalRequestParams(req, OPTIONAL_RASTER_REQUEST_PARAMS));
+            TileGrid grid = findRasterGrid(params);
+            Viewport viewport = findViewport(grid, params);
+            for (Map.Entry<String, Object> param : getRasterParams(grid, viewport).entrySet()) {
+                res.header(rasterHeader(param.getKey()), String.valueOf(param.getValue()));
+            }
+            res.header("Access-Control-Expose-Headers", String.join(", ", RASTER_HEADERS));
+            if (grid.isEmpty()) {
+                return "";
+            }
+            Route route = routeToDraw(req, params);
+            res.type(rasterEncoder(grid, route).contentType());
+            OutputStream os = res.raw().getOutputStream();
+            writeRaster(grid, viewport, route, os);
+            os.flush();
+            return "";
         });
 
-        /* Define the routing endpoint for HTTP GET requests. */
+        /* Define the raster parameter endpoint: the Json of /raster without the image, for
+         * clients fetching the image itself from /raster.png. */
+        get("/raster_params", (req, res) -> {
+            HashMap<String, Double> params =
+                    getRequestParams(req, REQUIRED_RASTER_REQUEST_PARAMS);
+            params.putAll(getOptionalRequestParams(req, OPTIONAL_RASTER_REQUEST_PARAMS));
+            TileGrid grid = findRasterGrid(params);
+            return GSON.toJson(getRasterParams(grid, findViewport(grid, params)));
+        });
+
+        /* Define the per-tile endpoint, e.g. /tiles/1234.png, using the QuadTree tile ids.
+         * Tiles carry content-hash ETags so browsers and caching proxies can revalidate them
+         * with If-None-Match and reuse them across pans. */
+        get("/tiles/:id", (req, res) -> {
+            String id = req.params(":id");
+            if (id.endsWith(".png")) {
+                id = id.substring(0, id.length() - ".png".length());
+            }
+            if (tileIndex.get(id) == null) {
+                halt(NOT_FOUND_RESPONSE, "No such tile.");
+            }
+            ByteBuffer tile = null;
+            try {
+                tile = tileSource.read(id);
+            } catch (IOException e) {
+                halt(NOT_FOUND_RESPONSE, "No such tile.");
+            }
+            String etag = tileETags.get(id, tile);
+            res.header("ETag", etag);
+            res.header("Cache-Control", "public, max-age=" + TILE_MAX_AGE);
+            if (TileETags.matches(req.headers("If-None-Match"), etag)) {
+                halt(NOT_MODIFIED_RESPONSE);
+            }
+            res.type("image/png");
+            res.raw().setContentLength(tile.remaining());
+            OutputStream os = res.raw().getOutputStream();
+            Channels.newChannel(os).write(tile.duplicate());
+            os.flush();
+            return "";
+        });
+
+        /* Define the tile metadata endpoint: which /tiles ids cover a query box, at the depth
+         * /raster would choose, as a row-major "tiles" list plus the /raster parameters. */
+        get("/tiles", (req, res) -> {
+            HashMap<String, Double> params =
+                    getRequestParams(req, REQUIRED_RASTER_REQUEST_PARAMS);
+            TileGrid grid = findRasterGrid(params);
+            Map<String, Object> tileParams = getRasterParams(grid, null);
+            List<String> ids = new ArrayList<>(grid.tiles().size());
+            for (QTreeNode tile : grid.tiles()) {
+                ids.add(tile.getID());
+            }
+            tileParams.put("tiles", ids);
+            tileParams.put("rows", grid.rows());
+            tileParams.put("cols", grid.cols());
+            return GSON.toJson(tileParams);
+        });
+
+        /* Define the routing endpoint for HTTP GET requests. The route found is stored for
+         * this client only; its route_id is passed to /raster to draw it and to /clear_route.
+         * The response also carries the route's geometry, for clients that draw it over rasters
+         * requested with draw_route=false. */
         get("/route", (req, res) -> {
             HashMap<String, Double> params =
                     getRequestParams(req, REQUIRED_ROUTE_REQUEST_PARAMS);
-            LinkedList<Long> route = findAndSetRoute(params);
-            return !route.isEmpty();
+            boolean levels = getOptionalRequestParams(req, OPTIONAL_ROUTE_REQUEST_PARAMS)
+                    .getOrDefault("levels", 0.0) != 0;
+            Route route = findRoute(params);
+            res.header("X-Settled-Nodes", Integer.toString(router.lastSettledCount()));
+            Map<String, Object> routeParams = getRouteGeometry(route, levels);
+            if (!route.isEmpty()) {
+                routeParams.put(ROUTE_ID_PARAM, routeStore.put(route));
+            }
+            return GSON.toJson(routeParams);
         });
 
-        /* Define the API endpoint for clearing the current route. */
+        /* Define the API endpoint for clearing a client's route. */
         get("/clear_route", (req, res) -> {
-            clearRoute();
+            clearRoute(req.queryParams(ROUTE_ID_PARAM));
             return true;
         });
 
+        /* Define the distance matrix endpoint. The body is Json,
+         * {"sources": [[lat, lon], ...], "targets": [[lat, lon], ...]}; without targets, the
+         * distances between every pair of sources are returned. */
+        post("/matrix", (req, res) -> {
+            MatrixRequest request = null;
+            try {
+                request = GSON.fromJson(req.body(), MatrixRequest.class);
+            } catch (JsonParseException e) {
+                halt(HALT_RESPONSE, "Request failed - body is not Json.");
+            }
+            if (request == null || request.sources == null) {
+                halt(HALT_RESPONSE, "Request failed - sources missing.");
+            }
+            double[][] targets = request.targets == null ? request.sources : request.targets;
+            if ((long) request.sources.length * targets.length > MAX_MATRIX_CELLS) {
+                halt(HALT_RESPONSE, "Request failed - more than " + MAX_MATRIX_CELLS
+                        + " distances asked for.");
+            }
+            Map<String, Object> matrix = null;
+            try {
+                matrix = getDistanceMatrix(request.sources, targets);
+            } catch (IllegalArgumentException e) {
+                halt(HALT_RESPONSE, "Request failed - " + e.getMessage());
+            }
+            return GSON.toJson(matrix);
+        });
+
+        /* Define the batch routing endpoint. The body is a Json array of /route parameter
+         * objects, [{"start_lat": ..., "start_lon": ..., "end_lat": ..., "end_lon": ...}, ...].
+         * The routes are found on the WorkerPool and each is sent as one line of Json as soon
+         * as it is found, so lines arrive in completion order and carry their request's index.
+         * Unlike /route, nothing is stored for drawing. */
+        post("/routes", (req, res) -> {
+            RouteRequest[] requests = null;
+            try {
+                requests = parseRouteRequests(req.body());
+            } catch (IllegalArgumentException e) {
+                halt(HALT_RESPONSE, "Request failed - " + e.getMessage());
+            }
+            res.type("application/x-ndjson");
+            OutputStream os = res.raw().getOutputStream();
+            writeRoutes(requests, MapServer::findRoute, WorkerPool.get(),
+                    WorkerPool.PARALLELISM * 2, os);
+            return "";
+        });
+
         /* Define the API endpoint for search */
         get("/search", (req, res) -> {
             Set<String> reqParams = req.queryParams();
             String term = req.queryParams("term");
-            Gson gson = new Gson();
             /* Search for actual location data. */
             if (reqParams.contains("full")) {
-                List<Map<String, Object>> data = getLocations(term);
-                return gson.toJson(data);
+                HashMap<String, Double> flags =
+                        getOptionalRequestParams(req, OPTIONAL_SEARCH_REQUEST_PARAMS);
+                boolean fuzzy = flags.getOrDefault("fuzzy", FUZZY_SEARCH ? 1.0 : 0.0) != 0;
+                List<Map<String, Object>> data = getLocations(term, fuzzy);
+                return GSON.toJson(data);
             } else {
                 /* Search for prefix matching strings. */
-                List<String> matches = getLocationsByPrefix(term);
-                return gson.toJson(matches);
+                int limit = SEARCH_LIMIT;
+                if (reqParams.contains("limit")) {
+                    try {
+                        limit = Integer.parseInt(req.queryParams("limit"));
+                    } catch (NumberFormatException e) {
+                        halt(HALT_RESPONSE, "Incorrect parameters - provide numbers.");
+                    }
+                }
+                List<String> matches = getLocationsByPrefix(term, limit);
+                return GSON.toJson(matches);
+            }
+        });
+
+        /* Define the API endpoint for server-side cache statistics. */
+        get("/stats", (req, res) -> {
+            Map<String, Object> stats = new HashMap<>();
+            stats.put("tile_cache", tileCache.stats());
+            stats.put("routing", router.stats());
+            stats.put("routes", routeStore.stats());
+            stats.put("matrix", distanceMatrix.stats());
+            if (rasterCache != null) {
+                stats.put("raster_cache", rasterCache.stats());
             }
+            return GSON.toJson(stats);
         });
 
         /* Define map application redirect */
@@ -163,6 +619,50 @@ public class MapServer {
         });
     }
 
+    /**
+     * Converts a raster parameter name to its /raster.png header, e.g. raster_ul_lon to
+     * X-Raster-Ul-Lon.
+     */
+    private static String rasterHeader(String param) {
+        StringBuilder header = new StringBuilder("X");
+        for (String part : param.split("_")) {
+            header.append('-').append(Character.toUpperCase(part.charAt(0)))
+                    .append(part.substring(1));
+        }
+        return header.toString();
+    }
+
+    /**
+     * Return a parameter map of whichever optional request parameters are present. Accepts
+     * numbers as well as true and false, which map to 1 and 0.
+     *
+     * @param req            HTTP Request
+     * @param optionalParams Parameters to look for
+     * @return A map of each present parameter to its numerical value.
+     */
+    private static HashMap<String, Double> getOptionalRequestParams(
+            spark.Request req, String[] optionalParams) {
+        HashMap<String, Double> params = new HashMap<>();
+        for (String param : optionalParams) {
+            String value = req.queryParams(param);
+            if (value == null) {
+                continue;
+            }
+            if (value.equalsIgnoreCase("true")) {
+                params.put(param, 1.0);
+            } else if (value.equalsIgnoreCase("false")) {
+                params.put(param, 0.0);
+            } else {
+                try {
+                    params.put(param, Double.parseDouble(value));
+                } catch (NumberFormatException e) {
+                    halt(HALT_RESPONSE, "Incorrect parameters - provide numbers or booleans.");
+                }
+            }
+        }
+        return params;
+    }
+
     /**
      * Validate & return a parameter map of the required request parameters.
      * Requires that all input parameters are doubles.
@@ -224,98 +724,187 @@ public class MapServer {
      * "depth"         -> Double, the 1-indexed quadtree depth of the nodes of the rastered image.
      * Can also be interpreted as the length of the numbers in the image string. <br>
      * "query_success" -> Boolean, whether an image was successfully rastered. <br>
+     * "raster_content_type" -> String, the MIME type of the image written to os. <br>
      * @see #REQUIRED_RASTER_REQUEST_PARAMS
      */
     public static Map<String, Object> getMapRaster(Map<String,
             Double> params, OutputStream os) throws IOException {
-        //File file = new File(IMG_ROOT);
-        HashMap<String, Object> rasteredImageParams = new HashMap<>();
-//        QuadTree quadTree = new QuadTree(ROOT_ULLAT, ROOT_ULLON, ROOT_LRLAT, ROOT_LRLON);
-//        ArrayList<QTreeNode> images = quadTree.find(params.get("w"),params.get("h"),params.get("ullat"), params.get("ullon"), params.get("lrlat"), params.get("lrlon"));
-        QuadTree quadTree = new QuadTree(ROOT_ULLAT, ROOT_ULLON, ROOT_LRLAT, ROOT_LRLON);
-        ArrayList<QTreeNode> images = quadTree.find(params.get("w"), params.get("h"),
+        return getMapRaster(params, currentRoute, os);
+    }
+
+    /**
+     * Like getMapRaster(params, os), but draws the given route instead of the current one.
+     */
+    static Map<String, Object> getMapRaster(Map<String, Double> params, Route route,
+                                            OutputStream os) throws IOException {
+        TileGrid grid = findRasterGrid(params);
+        Viewport viewport = findViewport(grid, params);
+        Map<String, Object> rasteredImageParams = getRasterParams(grid, viewport);
+        if (!grid.isEmpty()) {
+            rasteredImageParams.put("raster_content_type",
+                    rasterEncoder(grid, route).contentType());
+            writeRaster(grid, viewport, route, os);
+        }
+        return rasteredImageParams;
+    }
+
+    /**
+     * Looks up the route a raster request asks to have drawn.
+     *
+     * @return The route named by route_id, or Route.EMPTY if there is none, it has expired or
+     * the request passed draw_route=false.
+     */
+    private static Route routeToDraw(spark.Request req, Map<String, Double> params) {
+        if (params.getOrDefault("draw_route", 1.0) == 0) {
+            return Route.EMPTY;
+        }
+        Route route = routeStore.get(req.queryParams(ROUTE_ID_PARAM));
+        return route == null ? Route.EMPTY : route;
+    }
+
+    /**
+     * Selects the depth and tiles covering a raster request, without reading any tile.
+     *
+     * @param params Raster request parameters, as described in REQUIRED_RASTER_REQUEST_PARAMS.
+     * @return The tiles to raster; empty if the query box misses the map.
+     */
+    static TileGrid findRasterGrid(Map<String, Double> params) {
+        return tileIndex.find(params.get("w"), params.get("h"),
                 params.get("ullat"), params.get("ullon"), params.get("lrlat"), params.get("lrlon"));
-//        for(QTreeNode image : images){
-//            System.out.println(image.getID());
-//        }
-        //System.out.println(images.size());
-        double yCoor = images.get(0).upperLeftLatitude();
-        int width = 0;
-        for (QTreeNode image : images) {
-            if (image.upperLeftLatitude() != yCoor) {
-                break;
-            }
-            width += 256;
-        }
-        int height = 0;
-        int heightToAdd = (ImageIO.read(new File(IMG_ROOT
-                + images.get(0).getID()
-                + ".png"))).getHeight();
-        height += heightToAdd;
-        for (QTreeNode image : images) {
-            if (image.upperLeftLatitude() != yCoor) {
-                yCoor = image.upperLeftLatitude();
-                height += heightToAdd;
-            }
-        }
-        BufferedImage result = new BufferedImage(width,
-                height, BufferedImage.TYPE_INT_RGB);
-        Graphics g = result.getGraphics();
-        int x = 0;
-        int y = 0;
-        for (QTreeNode image : images) {
-            BufferedImage bi = ImageIO.read(new File(IMG_ROOT
-                    + image.getID() + ".png"));
-            g.drawImage(bi, x, y, null);
-            x += 256;
-            if (x >= result.getWidth()) {
-                x = 0;
-                y += bi.getHeight();
-            }
-        }
-
-        Stroke stroke = new BasicStroke(ROUTE_STROKE_WIDTH_PX,
-                BasicStroke.CAP_ROUND, BasicStroke.JOIN_ROUND);
-        Graphics2D graphics2D = result.createGraphics();
-        graphics2D.setStroke(stroke);
-        graphics2D.setColor(ROUTE_STROKE_COLOR);
-
-        if (!routNodes.isEmpty()) {
-            for (int i = 0; i < routNodes.size() - 1; i++) {
-                Node a = routNodes.get(i);
-                Node b = routNodes.get(i + 1);
-                double widthOfRoute = (images.get(images.size() - 1).lowerRightLongitude()
-                        - images.get(0).upperLeftLongitude());
-                double heightOfRoute = (images.get(0).upperLeftLatitude()
-                        - images.get(images.size() - 1).lowerRightLatitude());
-                int xStart = (int) (((a.lon
-                        - images.get(0).upperLeftLongitude()) / widthOfRoute) * result.getWidth());
-                int yStart = (int) (((images.get(0).upperLeftLatitude()
-                        - a.lat) / heightOfRoute) * result.getHeight());
-                int xEnd = (int) (((b.lon
-                        - images.get(0).upperLeftLongitude()) / widthOfRoute) * result.getWidth());
-                int yEnd = (int) (((images.get(0).upperLeftLatitude()
-                        - b.lat) / heightOfRoute) * result.getHeight());
-                graphics2D.drawLine(xStart, yStart, xEnd, yEnd);
-            }
-        }
-
-
-        ImageIO.write(result, "png", os);
-        rasteredImageParams.put("raster_ul_lon", images.get(0).upperLeftLongitude());//params.get("ullon"));
-        rasteredImageParams.put("raster_ul_lat", images.get(0).upperLeftLatitude());//params.get("ullat"));
-        rasteredImageParams.put("raster_lr_lon", images.get(images.size()
-                - 1).lowerRightLongitude());//params.get("lrlon"));
-        rasteredImageParams.put("raster_lr_lat", images.get(images.size()
-                - 1).lowerRightLatitude());//params.get("lrlat"));
-        rasteredImageParams.put("raster_width", width);//params.get("w"));//result.getWidth());
-        rasteredImageParams.put("raster_height", height);//params.get("h"));//result.getHeight());
-        rasteredImageParams.put("depth", images.get(0).getID().length());
-        rasteredImageParams.put("query_success", true);
+    }
 
+    /**
+     * Finds the viewport to cut out of a grid's raster when the request opted into crop or
+     * resample output.
+     *
+     * @param params Raster request parameters, including any OPTIONAL_RASTER_REQUEST_PARAMS.
+     * @return The viewport, or null to send the whole tile raster.
+     */
+    static Viewport findViewport(TileGrid grid, Map<String, Double> params) {
+        boolean resample = params.getOrDefault("resample", 0.0) != 0;
+        boolean crop = resample || params.getOrDefault("crop", 0.0) != 0;
+        if (!crop || grid.isEmpty()) {
+            return null;
+        }
+        return Viewport.of(grid, params.get("ullat"), params.get("ullon"), params.get("lrlat"),
+                params.get("lrlon"), params.get("w"), params.get("h"), resample);
+    }
+
+    /**
+     * Computes the Json response parameters of a raster, as documented on getMapRaster.
+     * Everything here follows from the grid, so it can be sent before the image is rendered.
+     *
+     * @param viewport The crop sent instead of the whole raster, or null.
+     */
+    static Map<String, Object> getRasterParams(TileGrid grid, Viewport viewport) {
+        HashMap<String, Object> rasteredImageParams = new HashMap<>();
+        if (grid.isEmpty()) {
+            rasteredImageParams.put("query_success", false);
+            return rasteredImageParams;
+        }
+        if (viewport != null) {
+            rasteredImageParams.put("raster_ul_lon", viewport.upperLeftLongitude());
+            rasteredImageParams.put("raster_ul_lat", viewport.upperLeftLatitude());
+            rasteredImageParams.put("raster_lr_lon", viewport.lowerRightLongitude());
+            rasteredImageParams.put("raster_lr_lat", viewport.lowerRightLatitude());
+            rasteredImageParams.put("raster_width", viewport.outWidth());
+            rasteredImageParams.put("raster_height", viewport.outHeight());
+        } else {
+            rasteredImageParams.put("raster_ul_lon", grid.upperLeft().upperLeftLongitude());
+            rasteredImageParams.put("raster_ul_lat", grid.upperLeft().upperLeftLatitude());
+            rasteredImageParams.put("raster_lr_lon", grid.lowerRight().lowerRightLongitude());
+            rasteredImageParams.put("raster_lr_lat", grid.lowerRight().lowerRightLatitude());
+            rasteredImageParams.put("raster_width", grid.cols() * TILE_SIZE);
+            rasteredImageParams.put("raster_height", grid.rows() * TILE_SIZE);
+        }
+        rasteredImageParams.put("depth", grid.depth());
+        rasteredImageParams.put("query_success", true);
         return rasteredImageParams;
     }
 
+    /**
+     * Writes the image of a non-empty grid with a route drawn over it to os, from the raster
+     * cache when possible.
+     *
+     * @param viewport The crop to send instead of the whole raster, or null.
+     * @param route    The route to draw; callers look it up once per request.
+     */
+    static void writeRaster(TileGrid grid, Viewport viewport, Route route, OutputStream os)
+            throws IOException {
+        boolean drawRoute = isDrawnOn(route, grid);
+        RasterEncoder encoder = rasterEncoder(grid, route);
+        if (rasterCache == null) {
+            renderRaster(grid, viewport, drawRoute ? route : Route.EMPTY, encoder, os);
+            return;
+        }
+        long routeVersion = drawRoute ? route.version() : 0;
+        RasterCache.Key key = new RasterCache.Key(grid, viewport, routeVersion);
+        byte[] image = rasterCache.get(key, () -> {
+            ByteArrayOutputStream rendered = new ByteArrayOutputStream();
+            renderRaster(grid, viewport, drawRoute ? route : Route.EMPTY, encoder, rendered);
+            return rendered.toByteArray();
+        });
+        os.write(image);
+    }
+
+    /**
+     * Picks the encoder for a raster: rasters showing the route always use routeEncoder, the
+     * rest may use a lossy imageryEncoder.
+     */
+    static RasterEncoder rasterEncoder(TileGrid grid, Route route) {
+        return isDrawnOn(route, grid) ? routeEncoder : imageryEncoder;
+    }
+
+    /**
+     * Whether any stroke of the route can reach into the grid's raster.
+     */
+    private static boolean isDrawnOn(Route route, TileGrid grid) {
+        QTreeNode ul = grid.upperLeft();
+        QTreeNode lr = grid.lowerRight();
+        double lonPerPixel = (lr.lowerRightLongitude() - ul.upperLeftLongitude())
+                / (grid.cols() * TILE_SIZE);
+        double latPerPixel = (ul.upperLeftLatitude() - lr.lowerRightLatitude())
+                / (grid.rows() * TILE_SIZE);
+        return route.intersects(ul.upperLeftLatitude(), ul.upperLeftLongitude(),
+                lr.lowerRightLatitude(), lr.lowerRightLongitude(),
+                ROUTE_STROKE_WIDTH_PX * latPerPixel, ROUTE_STROKE_WIDTH_PX * lonPerPixel);
+    }
+
+    /**
+     * Composes the tiles of a non-empty grid, draws the route over them, cuts out the viewport
+     * if there is one and encodes the result to os.
+     */
+    private static void renderRaster(TileGrid grid, Viewport viewport, Route route,
+                                     RasterEncoder encoder, OutputStream os) throws IOException {
+        BufferedImage result = rasterComposer.compose(grid);
+
+        if (!route.isEmpty()) {
+            int depth = grid.depth();
+            QTreeNode ul = grid.upperLeft();
+            Stroke stroke = new BasicStroke(ROUTE_STROKE_WIDTH_PX,
+                    BasicStroke.CAP_ROUND, BasicStroke.JOIN_ROUND);
+            Graphics2D graphics2D = result.createGraphics();
+            graphics2D.setStroke(stroke);
+            graphics2D.setColor(ROUTE_STROKE_COLOR);
+            route.overlay(tileIndex, depth).draw(graphics2D,
+                    ul.upperLeftLongitude() / tileIndex.lonPerPixel(depth),
+                    -ul.upperLeftLatitude() / tileIndex.latPerPixel(depth),
+                    result.getWidth(), result.getHeight(), ROUTE_STROKE_WIDTH_PX);
+            graphics2D.dispose();
+        }
+
+        if (viewport != null) {
+            result = viewport.apply(result);
+        }
+        encoder.encode(result, os);
+    }
+
+    /**
+     * The route getMapRaster(params, os) draws. The HTTP endpoints keep a route per client in
+     * the RouteStore instead and never read or write this one.
+     */
+    static volatile Route currentRoute = Route.EMPTY;
+
     /**
      * Searches for the shortest route satisfying the input request parameters, sets it to be the
      * current route, and returns a <code>LinkedList</code> of the route's node ids for testing
@@ -327,117 +916,283 @@ public class MapServer {
      * @param params from the API call described in REQUIRED_ROUTE_REQUEST_PARAMS
      * @return A LinkedList of node ids from the start of the route to the end.
      */
-    static LinkedList<Node> routNodes = new LinkedList<Node>();
-
     public static LinkedList<Long> findAndSetRoute(Map<String, Double> params) {
-        routNodes = new LinkedList<Node>();
-        LinkedList<Long> shortesPath = new LinkedList<Long>();
-        //distanceComparable compare = new distanceComparable(params.get("end_lat"), params.get("end_lon"));
-        //System.out.println("Start Latitude "+params.get("start_lat") + params.get("start_lon"));
-        Node StartNode = FindClosestNode(params.get("start_lat"),
-                params.get("start_lon"));
-        Node finalNode = FindClosestNode(params.get("end_lat"),
-                params.get("end_lon"));
-        HashSet<Node> visited = new HashSet<Node>(); //<- HashSet of nodes, used to track nodes we have already visited
-        HashMap<String, Double> dist = new HashMap<String, Double>(); //<- HashMap of node to path distance to that node
-        HashMap<String, Node> prev = new HashMap<String, Node>();//<- HashMap of previous pointers
-        //PriorityQueue<Node> fringe = new PriorityQueue<Node>(10, compare); //<- PriorityQueue comparing on dist+heuristic
-        PriorityQueue<Node> fringe = new PriorityQueue<Node>(); //<- PriorityQueue comparing on dist+heuristic
-
-        //fringe.insert(StartNode);
-        fringe.add(StartNode);
-        dist.put(StartNode.getID(), 0.0);
-        StartNode.distanceSoFar = 0;
-        Node v;
-
-        while (!fringe.isEmpty()) {
-            //v = fringe.delMin();
-            v = fringe.remove();
-            if (visited.contains(v)) {
-                continue;
+        Route route = findRoute(params);
+        LinkedList<Long> shortestPath = new LinkedList<Long>();
+        for (int i = 0; i < route.size(); i++) {
+            shortestPath.add(route.id(i));
+        }
+        currentRoute = route;
+        return shortestPath;
+    }
+
+    /**
+     * Searches for the shortest route satisfying the input request parameters, as
+     * findAndSetRoute does, without making it the current route.
+     *
+     * @return The route, or Route.EMPTY if there is none.
+     */
+    static Route findRoute(Map<String, Double> params) {
+        RoadGraph roads = graph.roads();
+        int start = FindClosestNode(params.get("start_lat"), params.get("start_lon"));
+        int end = FindClosestNode(params.get("end_lat"), params.get("end_lon"));
+        int[] path = start < 0 ? new int[0] : router.shortestPath(start, end);
+        return path.length == 0 ? Route.EMPTY : Route.of(roads, path);
+    }
+
+    /**
+     * Describes a route's geometry for clients that draw it themselves.
+     *
+     * @param levels Whether to include a simplified polyline per raster depth.
+     * @return A map of parameters for the Json response: <br>
+     * "found" -> Boolean, whether there is a route. <br>
+     * "polyline" -> String, every node of the route as an encoded polyline, see Polyline. <br>
+     * "levels" -> Map, with levels, from each depth 1 through TileIndex.MAX_DEPTH to an encoded
+     * polyline of the points rasters of that depth draw, see RouteOverlay.
+     */
+    static Map<String, Object> getRouteGeometry(Route route, boolean levels) {
+        Map<String, Object> geometry = new HashMap<>();
+        geometry.put("found", !route.isEmpty());
+        geometry.put("polyline", Polyline.encode(route, null));
+        if (levels) {
+            Map<String, String> byDepth = new HashMap<>();
+            for (int depth = 1; depth <= TileIndex.MAX_DEPTH; depth++) {
+                int[] keep = route.overlay(tileIndex, depth).kept();
+                byDepth.put(Integer.toString(depth), Polyline.encode(route, keep));
+            }
+            geometry.put("levels", byDepth);
+        }
+        return geometry;
+    }
+
+    /**
+     * One route of a /routes request, with the parameters of REQUIRED_ROUTE_REQUEST_PARAMS.
+     */
+    static class RouteRequest {
+        @SerializedName("start_lat")
+        Double startLat;
+        @SerializedName("start_lon")
+        Double startLon;
+        @SerializedName("end_lat")
+        Double endLat;
+        @SerializedName("end_lon")
+        Double endLon;
+    }
+
+    /**
+     * Reads the body of a /routes request.
+     *
+     * @throws IllegalArgumentException If the body is not a Json array, holds more than
+     *                                  MAX_BATCH_ROUTES routes or lacks a parameter.
+     */
+    static RouteRequest[] parseRouteRequests(String body) {
+        RouteRequest[] requests;
+        try {
+            requests = GSON.fromJson(body, RouteRequest[].class);
+        } catch (JsonParseException e) {
+            throw new IllegalArgumentException("body is not Json.");
+        }
+        if (requests == null) {
+            throw new IllegalArgumentException("routes missing.");
+        }
+        if (requests.length > MAX_BATCH_ROUTES) {
+            throw new IllegalArgumentException("more than " + MAX_BATCH_ROUTES
+                    + " routes asked for.");
+        }
+        for (RouteRequest request : requests) {
+            if (request == null || request.startLat == null || request.startLon == null
+                    || request.endLat == null || request.endLon == null) {
+                throw new IllegalArgumentException("parameters missing.");
             }
-            visited.add(v);
-            if (v.equals(finalNode)) {
-                break;
-            }// Found destination vertex and have valid prev pointers
-            for (Node c : v.getEdge()) { // Do not check if your children have been visited
-                //System.out.println(c);
-//                if (visited.contains(c)){
-//                    if (euclenianDistance(c,finalNode) < euclenianDistance(v,finalNode)){
-//                        fringe.add(c);
-//                        dist.put(c.getID(),dist.get(v.getID()) + euclenianDistance(v, c));
-//                    }
-//                }
-                if (!dist.containsKey(c.getID()) ||
-                        (dist.get(c.getID()) > dist.get(v.getID()) + euclenianDistance(v, c))) {
-                    dist.put(c.getID(), dist.get(v.getID()) + euclenianDistance(v, c)); // Update distance
-                    c.distanceSoFar = dist.get(v.getID()) + euclenianDistance(v, c);
-                    c.setPriority(finalNode);
-                    //fringe.insert(c);// Update pqueue
-                    //visited.add(c);
-                    fringe.add(c);// Update pqueue
-                    //c.prev = v;
-                    prev.put(c.getID(), v);// Update back-pointers
+        }
+        return requests;
+    }
+
+    /**
+     * Finds every requested route on executor, writing each to os as a line of Json as soon as
+     * it is found: <br>
+     * "index" -> Number, the position of the route in requests. <br>
+     * "found" -> Boolean, whether there is a route. <br>
+     * "ids" -> Number[], the node ids of the route from start to end. <br>
+     * "length" -> Number, the length of the route, 0 if there is none. <br>
+     * A route whose search fails is written as "index" and "error" -> String, the failure,
+     * and the other routes are still written.
+     * Only maxInFlight routes are queued or running at a time, the next one being submitted as
+     * each finishes, so a large batch cannot crowd other requests out of a shared pool.
+     *
+     * @param finder Finds the route for the parameters of REQUIRED_ROUTE_REQUEST_PARAMS, like
+     *               findRoute.
+     * @throws IOException If os fails; the routes not yet written are then abandoned.
+     */
+    static void writeRoutes(RouteRequest[] requests, Function<Map<String, Double>, Route> finder,
+                            Executor executor, int maxInFlight, OutputStream os)
+            throws IOException {
+        CompletionService<Map<String, Object>> done = new ExecutorCompletionService<>(executor);
+        Set<Future<Map<String, Object>>> inFlight = new HashSet<>();
+        int submitted = 0;
+        Writer writer = new BufferedWriter(new OutputStreamWriter(os, "UTF-8"));
+        try {
+            for (; submitted < requests.length && submitted < maxInFlight; submitted++) {
+                int index = submitted;
+                inFlight.add(done.submit(() -> getBatchRoute(index, requests[index], finder)));
+            }
+            for (int i = 0; i < requests.length; i++) {
+                Future<Map<String, Object>> route = done.take();
+                inFlight.remove(route);
+                if (submitted < requests.length) {
+                    int index = submitted++;
+                    inFlight.add(done.submit(
+                            () -> getBatchRoute(index, requests[index], finder)));
                 }
+                writer.write(GSON.toJson(route.get()));
+                writer.write('\n');
+                writer.flush();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while finding routes.", e);
+        } catch (ExecutionException e) {
+            throw new IOException("Finding a route failed.", e.getCause());
+        } finally {
+            for (Future<Map<String, Object>> route : inFlight) {
+                route.cancel(false);
             }
         }
-        Node current = finalNode;
-        shortesPath.add(Long.parseLong(current.getID()));
-        routNodes.add(finalNode);
-        while (!current.equals(StartNode)) {
-            routNodes.addFirst(current);
-            current = prev.get(current.getID());
-            shortesPath.addFirst(Long.parseLong(current.id));
-        }
-        return shortesPath;
-    }
-
-    public static Node FindClosestNode(double start_lat, double start_lon) {
-        //double withinDistance = .1;
-        LinkedList<Double> closestNodeDistance = new LinkedList<Double>();
-        LinkedList<Node> closestNode = new LinkedList<Node>();
-        HashMap<String, Node> allNodes = new HashMap<String, Node>();
-        allNodes = graph.getCleanHasMap();
-        allNodes.size();
-        for (Node s : allNodes.values()) {
-            double distanceFromStartNode = Math.sqrt(Math.pow((start_lat
-                    - s.lat), 2) + Math.pow((start_lon - s.lon), 2));
-            if (closestNode.size() == 0) {
-                closestNodeDistance.add(distanceFromStartNode);
-                closestNode.add(s);
-            } else {
-                if (distanceFromStartNode < closestNodeDistance.getLast()) {
-                    closestNodeDistance.removeLast();
-                    closestNode.removeLast();
-                    closestNodeDistance.add(distanceFromStartNode);
-                    closestNode.add(s);
+    }
 
+    private static Map<String, Object> getBatchRoute(int index, RouteRequest request,
+                                                     Function<Map<String, Double>, Route> finder) {
+        Map<String, Double> params = new HashMap<>();
+        params.put("start_lat", request.startLat);
+        params.put("start_lon", request.startLon);
+        params.put("end_lat", request.endLat);
+        params.put("end_lon", request.endLon);
+        Map<String, Object> result = new HashMap<>();
+        result.put("index", index);
+        Route route;
+        try {
+            route = finder.apply(params);
+        } catch (RuntimeException e) {
+            result.put("error", e.getMessage() != null ? e.getMessage() : e.toString());
+            return result;
+        }
+        long[] ids = new long[route.size()];
+        double length = 0;
+        for (int i = 0; i < route.size(); i++) {
+            ids[i] = route.id(i);
+            if (i > 0) {
+                length += RoadGraph.distance(route.lat(i - 1), route.lon(i - 1),
+                        route.lat(i), route.lon(i));
+            }
+        }
+        result.put("found", !route.isEmpty());
+        result.put("ids", ids);
+        result.put("length", length);
+        return result;
+    }
+
+    /**
+     * Body of a /matrix request: points as {lat, lon} pairs.
+     */
+    private static class MatrixRequest {
+        double[][] sources;
+        double[][] targets;
+    }
+
+    /**
+     * Computes the road distance from every source to every target. Each point is snapped to
+     * its closest node once, then one search runs per source, in parallel.
+     *
+     * @param sources Points as {lat, lon} pairs.
+     * @param targets Points as {lat, lon} pairs.
+     * @return A map of parameters for the Json response: <br>
+     * "distances" -> Number[][], distances[i][j] is the length of a shortest route from the node
+     * closest to sources[i] to the node closest to targets[j], in the units of route lengths,
+     * or null if there is none. <br>
+     * "source_ids" -> Number[], the id of the node each source was snapped to. <br>
+     * "target_ids" -> Number[], the id of the node each target was snapped to.
+     * @throws IllegalArgumentException If a point is not a pair of numbers.
+     */
+    static Map<String, Object> getDistanceMatrix(double[][] sources, double[][] targets) {
+        RoadGraph roads = graph.roads();
+        int[] sourceNodes = snap(sources);
+        int[] targetNodes = snap(targets);
+        Double[][] distances = new Double[sources.length][targets.length];
+        if (roads.size() > 0) {
+            double[][] computed = distanceMatrix.compute(sourceNodes, targetNodes);
+            for (int i = 0; i < sources.length; i++) {
+                for (int j = 0; j < targets.length; j++) {
+                    double d = computed[i][j];
+                    distances[i][j] = Double.isInfinite(d) ? null : d;
                 }
             }
         }
-        return closestNode.getLast();
+        Map<String, Object> matrix = new HashMap<>();
+        matrix.put("distances", distances);
+        matrix.put("source_ids", osmIds(roads, sourceNodes));
+        matrix.put("target_ids", osmIds(roads, targetNodes));
+        return matrix;
     }
 
-    public static double euclenianDistance(Node v, Node c) {
-        return Math.sqrt(Math.pow((v.lat - c.lat), 2) + Math.pow((v.lon - c.lon), 2));
+    private static int[] snap(double[][] points) {
+        int[] nodes = new int[points.length];
+        for (int i = 0; i < points.length; i++) {
+            if (points[i] == null || points[i].length != 2) {
+                throw new IllegalArgumentException("points must be [lat, lon] pairs.");
+            }
+            nodes[i] = FindClosestNode(points[i][0], points[i][1]);
+        }
+        return nodes;
+    }
+
+    private static Long[] osmIds(RoadGraph roads, int[] nodes) {
+        Long[] ids = new Long[nodes.length];
+        for (int i = 0; i < nodes.length; i++) {
+            ids[i] = nodes[i] < 0 ? null : roads.osmId(nodes[i]);
+        }
+        return ids;
+    }
+
+    /**
+     * @return The index of the road graph node closest to the point, or -1 if the graph has no
+     * nodes.
+     */
+    public static int FindClosestNode(double lat, double lon) {
+        return graph.spatialIndex().nearest(lat, lon);
     }
 
     /**
      * Clear the current found route, if it exists.
      */
     public static void clearRoute() {
+        currentRoute = Route.EMPTY;
+    }
+
+    /**
+     * Forgets the route /route stored under routeId, if it is still stored.
+     */
+    public static void clearRoute(String routeId) {
+        routeStore.remove(routeId);
     }
 
     /**
-     * In linear time, collect all the names of OSM locations that prefix-match the query string.
+     * Collect all the names of OSM locations that prefix-match the query string.
      *
      * @param prefix Prefix string to be searched for. Could be any case, with our without
      *               punctuation.
      * @return A <code>List</code> of the full names of locations whose cleaned name matches the
-     * cleaned <code>prefix</code>.
+     * cleaned <code>prefix</code>, most important first.
      */
     public static List<String> getLocationsByPrefix(String prefix) {
-        return new LinkedList<>();
+        return getLocationsByPrefix(prefix, Integer.MAX_VALUE);
+    }
+
+    /**
+     * Like getLocationsByPrefix(prefix), but only the limit most important names. Takes time
+     * in the length of the prefix and limit, not in the number of matches.
+     */
+    public static List<String> getLocationsByPrefix(String prefix, int limit) {
+        return graph.places().byPrefix(prefix == null ? "" : prefix, limit);
     }
 
     /**
@@ -454,7 +1209,33 @@ public class MapServer {
      * "id" -> Number, The id of the node. <br>
      */
     public static List<Map<String, Object>> getLocations(String locationName) {
-        return new LinkedList<>();
+        return getLocations(locationName, false);
+    }
+
+    /**
+     * Like getLocations(locationName), but with fuzzy, a name matching nothing is looked up
+     * again allowing a few typos, and the closest names are returned first.
+     */
+    public static List<Map<String, Object>> getLocations(String locationName, boolean fuzzy) {
+        Places places = graph.places();
+        String name = locationName == null ? "" : locationName;
+        int[] entries = places.byName(name);
+        if (entries.length == 0 && fuzzy) {
+            entries = places.byNameFuzzy(name);
+        }
+        List<Map<String, Object>> result = new ArrayList<>();
+        for (int entry : entries) {
+            String fullName = places.name(entry);
+            for (int p = places.placesStart(entry); p < places.placesEnd(entry); p++) {
+                Map<String, Object> location = new HashMap<>();
+                location.put("lat", places.lat(p));
+                location.put("lon", places.lon(p));
+                location.put("name", fullName);
+                location.put("id", places.id(p));
+                result.add(location);
+            }
+        }
+        return result;
     }
 }
 
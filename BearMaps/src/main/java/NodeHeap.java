@@ -0,0 +1,124 @@
+import java.util.Arrays;
+
+/**
+ * Indexed 4-ary min-heap of graph nodes keyed by double priorities, with decrease-key, so each
+ * node is queued at most once. All arrays are sized for the graph up front and reused; clear
+ * only touches the nodes still queued.
+ * A 4-ary heap is shallower than a binary one and its children share cache lines, which pays
+ * off because searches do many more decrease-keys than removals.
+ */
+public class NodeHeap {
+    private static final int ARITY = 4;
+
+    private final int[] nodes;
+    private final double[] keys;
+    /* Heap position of each node, or -1 if it is not queued. */
+    private final int[] positions;
+    private int size;
+
+    /**
+     * @param capacity The number of nodes in the graph.
+     */
+    public NodeHeap(int capacity) {
+        nodes = new int[capacity];
+        keys = new double[capacity];
+        positions = new int[capacity];
+        Arrays.fill(positions, -1);
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    public boolean contains(int node) {
+        return positions[node] >= 0;
+    }
+
+    /**
+     * Queues node with key, or lowers its key if it is already queued with a larger one.
+     */
+    public void offer(int node, double key) {
+        int i = positions[node];
+        if (i < 0) {
+            i = size++;
+        } else if (key >= keys[i]) {
+            return;
+        }
+        siftUp(i, node, key);
+    }
+
+    /**
+     * @return The smallest key queued. The heap must not be empty.
+     */
+    public double minKey() {
+        return keys[0];
+    }
+
+    /**
+     * @return The smallest key's node, after removing it. The heap must not be empty.
+     */
+    public int poll() {
+        int min = nodes[0];
+        positions[min] = -1;
+        size -= 1;
+        if (size > 0) {
+            siftDown(0, nodes[size], keys[size]);
+        }
+        return min;
+    }
+
+    public void clear() {
+        for (int i = 0; i < size; i++) {
+            positions[nodes[i]] = -1;
+        }
+        size = 0;
+    }
+
+    private void siftUp(int i, int node, double key) {
+        while (i > 0) {
+            int parent = (i - 1) / ARITY;
+            if (keys[parent] <= key) {
+                break;
+            }
+            move(parent, i);
+            i = parent;
+        }
+        place(i, node, key);
+    }
+
+    private void siftDown(int i, int node, double key) {
+        while (true) {
+            int first = i * ARITY + 1;
+            if (first >= size) {
+                break;
+            }
+            int last = Math.min(first + ARITY, size);
+            int child = first;
+            for (int c = first + 1; c < last; c++) {
+                if (keys[c] < keys[child]) {
+                    child = c;
+                }
+            }
+            if (keys[child] >= key) {
+                break;
+            }
+            move(child, i);
+            i = child;
+        }
+        place(i, node, key);
+    }
+
+    private void move(int from, int to) {
+        place(to, nodes[from], keys[from]);
+    }
+
+    private void place(int i, int node, double key) {
+        nodes[i] = node;
+        keys[i] = key;
+        positions[node] = i;
+    }
+}
@@ -0,0 +1,700 @@
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+/**
+ * Reads an OSM PBF file (https://wiki.openstreetmap.org/wiki/PBF_Format) into a
+ * RoadGraph.Builder, building the same graph as the XML importers. Like OsmXmlImporter it
+ * makes two passes, first over ways and then over only the nodes on roads, but each pass
+ * inflates and decodes the file's blobs in parallel on the WorkerPool, and the blobs' results
+ * are added to the builder in file order afterwards.
+ * The protobuf messages are decoded by hand with ProtoReader, which needs no generated code
+ * and creates Strings only for the string tables.
+ */
+public class OsmPbfImporter {
+    private static final int MAX_HEADER_SIZE = 64 * 1024;
+    private static final int MAX_BLOB_SIZE = 32 * 1024 * 1024;
+    private static final List<String> SUPPORTED_FEATURES
+            = Arrays.asList("OsmSchema-V0.6", "DenseNodes");
+
+    private final File source;
+    private final LongIntHashMap roadNodes = new LongIntHashMap(1 << 16);
+    private long elements;
+    private long ways;
+    private long nodes;
+
+    public OsmPbfImporter(File source) {
+        this.source = source;
+    }
+
+    /**
+     * Reads the file, adding every road segment and every node on a road to builder, and
+     * every node with a name to places.
+     *
+     * @throws IOException If the file cannot be read, is malformed or needs a feature this
+     * reader lacks, such as LZMA compression.
+     */
+    public void importInto(RoadGraph.Builder builder, Places.Builder places)
+            throws IOException {
+        long start = System.nanoTime();
+        try {
+            readBlocks(builder, places);
+        } catch (IllegalArgumentException e) {
+            throw new IOException(source + " is not a valid PBF file.", e);
+        }
+        long nanos = System.nanoTime() - start;
+        System.out.println("Imported " + source + ": " + elements + " elements, " + ways
+                + " roads and " + nodes + " road nodes in " + nanos / 1000000 + " ms ("
+                + (long) (elements / (nanos / 1e9)) + " elements/s).");
+    }
+
+    private void readBlocks(RoadGraph.Builder builder, Places.Builder places)
+            throws IOException {
+        try (RandomAccessFile file = new RandomAccessFile(source, "r");
+             FileChannel channel = file.getChannel()) {
+            List<long[]> blobs = indexBlobs(file);
+            Block[] blocks = new Block[blobs.size()];
+            decode(channel, blobs, blocks, false);
+            for (Block block : blocks) {
+                elements += block.elements;
+                ways += block.ways;
+                for (int i = 0; i < block.edgeLength; i += 2) {
+                    builder.addEdge(block.edges[i], block.edges[i + 1]);
+                    roadNodes.put(block.edges[i], 0);
+                    roadNodes.put(block.edges[i + 1], 0);
+                }
+            }
+
+            List<long[]> nodeBlobs = new ArrayList<>();
+            for (int i = 0; i < blocks.length; i++) {
+                if (blocks[i].hasNodes) {
+                    nodeBlobs.add(blobs.get(i));
+                }
+            }
+            blocks = new Block[nodeBlobs.size()];
+            decode(channel, nodeBlobs, blocks, true);
+            for (Block block : blocks) {
+                nodes += block.nodeLength;
+                for (int i = 0; i < block.nodeLength; i++) {
+                    builder.addNode(block.nodeIds[i], block.lats[i], block.lons[i]);
+                }
+                for (int i = 0; i < block.placeNames.size(); i++) {
+                    places.add(block.placeIds[i], block.placeLats[i], block.placeLons[i],
+                            block.placeNames.get(i), block.placeImportances[i]);
+                }
+            }
+        }
+    }
+
+    /**
+     * Walks the blob headers, checking the file's OSMHeader block.
+     *
+     * @return The position and size of every OSMData blob, in file order.
+     */
+    private List<long[]> indexBlobs(RandomAccessFile file) throws IOException {
+        List<long[]> blobs = new ArrayList<>();
+        long length = file.length();
+        while (file.getFilePointer() < length) {
+            int headerSize = file.readInt();
+            if (headerSize < 0 || headerSize > MAX_HEADER_SIZE) {
+                throw new IOException(source + " has a blob header of " + headerSize
+                        + " bytes.");
+            }
+            byte[] header = new byte[headerSize];
+            file.readFully(header);
+            String type = null;
+            int dataSize = -1;
+            ProtoReader reader = new ProtoReader(header, 0, headerSize);
+            while (reader.next()) {
+                if (reader.field() == 1) {
+                    type = reader.string();
+                } else if (reader.field() == 3) {
+                    dataSize = (int) reader.varint();
+                } else {
+                    reader.skip();
+                }
+            }
+            if (dataSize < 0 || dataSize > MAX_BLOB_SIZE
+                    || file.getFilePointer() + dataSize > length) {
+                throw new IOException(source + " has a blob of " + dataSize + " bytes.");
+            }
+            if ("OSMHeader".equals(type)) {
+                byte[] blob = new byte[dataSize];
+                file.readFully(blob);
+                Inflater inflater = new Inflater();
+                try {
+                    checkHeader(inflate(blob, dataSize, inflater));
+                } finally {
+                    inflater.end();
+                }
+            } else {
+                if ("OSMData".equals(type)) {
+                    blobs.add(new long[]{file.getFilePointer(), dataSize});
+                }
+                file.seek(file.getFilePointer() + dataSize);
+            }
+        }
+        return blobs;
+    }
+
+    private void checkHeader(ProtoReader headerBlock) throws IOException {
+        while (headerBlock.next()) {
+            if (headerBlock.field() == 4) {
+                String feature = headerBlock.string();
+                if (!SUPPORTED_FEATURES.contains(feature)) {
+                    throw new IOException(source + " requires unsupported feature " + feature
+                            + ".");
+                }
+            } else {
+                headerBlock.skip();
+            }
+        }
+    }
+
+    /* Decodes blobs in parallel into blocks, either their roads or the nodes on them. */
+    private void decode(FileChannel channel, List<long[]> blobs, Block[] blocks,
+                        boolean readNodes) throws IOException {
+        try {
+            WorkerPool.forEach(blobs.size(), i -> {
+                long[] blob = blobs.get(i);
+                Inflater inflater = new Inflater();
+                try {
+                    ByteBuffer bytes = ByteBuffer.allocate((int) blob[1]);
+                    while (bytes.hasRemaining()) {
+                        if (channel.read(bytes, blob[0] + bytes.position()) < 0) {
+                            throw new EOFException(source + " ends inside a blob.");
+                        }
+                    }
+                    Block block = new Block();
+                    block.decode(inflate(bytes.array(), bytes.limit(), inflater), readNodes,
+                            roadNodes);
+                    blocks[i] = block;
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                } finally {
+                    inflater.end();
+                }
+            });
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+    }
+
+    /**
+     * Unwraps a Blob message.
+     *
+     * @return A reader over its uncompressed contents.
+     */
+    private ProtoReader inflate(byte[] blob, int size, Inflater inflater) throws IOException {
+        ProtoReader reader = new ProtoReader(blob, 0, size);
+        int rawSize = -1;
+        int dataStart = -1;
+        int dataEnd = -1;
+        boolean compressed = false;
+        while (reader.next()) {
+            switch (reader.field()) {
+                case 1:
+                case 3:
+                    compressed = reader.field() == 3;
+                    dataEnd = reader.skip();
+                    dataStart = dataEnd - reader.lastLength();
+                    break;
+                case 2:
+                    rawSize = (int) reader.varint();
+                    break;
+                default:
+                    throw new IOException(source + " uses an unsupported blob compression.");
+            }
+        }
+        if (dataStart < 0) {
+            throw new IOException(source + " has an empty blob.");
+        }
+        if (!compressed) {
+            return new ProtoReader(blob, dataStart, dataEnd);
+        }
+        if (rawSize < 0 || rawSize > MAX_BLOB_SIZE) {
+            throw new IOException(source + " has a blob of " + rawSize + " bytes.");
+        }
+        byte[] raw = new byte[rawSize];
+        inflater.setInput(blob, dataStart, dataEnd - dataStart);
+        try {
+            int n = 0;
+            while (n < rawSize && !inflater.finished()) {
+                int inflated = inflater.inflate(raw, n, rawSize - n);
+                if (inflated == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+                    break;
+                }
+                n += inflated;
+            }
+            if (n != rawSize) {
+                throw new IOException(source + " has a truncated blob.");
+            }
+        } catch (DataFormatException e) {
+            throw new IOException(source + " has a corrupt blob.", e);
+        }
+        return new ProtoReader(raw, 0, rawSize);
+    }
+
+    /**
+     * What one PrimitiveBlock contributes: the segments of its roads as pairs of node ids,
+     * or the wanted nodes with their positions and the named ones.
+     */
+    private static class Block {
+        long elements;
+        long ways;
+        boolean hasNodes;
+        long[] edges = new long[0];
+        int edgeLength;
+        long[] nodeIds = new long[0];
+        double[] lats = new double[0];
+        double[] lons = new double[0];
+        int nodeLength;
+        long[] placeIds = new long[0];
+        double[] placeLats = new double[0];
+        double[] placeLons = new double[0];
+        int[] placeImportances = new int[0];
+        final List<String> placeNames = new ArrayList<>();
+
+        /* From the PrimitiveBlock. */
+        private String[] strings = new String[0];
+        private int highwayKey = -1;
+        private int nameKey = -1;
+        private boolean[] allowedHighway;
+        private long granularity = 100;
+        private long latOffset;
+        private long lonOffset;
+
+        void decode(ProtoReader block, boolean readNodes, LongIntHashMap wanted) {
+            List<ProtoReader> groups = new ArrayList<>();
+            while (block.next()) {
+                switch (block.field()) {
+                    case 1:
+                        readStrings(block.message());
+                        break;
+                    case 2:
+                        groups.add(block.message());
+                        break;
+                    case 17:
+                        granularity = block.varint();
+                        break;
+                    case 19:
+                        latOffset = block.varint();
+                        break;
+                    case 20:
+                        lonOffset = block.varint();
+                        break;
+                    default:
+                        block.skip();
+                }
+            }
+            for (ProtoReader group : groups) {
+                while (group.next()) {
+                    switch (group.field()) {
+                        case 1:
+                            hasNodes = true;
+                            if (readNodes) {
+                                readNode(group.message(), wanted);
+                            } else {
+                                elements += 1;
+                                group.skip();
+                            }
+                            break;
+                        case 2:
+                            hasNodes = true;
+                            if (readNodes) {
+                                readDenseNodes(group.message(), wanted);
+                            } else {
+                                elements += countDenseNodes(group.message());
+                            }
+                            break;
+                        case 3:
+                            elements += 1;
+                            if (readNodes) {
+                                group.skip();
+                            } else {
+                                readWay(group.message());
+                            }
+                            break;
+                        default:
+                            elements += 1;
+                            group.skip();
+                    }
+                }
+            }
+        }
+
+        private void readStrings(ProtoReader table) {
+            List<String> list = new ArrayList<>();
+            while (table.next()) {
+                if (table.field() == 1) {
+                    list.add(table.string());
+                } else {
+                    table.skip();
+                }
+            }
+            strings = list.toArray(new String[list.size()]);
+            allowedHighway = new boolean[strings.length];
+            for (int i = 0; i < strings.length; i++) {
+                if (strings[i].equals("highway")) {
+                    highwayKey = i;
+                } else if (strings[i].equals("name")) {
+                    nameKey = i;
+                }
+                allowedHighway[i] = MapDBHandler.ALLOWED_HIGHWAY_TYPES.contains(strings[i]);
+            }
+        }
+
+        private void readWay(ProtoReader way) {
+            ProtoReader keys = null;
+            ProtoReader values = null;
+            ProtoReader refs = null;
+            while (way.next()) {
+                switch (way.field()) {
+                    case 2:
+                        keys = way.message();
+                        break;
+                    case 3:
+                        values = way.message();
+                        break;
+                    case 8:
+                        refs = way.message();
+                        break;
+                    default:
+                        way.skip();
+                }
+            }
+            if (keys == null || values == null || refs == null || !isHighway(keys, values)) {
+                return;
+            }
+            ways += 1;
+            long ref = 0;
+            long previous = 0;
+            for (int i = 0; refs.hasRemaining(); i++) {
+                ref += refs.sint64();
+                if (i > 0) {
+                    if (edgeLength + 2 > edges.length) {
+                        edges = Arrays.copyOf(edges, Math.max(64, edges.length * 2));
+                    }
+                    edges[edgeLength++] = previous;
+                    edges[edgeLength++] = ref;
+                }
+                previous = ref;
+            }
+        }
+
+        private boolean isHighway(ProtoReader keys, ProtoReader values) {
+            boolean highway = false;
+            while (keys.hasRemaining() && values.hasRemaining()) {
+                int key = (int) keys.varint();
+                int value = (int) values.varint();
+                highway |= key == highwayKey && value < strings.length && allowedHighway[value];
+            }
+            return highway;
+        }
+
+        private void readNode(ProtoReader node, LongIntHashMap wanted) {
+            long id = 0;
+            long lat = 0;
+            long lon = 0;
+            ProtoReader keys = null;
+            ProtoReader values = null;
+            while (node.next()) {
+                switch (node.field()) {
+                    case 1:
+                        id = node.sint64();
+                        break;
+                    case 2:
+                        keys = node.message();
+                        break;
+                    case 3:
+                        values = node.message();
+                        break;
+                    case 8:
+                        lat = node.sint64();
+                        break;
+                    case 9:
+                        lon = node.sint64();
+                        break;
+                    default:
+                        node.skip();
+                }
+            }
+            if (wanted.containsKey(id)) {
+                addNode(id, lat, lon);
+            }
+            if (keys != null && values != null) {
+                String name = null;
+                int importance = 0;
+                while (keys.hasRemaining() && values.hasRemaining()) {
+                    int key = (int) keys.varint();
+                    int value = (int) values.varint();
+                    if (key == nameKey) {
+                        name = string(value);
+                    } else {
+                        importance = Math.max(importance, importance(key, value));
+                    }
+                }
+                if (name != null) {
+                    addPlace(id, lat, lon, name, importance);
+                }
+            }
+        }
+
+        private String string(int index) {
+            return index < strings.length ? strings[index] : "";
+        }
+
+        private int importance(int key, int value) {
+            return key < strings.length ? Places.importance(strings[key], string(value)) : 0;
+        }
+
+        private long countDenseNodes(ProtoReader dense) {
+            long count = 0;
+            while (dense.next()) {
+                if (dense.field() == 1) {
+                    ProtoReader ids = dense.message();
+                    while (ids.hasRemaining()) {
+                        ids.varint();
+                        count += 1;
+                    }
+                } else {
+                    dense.skip();
+                }
+            }
+            return count;
+        }
+
+        private void readDenseNodes(ProtoReader dense, LongIntHashMap wanted) {
+            ProtoReader ids = null;
+            ProtoReader lats = null;
+            ProtoReader lons = null;
+            ProtoReader keysValues = null;
+            while (dense.next()) {
+                switch (dense.field()) {
+                    case 1:
+                        ids = dense.message();
+                        break;
+                    case 8:
+                        lats = dense.message();
+                        break;
+                    case 9:
+                        lons = dense.message();
+                        break;
+                    case 10:
+                        keysValues = dense.message();
+                        break;
+                    default:
+                        dense.skip();
+                }
+            }
+            if (ids == null || lats == null || lons == null) {
+                return;
+            }
+            long id = 0;
+            long lat = 0;
+            long lon = 0;
+            while (ids.hasRemaining() && lats.hasRemaining() && lons.hasRemaining()) {
+                id += ids.sint64();
+                lat += lats.sint64();
+                lon += lons.sint64();
+                if (wanted.containsKey(id)) {
+                    addNode(id, lat, lon);
+                }
+                if (keysValues == null) {
+                    continue;
+                }
+                /* This node's tags, as key and value indices ending with a 0. */
+                String name = null;
+                int importance = 0;
+                while (keysValues.hasRemaining()) {
+                    int key = (int) keysValues.varint();
+                    if (key == 0) {
+                        break;
+                    }
+                    int value = (int) keysValues.varint();
+                    if (key == nameKey) {
+                        name = string(value);
+                    } else {
+                        importance = Math.max(importance, importance(key, value));
+                    }
+                }
+                if (name != null) {
+                    addPlace(id, lat, lon, name, importance);
+                }
+            }
+        }
+
+        private void addNode(long id, long lat, long lon) {
+            if (nodeLength == nodeIds.length) {
+                int capacity = Math.max(64, nodeLength * 2);
+                nodeIds = Arrays.copyOf(nodeIds, capacity);
+                lats = Arrays.copyOf(lats, capacity);
+                lons = Arrays.copyOf(lons, capacity);
+            }
+            nodeIds[nodeLength] = id;
+            lats[nodeLength] = degrees(latOffset, lat);
+            lons[nodeLength] = degrees(lonOffset, lon);
+            nodeLength += 1;
+        }
+
+        private void addPlace(long id, long lat, long lon, String name, int importance) {
+            int i = placeNames.size();
+            if (i == placeIds.length) {
+                int capacity = Math.max(16, i * 2);
+                placeIds = Arrays.copyOf(placeIds, capacity);
+                placeLats = Arrays.copyOf(placeLats, capacity);
+                placeLons = Arrays.copyOf(placeLons, capacity);
+                placeImportances = Arrays.copyOf(placeImportances, capacity);
+            }
+            placeIds[i] = id;
+            placeLats[i] = degrees(latOffset, lat);
+            placeLons[i] = degrees(lonOffset, lon);
+            placeImportances[i] = importance;
+            placeNames.add(name);
+        }
+
+        /**
+         * Converts a coordinate to degrees as nanodegrees / 1e9, a single correctly rounded
+         * division, which yields the same double as parsing the decimal in an XML extract.
+         */
+        private double degrees(long offset, long units) {
+            return (offset + granularity * units) / 1e9;
+        }
+    }
+
+    /**
+     * Steps through the fields of a protobuf message in a byte array. Length-delimited fields,
+     * including packed repeated ones, are read with message(), which returns a reader over
+     * just that field's bytes.
+     */
+    static class ProtoReader {
+        private final byte[] bytes;
+        private int position;
+        private final int limit;
+        private int field;
+        private int wireType;
+        private int lastLength;
+
+        ProtoReader(byte[] bytes, int from, int to) {
+            this.bytes = bytes;
+            this.position = from;
+            this.limit = to;
+        }
+
+        boolean hasRemaining() {
+            return position < limit;
+        }
+
+        /**
+         * Reads the next field's key.
+         *
+         * @return False at the end of the message.
+         */
+        boolean next() {
+            if (position >= limit) {
+                return false;
+            }
+            long key = varint();
+            field = (int) (key >>> 3);
+            wireType = (int) (key & 7);
+            return true;
+        }
+
+        int field() {
+            return field;
+        }
+
+        long varint() {
+            long result = 0;
+            for (int shift = 0; shift < 64; shift += 7) {
+                if (position >= limit) {
+                    throw new IllegalArgumentException("Truncated varint.");
+                }
+                byte b = bytes[position++];
+                result |= (long) (b & 0x7F) << shift;
+                if (b >= 0) {
+                    return result;
+                }
+            }
+            throw new IllegalArgumentException("Malformed varint.");
+        }
+
+        /**
+         * Reads a zigzag-encoded varint.
+         */
+        long sint64() {
+            long n = varint();
+            return (n >>> 1) ^ -(n & 1);
+        }
+
+        ProtoReader message() {
+            int length = length();
+            ProtoReader child = new ProtoReader(bytes, position, position + length);
+            position += length;
+            return child;
+        }
+
+        String string() {
+            int length = length();
+            String s = new String(bytes, position, length, StandardCharsets.UTF_8);
+            position += length;
+            return s;
+        }
+
+        private int length() {
+            long length = varint();
+            if (wireType != 2 || length < 0 || length > limit - position) {
+                throw new IllegalArgumentException("Bad length-delimited field " + field + ".");
+            }
+            lastLength = (int) length;
+            return lastLength;
+        }
+
+        /**
+         * Skips the current field's value.
+         *
+         * @return The position after it.
+         */
+        int skip() {
+            switch (wireType) {
+                case 0:
+                    varint();
+                    break;
+                case 1:
+                    position += 8;
+                    break;
+                case 2:
+                    int length = length();
+                    position += length;
+                    break;
+                case 5:
+                    position += 4;
+                    break;
+                default:
+                    throw new IllegalArgumentException("Unsupported wire type " + wireType
+                            + ".");
+            }
+            if (position > limit) {
+                throw new IllegalArgumentException("Truncated field " + field + ".");
+            }
+            return position;
+        }
+
+        /**
+         * @return The length of the last length-delimited field read or skipped.
+         */
+        int lastLength() {
+            return lastLength;
+        }
+    }
+}
@@ -0,0 +1,540 @@
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * Streams an OSM XML file into a RoadGraph.Builder in two passes. The first reads only ways,
+ * keeping the roads among them (see MapDBHandler.ALLOWED_HIGHWAY_TYPES) and remembering which
+ * nodes they use; the second reads only those nodes, and the tags of nodes that have a name.
+ * Most nodes of an extract are on buildings, paths and the like, and are never materialized.
+ * Instead of a general XML parser this uses a byte-level Scanner that understands just the
+ * flat element structure of OSM files: it parses ids and coordinates straight from the bytes
+ * and creates Strings only for the tag values it has to compare. Way node refs are kept in a
+ * reused long buffer.
+ */
+public class OsmXmlImporter {
+    private static final byte[] WAY = ascii("way");
+    private static final byte[] NODE = ascii("node");
+    private static final byte[] ND = ascii("nd");
+    private static final byte[] TAG = ascii("tag");
+    private static final byte[] ID = ascii("id");
+    private static final byte[] LAT = ascii("lat");
+    private static final byte[] LON = ascii("lon");
+    private static final byte[] REF = ascii("ref");
+    private static final byte[] K = ascii("k");
+    private static final byte[] V = ascii("v");
+    private static final byte[] HIGHWAY = ascii("highway");
+    private static final byte[] NAME = ascii("name");
+
+    private final File source;
+    private final LongIntHashMap roadNodes = new LongIntHashMap(1 << 16);
+    private long[] wayRefs = new long[64];
+    private long elements;
+    private long ways;
+    private long nodes;
+
+    public OsmXmlImporter(File source) {
+        this.source = source;
+    }
+
+    private static byte[] ascii(String s) {
+        return s.getBytes(StandardCharsets.US_ASCII);
+    }
+
+    /**
+     * Reads the file twice, adding every road segment and every node on a road to builder,
+     * and every node with a name to places.
+     */
+    public void importInto(RoadGraph.Builder builder, Places.Builder places)
+            throws IOException {
+        long start = System.nanoTime();
+        readWays(builder);
+        readNodes(builder, places);
+        long nanos = System.nanoTime() - start;
+        System.out.println("Imported " + source + ": " + elements + " elements, " + ways
+                + " roads and " + nodes + " road nodes in " + nanos / 1000000 + " ms ("
+                + (long) (elements / (nanos / 1e9)) + " elements/s).");
+    }
+
+    private void readWays(RoadGraph.Builder builder) throws IOException {
+        try (Scanner scanner = new Scanner(new FileInputStream(source))) {
+            int wayLength = 0;
+            boolean inWay = false;
+            boolean highway = false;
+            while (scanner.next()) {
+                if (scanner.isEnd()) {
+                    if (inWay && scanner.nameIs(WAY)) {
+                        inWay = false;
+                        if (highway) {
+                            addWay(builder, wayLength);
+                        }
+                    }
+                    continue;
+                }
+                elements += 1;
+                if (!inWay) {
+                    if (scanner.nameIs(WAY) && !scanner.isEmpty()) {
+                        inWay = true;
+                        highway = false;
+                        wayLength = 0;
+                    }
+                } else if (scanner.nameIs(ND)) {
+                    if (wayLength == wayRefs.length) {
+                        wayRefs = Arrays.copyOf(wayRefs, wayLength * 2);
+                    }
+                    wayRefs[wayLength++] = scanner.longValue(REF);
+                } else if (scanner.nameIs(TAG) && scanner.valueIs(K, HIGHWAY)
+                        && MapDBHandler.ALLOWED_HIGHWAY_TYPES.contains(scanner.value(V))) {
+                    highway = true;
+                }
+            }
+        }
+    }
+
+    private void addWay(RoadGraph.Builder builder, int wayLength) {
+        ways += 1;
+        for (int i = 0; i < wayLength; i++) {
+            roadNodes.put(wayRefs[i], 0);
+            if (i > 0) {
+                builder.addEdge(wayRefs[i - 1], wayRefs[i]);
+            }
+        }
+    }
+
+    private void readNodes(RoadGraph.Builder builder, Places.Builder places)
+            throws IOException {
+        try (Scanner scanner = new Scanner(new FileInputStream(source))) {
+            /* The node whose tags are being read, if it has any. */
+            boolean inNode = false;
+            long id = 0;
+            double lat = 0;
+            double lon = 0;
+            String name = null;
+            int importance = 0;
+            while (scanner.next()) {
+                if (scanner.isEnd()) {
+                    if (inNode && scanner.nameIs(NODE)) {
+                        inNode = false;
+                        if (name != null) {
+                            places.add(id, lat, lon, name, importance);
+                        }
+                    }
+                } else if (scanner.nameIs(NODE)) {
+                    id = scanner.longValue(ID);
+                    boolean road = roadNodes.containsKey(id);
+                    inNode = !scanner.isEmpty();
+                    if (road || inNode) {
+                        lat = scanner.doubleValue(LAT);
+                        lon = scanner.doubleValue(LON);
+                    }
+                    if (road) {
+                        nodes += 1;
+                        builder.addNode(id, lat, lon);
+                    }
+                    name = null;
+                    importance = 0;
+                } else if (inNode && scanner.nameIs(TAG)) {
+                    if (scanner.valueIs(K, NAME)) {
+                        name = scanner.value(V);
+                    } else {
+                        importance = Math.max(importance,
+                                Places.importance(scanner.value(K), scanner.value(V)));
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Steps through the tags of an XML stream, skipping text, comments and declarations, and
+     * gives access to the name and attributes of the current tag as raw bytes.
+     */
+    static class Scanner implements AutoCloseable {
+        private static final int MAX_ATTRIBUTES = 32;
+        private static final double[] POWERS_OF_TEN = {1, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7,
+            1e8, 1e9, 1e10, 1e11, 1e12, 1e13, 1e14, 1e15, 1e16, 1e17, 1e18, 1e19, 1e20, 1e21,
+            1e22};
+
+        private final InputStream in;
+        private byte[] buffer = new byte[1 << 20];
+        private int position;
+        private int limit;
+        private boolean eof;
+
+        /* The current tag. */
+        private int nameStart, nameEnd;
+        private boolean end, empty;
+        private int attributeCount;
+        private final int[] keyStarts = new int[MAX_ATTRIBUTES];
+        private final int[] keyEnds = new int[MAX_ATTRIBUTES];
+        private final int[] valueStarts = new int[MAX_ATTRIBUTES];
+        private final int[] valueEnds = new int[MAX_ATTRIBUTES];
+
+        Scanner(InputStream in) {
+            this.in = in;
+        }
+
+        /**
+         * Moves to the next start, end or empty-element tag.
+         *
+         * @return False at the end of the stream.
+         */
+        boolean next() throws IOException {
+            while (true) {
+                int open = find((byte) '<', position);
+                if (open < 0) {
+                    return false;
+                }
+                position = open;
+                if (!ensure(4)) {
+                    return false;
+                }
+                byte first = buffer[position + 1];
+                if (first == '!' && buffer[position + 2] == '-' && buffer[position + 3] == '-') {
+                    skipPast("-->");
+                } else if (first == '!' || first == '?') {
+                    skipPast(">");
+                } else {
+                    int close = findTagEnd();
+                    if (close < 0) {
+                        return false;
+                    }
+                    parseTag(position + 1, close);
+                    position = close + 1;
+                    return true;
+                }
+            }
+        }
+
+        /* Finds b at or after from, refilling as needed; returns its index or -1 at EOF. */
+        private int find(byte b, int from) throws IOException {
+            int i = from;
+            while (true) {
+                for (; i < limit; i++) {
+                    if (buffer[i] == b) {
+                        return i;
+                    }
+                }
+                int shift = position;
+                if (!fill()) {
+                    return -1;
+                }
+                i -= shift;
+            }
+        }
+
+        /* Makes at least n bytes from position available; false if the stream ends first. */
+        private boolean ensure(int n) throws IOException {
+            while (limit - position < n) {
+                if (!fill()) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        private void skipPast(String terminator) throws IOException {
+            byte[] t = terminator.getBytes(StandardCharsets.US_ASCII);
+            int i = position + 1;
+            while (true) {
+                int at = find(t[t.length - 1], i);
+                if (at < 0) {
+                    position = limit;
+                    return;
+                }
+                if (at - position + 1 >= t.length + 1) {
+                    boolean match = true;
+                    for (int j = 0; j < t.length; j++) {
+                        match &= buffer[at - t.length + 1 + j] == t[j];
+                    }
+                    if (match) {
+                        position = at + 1;
+                        return;
+                    }
+                }
+                i = at + 1;
+            }
+        }
+
+        /* Index of the '>' closing the tag at position, outside quoted attribute values. */
+        private int findTagEnd() throws IOException {
+            byte quote = 0;
+            int i = position + 1;
+            while (true) {
+                for (; i < limit; i++) {
+                    byte b = buffer[i];
+                    if (quote != 0) {
+                        if (b == quote) {
+                            quote = 0;
+                        }
+                    } else if (b == '"' || b == '\'') {
+                        quote = b;
+                    } else if (b == '>') {
+                        return i;
+                    }
+                }
+                int shift = position;
+                if (!fill()) {
+                    return -1;
+                }
+                i -= shift;
+            }
+        }
+
+        /**
+         * Moves the unread bytes from position to the front of the buffer, growing it if they
+         * fill it, and reads more after them.
+         *
+         * @return False if nothing more could be read.
+         */
+        private boolean fill() throws IOException {
+            if (eof) {
+                return false;
+            }
+            int remaining = limit - position;
+            if (remaining == buffer.length) {
+                buffer = Arrays.copyOf(buffer, buffer.length * 2);
+            } else {
+                System.arraycopy(buffer, position, buffer, 0, remaining);
+            }
+            position = 0;
+            limit = remaining;
+            int n = in.read(buffer, limit, buffer.length - limit);
+            if (n < 0) {
+                eof = true;
+                return false;
+            }
+            limit += n;
+            return true;
+        }
+
+        private void parseTag(int from, int to) {
+            end = buffer[from] == '/';
+            empty = buffer[to - 1] == '/';
+            int i = end ? from + 1 : from;
+            nameStart = i;
+            while (i < to && !isSpace(buffer[i]) && buffer[i] != '/') {
+                i++;
+            }
+            nameEnd = i;
+            attributeCount = 0;
+            while (attributeCount < MAX_ATTRIBUTES) {
+                while (i < to && isSpace(buffer[i])) {
+                    i++;
+                }
+                int keyStart = i;
+                while (i < to && buffer[i] != '=' && !isSpace(buffer[i]) && buffer[i] != '/') {
+                    i++;
+                }
+                if (i == keyStart) {
+                    return;
+                }
+                int keyEnd = i;
+                while (i < to && buffer[i] != '"' && buffer[i] != '\'') {
+                    i++;
+                }
+                if (i >= to) {
+                    return;
+                }
+                byte quote = buffer[i++];
+                int valueStart = i;
+                while (i < to && buffer[i] != quote) {
+                    i++;
+                }
+                keyStarts[attributeCount] = keyStart;
+                keyEnds[attributeCount] = keyEnd;
+                valueStarts[attributeCount] = valueStart;
+                valueEnds[attributeCount] = i;
+                attributeCount += 1;
+                i++;
+            }
+        }
+
+        private static boolean isSpace(byte b) {
+            return b == ' ' || b == '\t' || b == '\n' || b == '\r';
+        }
+
+        /**
+         * @return Whether the current tag is an end tag, like &lt;/way&gt;.
+         */
+        boolean isEnd() {
+            return end;
+        }
+
+        /**
+         * @return Whether the current tag is an empty-element tag, like &lt;nd ref="1"/&gt;.
+         */
+        boolean isEmpty() {
+            return empty;
+        }
+
+        boolean nameIs(byte[] name) {
+            return regionEquals(nameStart, nameEnd, name);
+        }
+
+        private boolean regionEquals(int from, int to, byte[] expected) {
+            if (to - from != expected.length) {
+                return false;
+            }
+            for (int i = 0; i < expected.length; i++) {
+                if (buffer[from + i] != expected[i]) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        /* Index of the attribute named key, or -1. */
+        private int attribute(byte[] key) {
+            for (int a = 0; a < attributeCount; a++) {
+                if (regionEquals(keyStarts[a], keyEnds[a], key)) {
+                    return a;
+                }
+            }
+            return -1;
+        }
+
+        /**
+         * @return Whether attribute key is present with exactly this raw value.
+         */
+        boolean valueIs(byte[] key, byte[] value) {
+            int a = attribute(key);
+            return a >= 0 && regionEquals(valueStarts[a], valueEnds[a], value);
+        }
+
+        /**
+         * @return Attribute key's value with entities decoded, or null if it is absent.
+         */
+        String value(byte[] key) {
+            int a = attribute(key);
+            if (a < 0) {
+                return null;
+            }
+            String raw = new String(buffer, valueStarts[a], valueEnds[a] - valueStarts[a],
+                    StandardCharsets.UTF_8);
+            return raw.indexOf('&') < 0 ? raw : decodeEntities(raw);
+        }
+
+        private static String decodeEntities(String raw) {
+            StringBuilder decoded = new StringBuilder(raw.length());
+            for (int i = 0; i < raw.length(); i++) {
+                char c = raw.charAt(i);
+                int semicolon = c == '&' ? raw.indexOf(';', i) : -1;
+                if (semicolon < 0) {
+                    decoded.append(c);
+                    continue;
+                }
+                String entity = raw.substring(i + 1, semicolon);
+                switch (entity) {
+                    case "amp":
+                        decoded.append('&');
+                        break;
+                    case "lt":
+                        decoded.append('<');
+                        break;
+                    case "gt":
+                        decoded.append('>');
+                        break;
+                    case "quot":
+                        decoded.append('"');
+                        break;
+                    case "apos":
+                        decoded.append('\'');
+                        break;
+                    default:
+                        if (entity.startsWith("#x")) {
+                            decoded.appendCodePoint(Integer.parseInt(entity.substring(2), 16));
+                        } else if (entity.startsWith("#")) {
+                            decoded.appendCodePoint(Integer.parseInt(entity.substring(1)));
+                        } else {
+                            decoded.append(raw, i, semicolon + 1);
+                        }
+                }
+                i = semicolon;
+            }
+            return decoded.toString();
+        }
+
+        /**
+         * @throws NumberFormatException If the attribute is absent or not an integer.
+         */
+        long longValue(byte[] key) {
+            int a = attribute(key);
+            if (a < 0) {
+                throw new NumberFormatException("Missing attribute " + new String(key,
+                        StandardCharsets.US_ASCII) + ".");
+            }
+            int i = valueStarts[a];
+            int to = valueEnds[a];
+            boolean negative = i < to && buffer[i] == '-';
+            if (negative) {
+                i++;
+            }
+            if (i == to || to - i > 18) {
+                return Long.parseLong(value(key));
+            }
+            long result = 0;
+            for (; i < to; i++) {
+                int digit = buffer[i] - '0';
+                if (digit < 0 || digit > 9) {
+                    return Long.parseLong(value(key));
+                }
+                result = result * 10 + digit;
+            }
+            return negative ? -result : result;
+        }
+
+        /**
+         * Parses a decimal attribute. Plain decimals of up to 15 significant digits, which is
+         * what OSM coordinates are, are computed directly as digits / 10^k; that division is
+         * exact to the last bit, so the result is the same as Double.parseDouble's.
+         *
+         * @throws NumberFormatException If the attribute is absent or not a number.
+         */
+        double doubleValue(byte[] key) {
+            int a = attribute(key);
+            if (a < 0) {
+                throw new NumberFormatException("Missing attribute " + new String(key,
+                        StandardCharsets.US_ASCII) + ".");
+            }
+            int i = valueStarts[a];
+            int to = valueEnds[a];
+            boolean negative = i < to && buffer[i] == '-';
+            if (negative) {
+                i++;
+            }
+            long digits = 0;
+            int digitCount = 0;
+            int fractionDigits = -1;
+            for (; i < to; i++) {
+                byte b = buffer[i];
+                if (b == '.' && fractionDigits < 0) {
+                    fractionDigits = 0;
+                    continue;
+                }
+                int digit = b - '0';
+                if (digit < 0 || digit > 9 || digitCount == 15) {
+                    return Double.parseDouble(value(key));
+                }
+                digits = digits * 10 + digit;
+                digitCount += 1;
+                if (fractionDigits >= 0) {
+                    fractionDigits += 1;
+                }
+            }
+            if (digitCount == 0) {
+                return Double.parseDouble(value(key));
+            }
+            double result = digits / POWERS_OF_TEN[Math.max(0, fractionDigits)];
+            return negative ? -result : result;
+        }
+
+        @Override
+        public void close() throws IOException {
+            in.close();
+        }
+    }
+}
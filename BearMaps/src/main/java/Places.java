@@ -0,0 +1,654 @@
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+
+/**
+ * The named OSM nodes of a map, indexed for search by cleaned name (see GraphDB.cleanString).
+ * Places sharing a full name form one entry. Entries are sorted by cleaned name, so the names
+ * starting with a prefix are a range found by binary search; a segment tree over the entries'
+ * scores then yields that range's best k without looking at the rest of it.
+ * Entries with the same cleaned name are neighbours and form a group. A hash table from cleaned
+ * name to group answers full-name lookups with one probe, and a trigram index over the groups
+ * narrows misspelled lookups down to the few names close enough to be worth an edit distance.
+ * Everything is kept in flat arrays: cleaned names as one ASCII byte array, full names as one
+ * UTF-8 byte array, and the places of entry e at positions nodeOffsets[e] through
+ * nodeOffsets[e + 1] - 1 of ids, lats and lons.
+ */
+public class Places {
+    private final byte[] keys;
+    private final int[] keyOffsets;
+    private final byte[] names;
+    private final int[] nameOffsets;
+    private final int[] scores;
+    private final int[] nodeOffsets;
+    private final long[] ids;
+    private final double[] lats, lons;
+    /* best[size + e] = e; best[i] = the better entry of best[2i] and best[2i + 1]. */
+    private final int[] best;
+    private final int leaves;
+    /* Group g is entries groupStarts[g] through groupStarts[g + 1] - 1. */
+    private final int[] groupStarts;
+    /* Open addressing by cleaned name hash, holding group numbers and -1 for empty slots. */
+    private final int[] groupTable;
+    /* The groups containing trigram grams[t] are postings[gramOffsets[t]] through
+     * postings[gramOffsets[t + 1] - 1], in ascending order; grams is sorted. */
+    private final int[] grams;
+    private final int[] gramOffsets;
+    private final int[] postings;
+
+    Places(byte[] keys, int[] keyOffsets, byte[] names, int[] nameOffsets, int[] scores,
+           int[] nodeOffsets, long[] ids, double[] lats, double[] lons) {
+        this.keys = keys;
+        this.keyOffsets = keyOffsets;
+        this.names = names;
+        this.nameOffsets = nameOffsets;
+        this.scores = scores;
+        this.nodeOffsets = nodeOffsets;
+        this.ids = ids;
+        this.lats = lats;
+        this.lons = lons;
+        int n = scores.length;
+        leaves = Integer.highestOneBit(Math.max(1, n - 1)) << 1;
+        best = new int[2 * leaves];
+        Arrays.fill(best, -1);
+        for (int e = 0; e < n; e++) {
+            best[leaves + e] = e;
+        }
+        for (int i = leaves - 1; i > 0; i--) {
+            best[i] = better(best[2 * i], best[2 * i + 1]);
+        }
+
+        int groups = 0;
+        int[] starts = new int[n + 1];
+        for (int e = 0; e < n; e++) {
+            if (e == 0 || !sameKey(e - 1, e)) {
+                starts[groups++] = e;
+            }
+        }
+        starts[groups] = n;
+        groupStarts = Arrays.copyOf(starts, groups + 1);
+        groupTable = new int[Integer.highestOneBit(Math.max(2, groups) * 2 - 1) << 1];
+        Arrays.fill(groupTable, -1);
+        int mask = groupTable.length - 1;
+        for (int g = 0; g < groups; g++) {
+            int e = groupStarts[g];
+            int i = hash(keys, keyOffsets[e], keyOffsets[e + 1]) & mask;
+            while (groupTable[i] >= 0) {
+                i = (i + 1) & mask;
+            }
+            groupTable[i] = g;
+        }
+
+        /* Sort (trigram, group) pairs, then split them into a posting list per trigram. */
+        long[] pairs = new long[keys.length + 2 * groups];
+        int count = 0;
+        for (int g = 0; g < groups; g++) {
+            int e = groupStarts[g];
+            int from = count;
+            for (int gram : trigrams(keys, keyOffsets[e], keyOffsets[e + 1])) {
+                pairs[count++] = (long) gram << 32 | g;
+            }
+            /* A name repeating a trigram lists it once. */
+            Arrays.sort(pairs, from, count);
+            int distinct = from;
+            for (int i = from; i < count; i++) {
+                if (i == from || pairs[i] != pairs[distinct - 1]) {
+                    pairs[distinct++] = pairs[i];
+                }
+            }
+            count = distinct;
+        }
+        Arrays.sort(pairs, 0, count);
+        int[] gramList = new int[count];
+        int[] offsetList = new int[count + 1];
+        postings = new int[count];
+        int gramCount = 0;
+        for (int i = 0; i < count; i++) {
+            int gram = (int) (pairs[i] >>> 32);
+            if (gramCount == 0 || gramList[gramCount - 1] != gram) {
+                gramList[gramCount] = gram;
+                offsetList[gramCount++] = i;
+            }
+            postings[i] = (int) pairs[i];
+        }
+        offsetList[gramCount] = count;
+        grams = Arrays.copyOf(gramList, gramCount);
+        gramOffsets = Arrays.copyOf(offsetList, gramCount + 1);
+    }
+
+    /**
+     * Ranks a place by one of its tags. A place's importance is the highest of its tags'; an
+     * entry's score is its best place's importance, then how many places share the name.
+     */
+    static int importance(String key, String value) {
+        switch (key) {
+            case "place":
+                switch (value) {
+                    case "city":
+                        return 60;
+                    case "town":
+                        return 50;
+                    case "suburb":
+                    case "village":
+                        return 40;
+                    case "neighbourhood":
+                    case "quarter":
+                        return 30;
+                    default:
+                        return 20;
+                }
+            case "tourism":
+            case "historic":
+            case "leisure":
+                return 15;
+            case "amenity":
+            case "building":
+                return 10;
+            case "shop":
+            case "office":
+            case "craft":
+                return 5;
+            default:
+                return 0;
+        }
+    }
+
+    /**
+     * @return The number of distinct names.
+     */
+    public int size() {
+        return scores.length;
+    }
+
+    /**
+     * @return The number of named places.
+     */
+    public int placeCount() {
+        return ids.length;
+    }
+
+    public String name(int entry) {
+        return new String(names, nameOffsets[entry], nameOffsets[entry + 1] - nameOffsets[entry],
+                StandardCharsets.UTF_8);
+    }
+
+    public int score(int entry) {
+        return scores[entry];
+    }
+
+    /**
+     * @return The full names whose cleaned form starts with the cleaned prefix, at most limit
+     * of them, highest score first and alphabetically among equal scores.
+     */
+    public List<String> byPrefix(String prefix, int limit) {
+        byte[] cleaned = GraphDB.cleanString(prefix).getBytes(StandardCharsets.US_ASCII);
+        int lo = bound(cleaned, false);
+        int hi = bound(cleaned, true);
+        List<String> result = new ArrayList<>();
+        if (lo >= hi || limit <= 0) {
+            return result;
+        }
+        /* Ranges by their best entry; taking one splits it around that entry. */
+        PriorityQueue<int[]> ranges = new PriorityQueue<>((a, b) -> compare(a[2], b[2]));
+        ranges.add(new int[]{lo, hi, bestIn(lo, hi)});
+        while (!ranges.isEmpty() && result.size() < limit) {
+            int[] range = ranges.poll();
+            int e = range[2];
+            result.add(name(e));
+            if (range[0] < e) {
+                ranges.add(new int[]{range[0], e, bestIn(range[0], e)});
+            }
+            if (e + 1 < range[1]) {
+                ranges.add(new int[]{e + 1, range[1], bestIn(e + 1, range[1])});
+            }
+        }
+        return result;
+    }
+
+    /**
+     * @return The entries whose cleaned name is the cleaned name given, alphabetically.
+     */
+    public int[] byName(String name) {
+        byte[] cleaned = GraphDB.cleanString(name).getBytes(StandardCharsets.US_ASCII);
+        int g = group(cleaned);
+        return g < 0 ? new int[0] : entriesOf(g);
+    }
+
+    /**
+     * The edit distance fuzzy lookups allow for a cleaned name of the given length: none below
+     * three letters, where almost every name would be close, one below eight and two from there.
+     */
+    static int maxEdits(int length) {
+        return length < 3 ? 0 : length < 8 ? 1 : 2;
+    }
+
+    /**
+     * @return The entries whose cleaned name is at most maxEdits(length) insertions, deletions
+     * or substitutions away from the cleaned name given, closest first, then by score. Only the
+     * names sharing enough trigrams with it are compared, so the time taken grows with the
+     * lengths of its trigrams' posting lists rather than with the number of names.
+     */
+    public int[] byNameFuzzy(String name) {
+        byte[] cleaned = GraphDB.cleanString(name).getBytes(StandardCharsets.US_ASCII);
+        int edits = maxEdits(cleaned.length);
+        if (edits == 0) {
+            return byName(name);
+        }
+        /* Each edit destroys at most three of the query's trigrams, so a name within reach
+         * misses at most 3 * edits of them and must contain one of any 3 * edits + 1. Only
+         * the names on the shortest posting lists of that many trigrams are compared. */
+        int[] queryGrams = trigrams(cleaned, 0, cleaned.length);
+        Arrays.sort(queryGrams);
+        int distinct = 0;
+        for (int i = 0; i < queryGrams.length; i++) {
+            if (i == 0 || queryGrams[i] != queryGrams[distinct - 1]) {
+                queryGrams[distinct++] = queryGrams[i];
+            }
+        }
+        /* Posting list length in the high half, trigram number in the low. */
+        long[] lists = new long[distinct];
+        for (int i = 0; i < distinct; i++) {
+            int t = Arrays.binarySearch(grams, queryGrams[i]);
+            if (t >= 0) {
+                lists[i] = (long) (gramOffsets[t + 1] - gramOffsets[t]) << 32 | t;
+            }
+        }
+        Arrays.sort(lists);
+        int chosen = Math.min(distinct, 3 * edits + 1);
+        int total = 0;
+        for (int i = 0; i < chosen; i++) {
+            total += (int) (lists[i] >>> 32);
+        }
+        int[] candidates = new int[total];
+        int c = 0;
+        for (int i = 0; i < chosen; i++) {
+            int t = (int) lists[i];
+            int length = (int) (lists[i] >>> 32);
+            System.arraycopy(postings, gramOffsets[t], candidates, c, length);
+            c += length;
+        }
+        Arrays.sort(candidates);
+
+        List<int[]> matches = new ArrayList<>();
+        int[][] rows = new int[2][cleaned.length + edits + 1];
+        for (int i = 0; i < total; i++) {
+            if (i > 0 && candidates[i] == candidates[i - 1]) {
+                continue;
+            }
+            int e = groupStarts[candidates[i]];
+            int d = distance(cleaned, keyOffsets[e], keyOffsets[e + 1], edits, rows);
+            if (d <= edits) {
+                for (int entry : entriesOf(candidates[i])) {
+                    matches.add(new int[]{d, entry});
+                }
+            }
+        }
+        matches.sort(Comparator.<int[]>comparingInt(m -> m[0])
+                .thenComparing((a, b) -> compare(a[1], b[1])));
+        int[] result = new int[matches.size()];
+        for (int i = 0; i < result.length; i++) {
+            result[i] = matches.get(i)[1];
+        }
+        return result;
+    }
+
+    /**
+     * @return The index of the first of entry's places in id, lat and lon; its last is
+     * placesEnd(entry) - 1.
+     */
+    public int placesStart(int entry) {
+        return nodeOffsets[entry];
+    }
+
+    public int placesEnd(int entry) {
+        return nodeOffsets[entry + 1];
+    }
+
+    public long id(int place) {
+        return ids[place];
+    }
+
+    public double lat(int place) {
+        return lats[place];
+    }
+
+    public double lon(int place) {
+        return lons[place];
+    }
+
+    private int[] entriesOf(int group) {
+        int[] entries = new int[groupStarts[group + 1] - groupStarts[group]];
+        for (int i = 0; i < entries.length; i++) {
+            entries[i] = groupStarts[group] + i;
+        }
+        return entries;
+    }
+
+    /* The group whose cleaned name is key, or -1. */
+    private int group(byte[] key) {
+        int mask = groupTable.length - 1;
+        for (int i = hash(key, 0, key.length) & mask; groupTable[i] >= 0; i = (i + 1) & mask) {
+            int e = groupStarts[groupTable[i]];
+            if (keyOffsets[e + 1] - keyOffsets[e] == key.length
+                    && comparePrefix(e, key) == 0) {
+                return groupTable[i];
+            }
+        }
+        return -1;
+    }
+
+    private boolean sameKey(int a, int b) {
+        int length = keyOffsets[a + 1] - keyOffsets[a];
+        if (keyOffsets[b + 1] - keyOffsets[b] != length) {
+            return false;
+        }
+        for (int i = 0; i < length; i++) {
+            if (keys[keyOffsets[a] + i] != keys[keyOffsets[b] + i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static int hash(byte[] bytes, int from, int to) {
+        int h = 0;
+        for (int i = from; i < to; i++) {
+            h = 31 * h + bytes[i];
+        }
+        return h ^ (h >>> 16);
+    }
+
+    /**
+     * @return The trigrams of bytes[from, to) padded with two zero bytes on either side, as
+     * ints with the first byte highest: one per byte plus two, repeats included.
+     */
+    static int[] trigrams(byte[] bytes, int from, int to) {
+        int[] result = new int[to - from + 2];
+        int gram = 0;
+        for (int i = from; i < to + 2; i++) {
+            gram = (gram << 8 | (i < to ? bytes[i] & 0xFF : 0)) & 0xFFFFFF;
+            result[i - from] = gram;
+        }
+        return result;
+    }
+
+    /**
+     * @param rows Two rows of at least query.length + limit + 1 ints to work in.
+     * @return The edit distance between query and keys[from, to), or limit + 1 if it is more
+     * than limit.
+     */
+    private int distance(byte[] query, int from, int to, int limit, int[][] rows) {
+        int n = to - from;
+        if (Math.abs(n - query.length) > limit) {
+            return limit + 1;
+        }
+        int[] previous = rows[0];
+        int[] current = rows[1];
+        for (int j = 0; j <= n; j++) {
+            previous[j] = j;
+        }
+        for (int i = 1; i <= query.length; i++) {
+            current[0] = i;
+            int rowMin = i;
+            for (int j = 1; j <= n; j++) {
+                int cost = query[i - 1] == keys[from + j - 1] ? 0 : 1;
+                current[j] = Math.min(previous[j - 1] + cost,
+                        Math.min(previous[j], current[j - 1]) + 1);
+                rowMin = Math.min(rowMin, current[j]);
+            }
+            if (rowMin > limit) {
+                return limit + 1;
+            }
+            int[] swap = previous;
+            previous = current;
+            current = swap;
+        }
+        return Math.min(previous[n], limit + 1);
+    }
+
+    /**
+     * @return The first entry whose key, cut to the prefix's length, is at least the prefix,
+     * or with after, greater than it.
+     */
+    private int bound(byte[] prefix, boolean after) {
+        int lo = 0;
+        int hi = scores.length;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            int c = comparePrefix(mid, prefix);
+            if (c < 0 || after && c == 0) {
+                lo = mid + 1;
+            } else {
+                hi = mid;
+            }
+        }
+        return lo;
+    }
+
+    private int comparePrefix(int entry, byte[] prefix) {
+        int from = keyOffsets[entry];
+        int length = Math.min(keyOffsets[entry + 1] - from, prefix.length);
+        for (int i = 0; i < length; i++) {
+            if (keys[from + i] != prefix[i]) {
+                return keys[from + i] - prefix[i];
+            }
+        }
+        return length == prefix.length ? 0 : -1;
+    }
+
+    /* The best entry in [lo, hi), which must not be empty. */
+    private int bestIn(int lo, int hi) {
+        int result = -1;
+        for (lo += leaves, hi += leaves; lo < hi; lo >>= 1, hi >>= 1) {
+            if ((lo & 1) == 1) {
+                result = better(result, best[lo++]);
+            }
+            if ((hi & 1) == 1) {
+                result = better(result, best[--hi]);
+            }
+        }
+        return result;
+    }
+
+    private int better(int a, int b) {
+        if (a < 0) {
+            return b;
+        }
+        if (b < 0) {
+            return a;
+        }
+        return compare(a, b) <= 0 ? a : b;
+    }
+
+    /* Orders entries by descending score, then alphabetically, which is by index. */
+    private int compare(int a, int b) {
+        return scores[a] != scores[b] ? Integer.compare(scores[b], scores[a])
+                : Integer.compare(a, b);
+    }
+
+    /**
+     * @return The approximate heap footprint of the arrays, in bytes.
+     */
+    public long bytes() {
+        return keys.length + keyOffsets.length * 4L + names.length + nameOffsets.length * 4L
+                + scores.length * 4L + nodeOffsets.length * 4L + ids.length * 24L
+                + best.length * 4L + groupStarts.length * 4L + groupTable.length * 4L
+                + grams.length * 4L + gramOffsets.length * 4L + postings.length * 4L;
+    }
+
+    /* For GraphSnapshot. */
+    byte[] keys() {
+        return keys;
+    }
+
+    int[] keyOffsets() {
+        return keyOffsets;
+    }
+
+    byte[] names() {
+        return names;
+    }
+
+    int[] nameOffsets() {
+        return nameOffsets;
+    }
+
+    int[] scores() {
+        return scores;
+    }
+
+    int[] nodeOffsets() {
+        return nodeOffsets;
+    }
+
+    long[] ids() {
+        return ids;
+    }
+
+    double[] lats() {
+        return lats;
+    }
+
+    double[] lons() {
+        return lons;
+    }
+
+    @Override
+    public String toString() {
+        return "Places{"
+                + "names=" + size()
+                + ", places=" + placeCount()
+                + '}';
+    }
+
+    /**
+     * Collects named places in any order. Not thread-safe.
+     */
+    public static class Builder {
+        private long[] ids = new long[1024];
+        private double[] lats = new double[1024];
+        private double[] lons = new double[1024];
+        private int[] importances = new int[1024];
+        private final List<String> names = new ArrayList<>();
+
+        /**
+         * Records a place. Names that clean to nothing, like "7-11", cannot be searched for
+         * and are ignored.
+         *
+         * @param importance The highest importance of its tags.
+         */
+        public void add(long id, double lat, double lon, String name, int importance) {
+            int i = names.size();
+            if (i == ids.length) {
+                ids = Arrays.copyOf(ids, i * 2);
+                lats = Arrays.copyOf(lats, i * 2);
+                lons = Arrays.copyOf(lons, i * 2);
+                importances = Arrays.copyOf(importances, i * 2);
+            }
+            ids[i] = id;
+            lats[i] = lat;
+            lons[i] = lon;
+            importances[i] = importance;
+            names.add(name);
+        }
+
+        public Places build() {
+            /* Number the distinct names, clean each once and sort them. */
+            Map<String, Integer> numbers = new HashMap<>();
+            List<String> distinct = new ArrayList<>();
+            List<String> cleaned = new ArrayList<>();
+            int[] numberOf = new int[names.size()];
+            for (int i = 0; i < names.size(); i++) {
+                String name = names.get(i);
+                Integer number = numbers.get(name);
+                if (number == null) {
+                    number = distinct.size();
+                    numbers.put(name, number);
+                    distinct.add(name);
+                    cleaned.add(GraphDB.cleanString(name));
+                }
+                numberOf[i] = number;
+            }
+            Integer[] sorted = new Integer[distinct.size()];
+            int entries = 0;
+            for (int d = 0; d < distinct.size(); d++) {
+                if (!cleaned.get(d).trim().isEmpty()) {
+                    sorted[entries++] = d;
+                }
+            }
+            Arrays.sort(sorted, 0, entries, (a, b) -> {
+                int c = cleaned.get(a).compareTo(cleaned.get(b));
+                return c != 0 ? c : distinct.get(a).compareTo(distinct.get(b));
+            });
+            int[] entryOf = new int[distinct.size()];
+            Arrays.fill(entryOf, -1);
+            for (int e = 0; e < entries; e++) {
+                entryOf[sorted[e]] = e;
+            }
+
+            /* Bucket the places by entry, in the order they were added. */
+            int[] nodeOffsets = new int[entries + 1];
+            int[] scores = new int[entries];
+            for (int i = 0; i < names.size(); i++) {
+                int e = entryOf[numberOf[i]];
+                if (e >= 0) {
+                    nodeOffsets[e + 1] += 1;
+                    scores[e] = Math.max(scores[e], importances[i]);
+                }
+            }
+            for (int e = 0; e < entries; e++) {
+                nodeOffsets[e + 1] += nodeOffsets[e];
+                scores[e] = scores[e] * 64 + Math.min(63, nodeOffsets[e + 1] - nodeOffsets[e]);
+            }
+            int p = nodeOffsets[entries];
+            long[] placeIds = new long[p];
+            double[] placeLats = new double[p];
+            double[] placeLons = new double[p];
+            int[] cursor = Arrays.copyOf(nodeOffsets, entries);
+            for (int i = 0; i < names.size(); i++) {
+                int e = entryOf[numberOf[i]];
+                if (e >= 0) {
+                    int j = cursor[e]++;
+                    placeIds[j] = ids[i];
+                    placeLats[j] = lats[i];
+                    placeLons[j] = lons[i];
+                }
+            }
+
+            ByteArray keys = new ByteArray();
+            ByteArray fullNames = new ByteArray();
+            int[] keyOffsets = new int[entries + 1];
+            int[] nameOffsets = new int[entries + 1];
+            for (int e = 0; e < entries; e++) {
+                keys.add(cleaned.get(sorted[e]).getBytes(StandardCharsets.US_ASCII));
+                fullNames.add(distinct.get(sorted[e]).getBytes(StandardCharsets.UTF_8));
+                keyOffsets[e + 1] = keys.length;
+                nameOffsets[e + 1] = fullNames.length;
+            }
+            return new Places(keys.toArray(), keyOffsets, fullNames.toArray(), nameOffsets,
+                    scores, nodeOffsets, placeIds, placeLats, placeLons);
+        }
+    }
+
+    private static class ByteArray {
+        byte[] bytes = new byte[1024];
+        int length;
+
+        void add(byte[] b) {
+            if (length + b.length > bytes.length) {
+                bytes = Arrays.copyOf(bytes, Math.max(bytes.length * 2, length + b.length));
+            }
+            System.arraycopy(b, 0, bytes, length, b.length);
+            length += b.length;
+        }
+
+        byte[] toArray() {
+            return Arrays.copyOf(bytes, length);
+        }
+    }
+}
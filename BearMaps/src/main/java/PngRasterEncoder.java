@@ -0,0 +1,245 @@
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+
+/**
+ * Streaming 8-bit truecolor PNG encoder with a selectable deflate level, deflate strategy and
+ * row filter, so operators can trade bytes on the wire for encode CPU. Output goes straight
+ * to the target stream in IDAT chunks of CHUNK_SIZE bytes.
+ * See the <a href="https://www.w3.org/TR/PNG/">PNG specification</a>.
+ */
+public class PngRasterEncoder implements RasterEncoder {
+    /**
+     * PNG row filters, numbered as in the specification. ADAPTIVE picks, for each row, the
+     * filter with the smallest sum of absolute filtered bytes.
+     */
+    public enum Filter {
+        NONE, SUB, UP, AVERAGE, PAETH, ADAPTIVE
+    }
+
+    private static final byte[] SIGNATURE = {(byte) 137, 80, 78, 71, 13, 10, 26, 10};
+    private static final int CHUNK_SIZE = 1 << 16;
+    private static final int BYTES_PER_PIXEL = 3;
+
+    private final int level;
+    private final int strategy;
+    private final Filter filter;
+
+    /**
+     * @param level    Deflate level, Deflater.BEST_SPEED (1) to Deflater.BEST_COMPRESSION (9).
+     * @param strategy Deflater.DEFAULT_STRATEGY, FILTERED or HUFFMAN_ONLY.
+     * @param filter   Row filter applied before deflating.
+     */
+    public PngRasterEncoder(int level, int strategy, Filter filter) {
+        this.level = level;
+        this.strategy = strategy;
+        this.filter = filter;
+    }
+
+    @Override
+    public String contentType() {
+        return "image/png";
+    }
+
+    @Override
+    public void encode(BufferedImage image, OutputStream os) throws IOException {
+        int width = image.getWidth();
+        int height = image.getHeight();
+        os.write(SIGNATURE);
+
+        ChunkOutputStream header = new ChunkOutputStream(os, "IHDR");
+        DataOutputStream ihdr = new DataOutputStream(header);
+        ihdr.writeInt(width);
+        ihdr.writeInt(height);
+        ihdr.writeByte(8);  /* bit depth */
+        ihdr.writeByte(2);  /* color type: truecolor */
+        ihdr.writeByte(0);  /* compression: deflate */
+        ihdr.writeByte(0);  /* filter method: adaptive filtering with five basic types */
+        ihdr.writeByte(0);  /* no interlace */
+        header.finish();
+
+        Deflater deflater = new Deflater(level);
+        deflater.setStrategy(strategy);
+        ChunkOutputStream idat = new ChunkOutputStream(os, "IDAT");
+        try (DeflaterOutputStream deflated =
+                     new DeflaterOutputStream(idat, deflater, CHUNK_SIZE)) {
+            int rowBytes = width * BYTES_PER_PIXEL;
+            byte[] previous = new byte[rowBytes];
+            byte[] current = new byte[rowBytes];
+            byte[][] filtered = new byte[Filter.ADAPTIVE.ordinal()][rowBytes + 1];
+            int[] argb = new int[width];
+            for (int y = 0; y < height; y++) {
+                readRow(image, y, argb);
+                for (int x = 0, i = 0; x < width; x++) {
+                    current[i++] = (byte) (argb[x] >> 16);
+                    current[i++] = (byte) (argb[x] >> 8);
+                    current[i++] = (byte) argb[x];
+                }
+                deflated.write(filterRow(current, previous, filtered));
+                byte[] swap = previous;
+                previous = current;
+                current = swap;
+            }
+            deflated.finish();
+            idat.finish();
+        } finally {
+            deflater.end();
+        }
+        new ChunkOutputStream(os, "IEND").finish();
+    }
+
+    private static void readRow(BufferedImage image, int y, int[] argb) {
+        int width = argb.length;
+        if (image.getType() == BufferedImage.TYPE_INT_RGB
+                || image.getType() == BufferedImage.TYPE_INT_ARGB) {
+            int[] data = ((DataBufferInt) image.getRaster().getDataBuffer()).getData();
+            System.arraycopy(data, y * width, argb, 0, width);
+        } else {
+            image.getRGB(0, y, width, 1, argb, 0, width);
+        }
+    }
+
+    /**
+     * @return The filter type byte followed by the filtered row.
+     */
+    private byte[] filterRow(byte[] row, byte[] previous, byte[][] filtered) {
+        if (filter != Filter.ADAPTIVE) {
+            byte[] out = filtered[filter.ordinal()];
+            applyFilter(filter.ordinal(), row, previous, out);
+            return out;
+        }
+        byte[] best = null;
+        long bestSum = Long.MAX_VALUE;
+        for (int type = 0; type < filtered.length; type++) {
+            byte[] out = filtered[type];
+            applyFilter(type, row, previous, out);
+            long sum = 0;
+            for (int i = 1; i < out.length && sum < bestSum; i++) {
+                sum += Math.abs(out[i]);
+            }
+            if (sum < bestSum) {
+                bestSum = sum;
+                best = out;
+            }
+        }
+        return best;
+    }
+
+    private static void applyFilter(int type, byte[] row, byte[] previous, byte[] out) {
+        out[0] = (byte) type;
+        for (int i = 0; i < row.length; i++) {
+            int x = row[i] & 0xFF;
+            int a = i >= BYTES_PER_PIXEL ? row[i - BYTES_PER_PIXEL] & 0xFF : 0;
+            int b = previous[i] & 0xFF;
+            int c = i >= BYTES_PER_PIXEL ? previous[i - BYTES_PER_PIXEL] & 0xFF : 0;
+            int predictor;
+            switch (type) {
+                case 1:
+                    predictor = a;
+                    break;
+                case 2:
+                    predictor = b;
+                    break;
+                case 3:
+                    predictor = (a + b) >>> 1;
+                    break;
+                case 4:
+                    predictor = paeth(a, b, c);
+                    break;
+                default:
+                    predictor = 0;
+            }
+            out[i + 1] = (byte) (x - predictor);
+        }
+    }
+
+    private static int paeth(int a, int b, int c) {
+        int p = a + b - c;
+        int pa = Math.abs(p - a);
+        int pb = Math.abs(p - b);
+        int pc = Math.abs(p - c);
+        if (pa <= pb && pa <= pc) {
+            return a;
+        }
+        return pb <= pc ? b : c;
+    }
+
+    /**
+     * Buffers bytes and writes them to the underlying stream as PNG chunks of one type, each
+     * at most CHUNK_SIZE bytes long.
+     */
+    private static class ChunkOutputStream extends OutputStream {
+        private final OutputStream out;
+        private final byte[] type;
+        private final byte[] buffer = new byte[CHUNK_SIZE];
+        private int count;
+        private boolean flushedAny;
+
+        ChunkOutputStream(OutputStream out, String type) {
+            this.out = out;
+            this.type = type.getBytes(StandardCharsets.US_ASCII);
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            if (count == buffer.length) {
+                writeChunk();
+            }
+            buffer[count++] = (byte) b;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            while (len > 0) {
+                if (count == buffer.length) {
+                    writeChunk();
+                }
+                int n = Math.min(len, buffer.length - count);
+                System.arraycopy(b, off, buffer, count, n);
+                count += n;
+                off += n;
+                len -= n;
+            }
+        }
+
+        /**
+         * Writes whatever is buffered as the last chunk. A chunk type that received no bytes
+         * at all, like IEND, is written once with no data.
+         */
+        void finish() throws IOException {
+            if (count > 0 || !flushedAny) {
+                writeChunk();
+            }
+        }
+
+        /* Closing the deflater stream must not close the response. */
+        @Override
+        public void close() {
+        }
+
+        private void writeChunk() throws IOException {
+            CRC32 crc = new CRC32();
+            crc.update(type);
+            crc.update(buffer, 0, count);
+            writeInt(count);
+            out.write(type);
+            out.write(buffer, 0, count);
+            writeInt((int) crc.getValue());
+            count = 0;
+            flushedAny = true;
+        }
+
+        private void writeInt(int v) throws IOException {
+            out.write(v >>> 24);
+            out.write(v >>> 16);
+            out.write(v >>> 8);
+            out.write(v);
+        }
+    }
+}
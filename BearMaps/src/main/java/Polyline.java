@@ -0,0 +1,169 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Route geometry for clients that draw the route themselves. Points are written in the encoded
+ * polyline format: latitude and longitude are rounded to 1e-5 degrees, each is sent as the
+ * difference from the previous point, and each difference is zigzag-encoded and written as
+ * 5-bit groups, lowest first, in printable ASCII from '?' up.
+ * Douglas-Peucker simplification drops points that lie within a tolerance of the line through
+ * their neighbours, so lower zoom levels can be sent fewer points.
+ */
+public class Polyline {
+    /**
+     * Encoded coordinates are in units of 1 / PRECISION degrees.
+     */
+    public static final double PRECISION = 1e5;
+
+    private Polyline() {
+    }
+
+    /**
+     * @param keep The indices of the route's points to write, ascending, or null for all.
+     * @return The encoded polyline.
+     */
+    public static String encode(Route route, int[] keep) {
+        int n = keep == null ? route.size() : keep.length;
+        StringBuilder encoded = new StringBuilder(n * 8);
+        long lastLat = 0;
+        long lastLon = 0;
+        for (int k = 0; k < n; k++) {
+            int i = keep == null ? k : keep[k];
+            long lat = Math.round(route.lat(i) * PRECISION);
+            long lon = Math.round(route.lon(i) * PRECISION);
+            write(lat - lastLat, encoded);
+            write(lon - lastLon, encoded);
+            lastLat = lat;
+            lastLon = lon;
+        }
+        return encoded.toString();
+    }
+
+    private static void write(long delta, StringBuilder encoded) {
+        long zigzag = delta < 0 ? ~(delta << 1) : delta << 1;
+        while (zigzag >= 0x20) {
+            encoded.append((char) ((0x20 | (zigzag & 0x1F)) + 63));
+            zigzag >>>= 5;
+        }
+        encoded.append((char) (zigzag + 63));
+    }
+
+    /**
+     * @return The points of an encoded polyline as {lat, lon} pairs, in degrees.
+     * @throws IllegalArgumentException If the string ends in the middle of a number or holds
+     *                                  an odd number of them.
+     */
+    public static List<double[]> decode(String encoded) {
+        List<double[]> points = new ArrayList<>();
+        long[] value = new long[2];
+        int coordinate = 0;
+        long number = 0;
+        int shift = 0;
+        for (int i = 0; i < encoded.length(); i++) {
+            int chunk = encoded.charAt(i) - 63;
+            if (chunk < 0 || chunk >= 0x40 || shift > 60) {
+                throw new IllegalArgumentException("Not an encoded polyline: " + encoded);
+            }
+            number |= (long) (chunk & 0x1F) << shift;
+            shift += 5;
+            if (chunk < 0x20) {
+                value[coordinate] += (number & 1) == 0 ? number >>> 1 : ~(number >>> 1);
+                number = 0;
+                shift = 0;
+                coordinate ^= 1;
+                if (coordinate == 0) {
+                    points.add(new double[]{value[0] / PRECISION, value[1] / PRECISION});
+                }
+            }
+        }
+        if (shift != 0 || coordinate != 0) {
+            throw new IllegalArgumentException("Not an encoded polyline: " + encoded);
+        }
+        return points;
+    }
+
+    /**
+     * Douglas-Peucker simplification of the polyline through (xs[i], ys[i]).
+     *
+     * @param tolerance Points closer than this to the segment replacing them are dropped; in
+     *                  the units of xs and ys.
+     * @return The indices of the points kept, ascending; always the first and last.
+     */
+    public static int[] simplify(double[] xs, double[] ys, double tolerance) {
+        int n = xs.length;
+        if (n <= 2) {
+            int[] all = new int[n];
+            for (int i = 0; i < n; i++) {
+                all[i] = i;
+            }
+            return all;
+        }
+        boolean[] kept = new boolean[n];
+        kept[0] = true;
+        kept[n - 1] = true;
+        double squaredTolerance = tolerance * tolerance;
+        /* Pending spans as (first, last) pairs, so long routes cannot overflow the stack. */
+        int[] stack = new int[64];
+        int top = 0;
+        stack[top++] = 0;
+        stack[top++] = n - 1;
+        while (top > 0) {
+            int last = stack[--top];
+            int first = stack[--top];
+            int farthest = -1;
+            double farthestDistance = squaredTolerance;
+            for (int i = first + 1; i < last; i++) {
+                double d = squaredDistance(xs[i], ys[i], xs[first], ys[first],
+                        xs[last], ys[last]);
+                if (d > farthestDistance) {
+                    farthest = i;
+                    farthestDistance = d;
+                }
+            }
+            if (farthest < 0) {
+                continue;
+            }
+            kept[farthest] = true;
+            if (top + 4 > stack.length) {
+                stack = Arrays.copyOf(stack, stack.length * 2);
+            }
+            if (farthest - first > 1) {
+                stack[top++] = first;
+                stack[top++] = farthest;
+            }
+            if (last - farthest > 1) {
+                stack[top++] = farthest;
+                stack[top++] = last;
+            }
+        }
+        int count = 0;
+        for (boolean k : kept) {
+            if (k) {
+                count += 1;
+            }
+        }
+        int[] result = new int[count];
+        for (int i = 0, j = 0; i < n; i++) {
+            if (kept[i]) {
+                result[j++] = i;
+            }
+        }
+        return result;
+    }
+
+    /**
+     * @return The squared distance from (x, y) to the segment from (x0, y0) to (x1, y1).
+     */
+    static double squaredDistance(double x, double y, double x0, double y0,
+                                  double x1, double y1) {
+        double dx = x1 - x0;
+        double dy = y1 - y0;
+        double length = dx * dx + dy * dy;
+        double t = length == 0 ? 0 : ((x - x0) * dx + (y - y0) * dy) / length;
+        t = Math.max(0, Math.min(1, t));
+        double ex = x0 + t * dx - x;
+        double ey = y0 + t * dy - y;
+        return ex * ex + ey * ey;
+    }
+}
@@ -0,0 +1,187 @@
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * LRU cache of finished, encoded rasters, bounded by their total encoded size. Concurrent
+ * requests for the same raster are coalesced: one thread renders while the others wait for
+ * its result.
+ */
+public class RasterCache {
+    /**
+     * Renders one raster to its encoded bytes.
+     */
+    public interface Renderer {
+        byte[] render() throws IOException;
+    }
+
+    private final long maxBytes;
+    private final LinkedHashMap<Key, byte[]> rasters = new LinkedHashMap<>(64, 0.75f, true);
+    private final ConcurrentHashMap<Key, CompletableFuture<byte[]>> inFlight =
+            new ConcurrentHashMap<>();
+    private long bytes;
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong coalesced = new AtomicLong();
+    private final AtomicLong evictions = new AtomicLong();
+
+    public RasterCache(long maxBytes) {
+        this.maxBytes = maxBytes;
+    }
+
+    /**
+     * Returns the cached raster for key, or renders it. If another thread is already rendering
+     * the same key, waits for that result instead of rendering again.
+     *
+     * @throws IOException If rendering failed, in this thread or the one it waited on.
+     */
+    public byte[] get(Key key, Renderer renderer) throws IOException {
+        byte[] raster;
+        synchronized (rasters) {
+            raster = rasters.get(key);
+        }
+        if (raster != null) {
+            hits.incrementAndGet();
+            return raster;
+        }
+
+        CompletableFuture<byte[]> mine = new CompletableFuture<>();
+        CompletableFuture<byte[]> running = inFlight.putIfAbsent(key, mine);
+        if (running != null) {
+            coalesced.incrementAndGet();
+            return await(running);
+        }
+        misses.incrementAndGet();
+        try {
+            raster = renderer.render();
+            put(key, raster);
+            mine.complete(raster);
+            return raster;
+        } catch (IOException | RuntimeException | Error e) {
+            mine.completeExceptionally(e);
+            throw e;
+        } finally {
+            inFlight.remove(key, mine);
+        }
+    }
+
+    private static byte[] await(CompletableFuture<byte[]> running) throws IOException {
+        try {
+            return running.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while waiting for a raster.", e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException) {
+                throw (IOException) e.getCause();
+            }
+            throw new IOException("Raster rendering failed.", e.getCause());
+        }
+    }
+
+    private void put(Key key, byte[] raster) {
+        if (raster.length > maxBytes) {
+            return;
+        }
+        synchronized (rasters) {
+            byte[] old = rasters.put(key, raster);
+            if (old != null) {
+                bytes -= old.length;
+            }
+            bytes += raster.length;
+            Iterator<byte[]> eldest = rasters.values().iterator();
+            while (bytes > maxBytes && eldest.hasNext()) {
+                bytes -= eldest.next().length;
+                eldest.remove();
+                evictions.incrementAndGet();
+            }
+        }
+    }
+
+    /**
+     * @return The counters and current footprint, for the stats endpoint.
+     */
+    public Map<String, Object> stats() {
+        Map<String, Object> stats = new HashMap<>();
+        synchronized (rasters) {
+            stats.put("entries", rasters.size());
+            stats.put("bytes", bytes);
+        }
+        stats.put("max_bytes", maxBytes);
+        stats.put("hits", hits.get());
+        stats.put("misses", misses.get());
+        stats.put("coalesced", coalesced.get());
+        stats.put("evictions", evictions.get());
+        return stats;
+    }
+
+    /**
+     * Identifies a raster by the block of tiles it covers, the viewport cut out of it and the
+     * version of the route drawn on it. Rasters the route does not touch use version 0, so a
+     * new route only invalidates the rasters it is actually drawn on.
+     */
+    public static class Key {
+        private final int depth, firstRow, firstCol, rows, cols;
+        private final Viewport viewport;
+        private final long routeVersion;
+
+        /**
+         * @param viewport The crop sent to the client, or null for the whole tile raster.
+         */
+        public Key(TileGrid grid, Viewport viewport, long routeVersion) {
+            this.depth = grid.depth();
+            this.firstRow = grid.firstRow();
+            this.firstCol = grid.firstCol();
+            this.rows = grid.rows();
+            this.cols = grid.cols();
+            this.viewport = viewport;
+            this.routeVersion = routeVersion;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof Key)) {
+                return false;
+            }
+            Key key = (Key) o;
+            return depth == key.depth && firstRow == key.firstRow && firstCol == key.firstCol
+                    && rows == key.rows && cols == key.cols && routeVersion == key.routeVersion
+                    && Objects.equals(viewport, key.viewport);
+        }
+
+        @Override
+        public int hashCode() {
+            int result = depth;
+            result = 31 * result + firstRow;
+            result = 31 * result + firstCol;
+            result = 31 * result + rows;
+            result = 31 * result + cols;
+            result = 31 * result + Objects.hashCode(viewport);
+            result = 31 * result + Long.hashCode(routeVersion);
+            return result;
+        }
+
+        @Override
+        public String toString() {
+            return "Key{"
+                    + "depth=" + depth
+                    + ", firstRow=" + firstRow
+                    + ", firstCol=" + firstCol
+                    + ", rows=" + rows
+                    + ", cols=" + cols
+                    + ", viewport=" + viewport
+                    + ", routeVersion=" + routeVersion
+                    + '}';
+        }
+    }
+}
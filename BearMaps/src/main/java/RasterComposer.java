@@ -0,0 +1,95 @@
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+
+/**
+ * Assembles the tiles of a TileGrid into one TYPE_INT_RGB image. Each tile lands in its own
+ * disjoint block of the output pixel array, so tiles are fetched, decoded and copied in
+ * parallel on the shared WorkerPool once a grid has at least parallelThreshold tiles; smaller
+ * grids stay on the request thread.
+ */
+public class RasterComposer {
+    private final TileCache cache;
+    private final TileAtlas atlas;
+    private final int parallelThreshold;
+
+    /**
+     * @param cache             Decoded tiles.
+     * @param atlas             Pre-decoded tiles, or null when the atlas is disabled.
+     * @param parallelThreshold Smallest tile count composed in parallel.
+     */
+    public RasterComposer(TileCache cache, TileAtlas atlas, int parallelThreshold) {
+        this.cache = cache;
+        this.atlas = atlas;
+        this.parallelThreshold = parallelThreshold;
+    }
+
+    /**
+     * @return A new image of grid.cols() x grid.rows() tiles.
+     * @throws IOException If any tile could not be read.
+     */
+    public BufferedImage compose(TileGrid grid) throws IOException {
+        BufferedImage result = new BufferedImage(grid.cols() * MapServer.TILE_SIZE,
+                grid.rows() * MapServer.TILE_SIZE, BufferedImage.TYPE_INT_RGB);
+        int[] dst = ((DataBufferInt) result.getRaster().getDataBuffer()).getData();
+        boolean fromAtlas = atlas != null && atlas.covers(grid);
+        int count = grid.tiles().size();
+        if (count < parallelThreshold) {
+            for (int i = 0; i < count; i++) {
+                copyTile(grid, i, dst, result.getWidth(), fromAtlas);
+            }
+            return result;
+        }
+
+        List<Callable<Void>> tasks = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            final int tile = i;
+            tasks.add(() -> {
+                copyTile(grid, tile, dst, result.getWidth(), fromAtlas);
+                return null;
+            });
+        }
+        try {
+            for (Future<Void> done : WorkerPool.get().invokeAll(tasks)) {
+                done.get();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while composing " + grid + ".", e);
+        } catch (ExecutionException e) {
+            /* ForkJoinPool wraps checked exceptions thrown by a Callable in RuntimeExceptions. */
+            for (Throwable cause = e.getCause(); cause != null; cause = cause.getCause()) {
+                if (cause instanceof IOException) {
+                    throw (IOException) cause;
+                }
+            }
+            throw new IOException("Failed to compose " + grid + ".", e.getCause());
+        }
+        return result;
+    }
+
+    private void copyTile(TileGrid grid, int index, int[] dst, int scanline,
+                          boolean fromAtlas) throws IOException {
+        int row = index / grid.cols();
+        int col = index % grid.cols();
+        String id = grid.tiles().get(index).getID();
+        int offset = row * MapServer.TILE_SIZE * scanline + col * MapServer.TILE_SIZE;
+        if (fromAtlas) {
+            atlas.copyTile(id, dst, offset, scanline);
+            return;
+        }
+        BufferedImage tile = cache.get(id);
+        int[] src = ((DataBufferInt) tile.getRaster().getDataBuffer()).getData();
+        int width = tile.getWidth();
+        int rows = Math.min(tile.getHeight(), MapServer.TILE_SIZE);
+        int cols = Math.min(width, MapServer.TILE_SIZE);
+        for (int y = 0; y < rows; y++) {
+            System.arraycopy(src, y * width, dst, offset + y * scanline, cols);
+        }
+    }
+}
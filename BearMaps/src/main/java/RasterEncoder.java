@@ -0,0 +1,18 @@
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Encodes a finished raster into the bytes sent to the client.
+ */
+public interface RasterEncoder {
+    /**
+     * @return The MIME type of the encoded image, e.g. "image/png".
+     */
+    String contentType();
+
+    /**
+     * Writes the encoded image to os. Does not close os.
+     */
+    void encode(BufferedImage image, OutputStream os) throws IOException;
+}
@@ -0,0 +1,265 @@
+import java.util.Arrays;
+
+/**
+ * Immutable road graph in compressed sparse row form. Nodes are dense int indices in order of
+ * OSM id; the edges leaving node v are targets[offsets[v]] through targets[offsets[v + 1] - 1],
+ * with their lengths at the same positions of weights. Roads are two-way, so every edge is
+ * stored once in each direction.
+ * Compared to one object per node with a list of neighbors, this takes a few dozen bytes per
+ * node and lets searches walk flat arrays.
+ */
+public class RoadGraph {
+    private final long[] osmIds;
+    private final double[] lats, lons;
+    private final int[] offsets;
+    private final int[] targets;
+    private final double[] weights;
+
+    RoadGraph(long[] osmIds, double[] lats, double[] lons, int[] offsets, int[] targets,
+              double[] weights) {
+        this.osmIds = osmIds;
+        this.lats = lats;
+        this.lons = lons;
+        this.offsets = offsets;
+        this.targets = targets;
+        this.weights = weights;
+    }
+
+    /**
+     * Euclidean distance between two points, in degrees. This is the metric routes are
+     * measured in.
+     */
+    public static double distance(double lat1, double lon1, double lat2, double lon2) {
+        double dLat = lat1 - lat2;
+        double dLon = lon1 - lon2;
+        return Math.sqrt(dLat * dLat + dLon * dLon);
+    }
+
+    public double distance(int u, int v) {
+        return distance(lats[u], lons[u], lats[v], lons[v]);
+    }
+
+    /**
+     * @return The number of nodes.
+     */
+    public int size() {
+        return osmIds.length;
+    }
+
+    /**
+     * @return The number of directed edges, twice the number of road segments.
+     */
+    public int edgeCount() {
+        return targets.length;
+    }
+
+    public long osmId(int v) {
+        return osmIds[v];
+    }
+
+    public double lat(int v) {
+        return lats[v];
+    }
+
+    public double lon(int v) {
+        return lons[v];
+    }
+
+    /**
+     * @return The index of node v's first edge.
+     */
+    public int firstEdge(int v) {
+        return offsets[v];
+    }
+
+    /**
+     * @return One past the index of node v's last edge.
+     */
+    public int endEdge(int v) {
+        return offsets[v + 1];
+    }
+
+    public int target(int edge) {
+        return targets[edge];
+    }
+
+    public double weight(int edge) {
+        return weights[edge];
+    }
+
+    /**
+     * @return The index of the node with this OSM id, or -1 if it is not in the graph.
+     */
+    public int indexOf(long osmId) {
+        int i = Arrays.binarySearch(osmIds, osmId);
+        return i >= 0 ? i : -1;
+    }
+
+    /**
+     * @return A hash of the nodes, their positions and the edges, for telling whether data
+     * precomputed from a graph still matches it.
+     */
+    public long checksum() {
+        long h = osmIds.length * 31L + targets.length;
+        for (int v = 0; v < osmIds.length; v++) {
+            h = mix(h, osmIds[v]);
+            h = mix(h, Double.doubleToLongBits(lats[v]));
+            h = mix(h, Double.doubleToLongBits(lons[v]));
+            h = mix(h, offsets[v]);
+        }
+        for (int target : targets) {
+            h = mix(h, target);
+        }
+        return h;
+    }
+
+    private static long mix(long h, long value) {
+        h ^= value;
+        h *= 0x100000001B3L;
+        return h ^ (h >>> 29);
+    }
+
+    /**
+     * @return The approximate heap footprint of the arrays, in bytes.
+     */
+    public long bytes() {
+        return osmIds.length * 8L + lats.length * 8L + lons.length * 8L
+                + offsets.length * 4L + targets.length * 4L + weights.length * 8L;
+    }
+
+    @Override
+    public String toString() {
+        return "RoadGraph{"
+                + "nodes=" + size()
+                + ", edges=" + edgeCount()
+                + ", megabytes=" + bytes() / (1024 * 1024)
+                + '}';
+    }
+
+    /**
+     * Collects nodes and road segments by OSM id, in any order, and packs them into a graph.
+     * Not thread-safe.
+     */
+    public static class Builder {
+        private final LongIntHashMap slots = new LongIntHashMap(1 << 16);
+        private double[] nodeLats = new double[1 << 16];
+        private double[] nodeLons = new double[1 << 16];
+        private long[] edges = new long[1 << 16];
+        private int edgeLength;
+
+        /**
+         * Records a node's position. A node added twice keeps its last position.
+         */
+        public void addNode(long osmId, double lat, double lon) {
+            int slot = slots.get(osmId);
+            if (slot < 0) {
+                slot = slots.size();
+                slots.put(osmId, slot);
+                if (slot == nodeLats.length) {
+                    nodeLats = Arrays.copyOf(nodeLats, slot * 2);
+                    nodeLons = Arrays.copyOf(nodeLons, slot * 2);
+                }
+            }
+            nodeLats[slot] = lat;
+            nodeLons[slot] = lon;
+        }
+
+        /**
+         * Records a two-way road segment between two nodes. The nodes may be added before or
+         * after their segments.
+         */
+        public void addEdge(long from, long to) {
+            if (edgeLength + 2 > edges.length) {
+                edges = Arrays.copyOf(edges, edges.length * 2);
+            }
+            edges[edgeLength++] = from;
+            edges[edgeLength++] = to;
+        }
+
+        /**
+         * Packs the graph. Only nodes on at least one segment are kept: while that does not
+         * guarantee the remaining graph is connected, roads typically are. Segments referring to
+         * nodes that were never added, loops and repeated segments are dropped.
+         */
+        public RoadGraph build() {
+            boolean[] used = new boolean[slots.size()];
+            int[] ends = new int[edgeLength];
+            for (int i = 0; i < edgeLength; i += 2) {
+                int a = slots.get(edges[i]);
+                int b = slots.get(edges[i + 1]);
+                if (a < 0 || b < 0 || a == b) {
+                    ends[i] = -1;
+                    continue;
+                }
+                ends[i] = a;
+                ends[i + 1] = b;
+                used[a] = true;
+                used[b] = true;
+            }
+
+            long[] ids = slots.keys();
+            int n = 0;
+            for (long id : ids) {
+                if (used[slots.get(id)]) {
+                    ids[n++] = id;
+                }
+            }
+            long[] osmIds = Arrays.copyOf(ids, n);
+            Arrays.sort(osmIds);
+            int[] indexOfSlot = new int[used.length];
+            double[] lats = new double[n];
+            double[] lons = new double[n];
+            for (int v = 0; v < n; v++) {
+                int slot = slots.get(osmIds[v]);
+                indexOfSlot[slot] = v;
+                lats[v] = nodeLats[slot];
+                lons[v] = nodeLons[slot];
+            }
+
+            int[] offsets = new int[n + 1];
+            for (int i = 0; i < edgeLength; i += 2) {
+                if (ends[i] >= 0) {
+                    offsets[indexOfSlot[ends[i]] + 1] += 1;
+                    offsets[indexOfSlot[ends[i + 1]] + 1] += 1;
+                }
+            }
+            for (int v = 0; v < n; v++) {
+                offsets[v + 1] += offsets[v];
+            }
+            int[] targets = new int[offsets[n]];
+            int[] cursor = Arrays.copyOf(offsets, n);
+            for (int i = 0; i < edgeLength; i += 2) {
+                if (ends[i] >= 0) {
+                    int a = indexOfSlot[ends[i]];
+                    int b = indexOfSlot[ends[i + 1]];
+                    targets[cursor[a]++] = b;
+                    targets[cursor[b]++] = a;
+                }
+            }
+
+            /* Sort each node's targets and squeeze out repeats in place. */
+            int length = 0;
+            for (int v = 0; v < n; v++) {
+                int from = offsets[v];
+                int to = offsets[v + 1];
+                Arrays.sort(targets, from, to);
+                offsets[v] = length;
+                for (int e = from; e < to; e++) {
+                    if (e == from || targets[e] != targets[e - 1]) {
+                        targets[length++] = targets[e];
+                    }
+                }
+            }
+            offsets[n] = length;
+            targets = Arrays.copyOf(targets, length);
+
+            double[] weights = new double[length];
+            for (int v = 0; v < n; v++) {
+                for (int e = offsets[v]; e < offsets[v + 1]; e++) {
+                    weights[e] = distance(lats[v], lons[v], lats[targets[e]], lons[targets[e]]);
+                }
+            }
+            return new RoadGraph(osmIds, lats, lons, offsets, targets, weights);
+        }
+    }
+}
@@ -0,0 +1,104 @@
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * An immutable found route: the coordinates and OSM ids of its nodes, in order, plus a version
+ * stamp unique to this route so rasters drawn with it can be cached and invalidated.
+ */
+public class Route {
+    private static final AtomicLong VERSIONS = new AtomicLong();
+    /**
+     * No route; its version is 0.
+     */
+    public static final Route EMPTY = new Route(0, new long[0], new double[0], new double[0]);
+
+    private final long version;
+    private final long[] ids;
+    private final double[] lats, lons;
+    private final double minLat, minLon, maxLat, maxLon;
+    /* Built on first use per depth. Two threads may both build one; they are equal and
+     * immutable, so either may win. */
+    private final RouteOverlay[] overlays = new RouteOverlay[TileIndex.MAX_DEPTH + 1];
+
+    private Route(long version, long[] ids, double[] lats, double[] lons) {
+        this.version = version;
+        this.ids = ids;
+        this.lats = lats;
+        this.lons = lons;
+        double minLat = Double.POSITIVE_INFINITY, minLon = Double.POSITIVE_INFINITY;
+        double maxLat = Double.NEGATIVE_INFINITY, maxLon = Double.NEGATIVE_INFINITY;
+        for (int i = 0; i < ids.length; i++) {
+            minLat = Math.min(minLat, lats[i]);
+            maxLat = Math.max(maxLat, lats[i]);
+            minLon = Math.min(minLon, lons[i]);
+            maxLon = Math.max(maxLon, lons[i]);
+        }
+        this.minLat = minLat;
+        this.minLon = minLon;
+        this.maxLat = maxLat;
+        this.maxLon = maxLon;
+    }
+
+    /**
+     * @param roads The graph the path was found in.
+     * @param path  Node indices of the route from start to end.
+     * @return A route with a fresh version.
+     */
+    public static Route of(RoadGraph roads, int[] path) {
+        long[] ids = new long[path.length];
+        double[] lats = new double[path.length];
+        double[] lons = new double[path.length];
+        for (int i = 0; i < path.length; i++) {
+            ids[i] = roads.osmId(path[i]);
+            lats[i] = roads.lat(path[i]);
+            lons[i] = roads.lon(path[i]);
+        }
+        return new Route(VERSIONS.incrementAndGet(), ids, lats, lons);
+    }
+
+    public long version() {
+        return version;
+    }
+
+    public int size() {
+        return ids.length;
+    }
+
+    public boolean isEmpty() {
+        return ids.length == 0;
+    }
+
+    public long id(int i) {
+        return ids[i];
+    }
+
+    public double lat(int i) {
+        return lats[i];
+    }
+
+    public double lon(int i) {
+        return lons[i];
+    }
+
+    /**
+     * @return The route simplified and projected for the rasters of a depth.
+     */
+    public RouteOverlay overlay(TileIndex tiles, int depth) {
+        RouteOverlay overlay = overlays[depth];
+        if (overlay == null) {
+            overlay = new RouteOverlay(this, tiles.lonPerPixel(depth), tiles.latPerPixel(depth));
+            overlays[depth] = overlay;
+        }
+        return overlay;
+    }
+
+    /**
+     * Whether any part of the route's bounding box, grown by the given margins, overlaps the
+     * box. Used to tell which rasters a route can be drawn on.
+     */
+    public boolean intersects(double ullat, double ullon, double lrlat, double lrlon,
+                              double marginLat, double marginLon) {
+        return !isEmpty()
+                && minLon - marginLon <= lrlon && maxLon + marginLon >= ullon
+                && minLat - marginLat <= ullat && maxLat + marginLat >= lrlat;
+    }
+}
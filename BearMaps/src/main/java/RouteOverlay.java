@@ -0,0 +1,127 @@
+import java.awt.Graphics2D;
+import java.util.Arrays;
+
+/**
+ * A route as drawn on the rasters of one depth: simplified with Douglas-Peucker and projected
+ * to that depth's pixels, x = lon / lonPerPixel and y = -lat / latPerPixel. A hierarchy of
+ * bounding boxes over runs of consecutive segments lets a raster draw only the segments that
+ * reach into it, so a long route seen up close costs what its visible part does.
+ * Immutable once built.
+ */
+public class RouteOverlay {
+    /**
+     * Route points closer than this many pixels to the line through their neighbours are left
+     * out.
+     */
+    public static final double TOLERANCE_PX = 0.5;
+    /* Segments per leaf of the box hierarchy. */
+    private static final int BLOCK = 8;
+
+    private final int[] kept;
+    private final double[] xs, ys;
+    private final int leaves;
+    /* Boxes of a complete binary tree, node i's children at 2i and 2i + 1 and leaf b at
+     * leaves + b; empty leaves hold an inverted box. */
+    private final double[] minX, minY, maxX, maxY;
+
+    RouteOverlay(Route route, double lonPerPixel, double latPerPixel) {
+        double[] allXs = new double[route.size()];
+        double[] allYs = new double[route.size()];
+        for (int i = 0; i < route.size(); i++) {
+            allXs[i] = route.lon(i) / lonPerPixel;
+            allYs[i] = -route.lat(i) / latPerPixel;
+        }
+        kept = Polyline.simplify(allXs, allYs, TOLERANCE_PX);
+        xs = new double[kept.length];
+        ys = new double[kept.length];
+        for (int k = 0; k < kept.length; k++) {
+            xs[k] = allXs[kept[k]];
+            ys[k] = allYs[kept[k]];
+        }
+
+        int blocks = (segments() + BLOCK - 1) / BLOCK;
+        leaves = Integer.highestOneBit(Math.max(1, blocks - 1)) << 1;
+        minX = new double[2 * leaves];
+        minY = new double[2 * leaves];
+        maxX = new double[2 * leaves];
+        maxY = new double[2 * leaves];
+        Arrays.fill(minX, Double.POSITIVE_INFINITY);
+        Arrays.fill(minY, Double.POSITIVE_INFINITY);
+        Arrays.fill(maxX, Double.NEGATIVE_INFINITY);
+        Arrays.fill(maxY, Double.NEGATIVE_INFINITY);
+        for (int s = 0; s < segments(); s++) {
+            int leaf = leaves + s / BLOCK;
+            for (int k = s; k <= s + 1; k++) {
+                minX[leaf] = Math.min(minX[leaf], xs[k]);
+                minY[leaf] = Math.min(minY[leaf], ys[k]);
+                maxX[leaf] = Math.max(maxX[leaf], xs[k]);
+                maxY[leaf] = Math.max(maxY[leaf], ys[k]);
+            }
+        }
+        for (int i = leaves - 1; i > 0; i--) {
+            minX[i] = Math.min(minX[2 * i], minX[2 * i + 1]);
+            minY[i] = Math.min(minY[2 * i], minY[2 * i + 1]);
+            maxX[i] = Math.max(maxX[2 * i], maxX[2 * i + 1]);
+            maxY[i] = Math.max(maxY[2 * i], maxY[2 * i + 1]);
+        }
+    }
+
+    /**
+     * @return The indices of the route's points drawn at this depth, ascending.
+     */
+    public int[] kept() {
+        return kept;
+    }
+
+    public int segments() {
+        return Math.max(0, kept.length - 1);
+    }
+
+    /**
+     * Draws the segments that come within margin pixels of a raster, in the raster's pixels.
+     *
+     * @param x0     The raster's left edge, in this overlay's x.
+     * @param y0     The raster's top edge, in this overlay's y.
+     * @param margin How far outside the raster a segment may lie and still mark it, like half
+     *               the stroke width.
+     * @return The number of segments drawn.
+     */
+    public int draw(Graphics2D g, double x0, double y0, int width, int height, double margin) {
+        if (segments() == 0) {
+            return 0;
+        }
+        double left = x0 - margin;
+        double top = y0 - margin;
+        double right = x0 + width + margin;
+        double bottom = y0 + height + margin;
+        int drawn = 0;
+        int[] stack = new int[64];
+        int size = 0;
+        stack[size++] = 1;
+        while (size > 0) {
+            int node = stack[--size];
+            if (minX[node] > right || maxX[node] < left
+                    || minY[node] > bottom || maxY[node] < top) {
+                continue;
+            }
+            if (node < leaves) {
+                stack[size++] = 2 * node + 1;
+                stack[size++] = 2 * node;
+                continue;
+            }
+            int first = (node - leaves) * BLOCK;
+            int end = Math.min(segments(), first + BLOCK);
+            for (int s = first; s < end; s++) {
+                if (Math.min(xs[s], xs[s + 1]) > right || Math.max(xs[s], xs[s + 1]) < left
+                        || Math.min(ys[s], ys[s + 1]) > bottom
+                        || Math.max(ys[s], ys[s + 1]) < top) {
+                    continue;
+                }
+                g.drawLine((int) (xs[s] - x0), (int) (ys[s] - y0),
+                        (int) (xs[s + 1] - x0), (int) (ys[s + 1] - y0));
+                drawn += 1;
+            }
+        }
+        return drawn;
+    }
+}
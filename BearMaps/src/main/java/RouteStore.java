@@ -0,0 +1,166 @@
+import java.security.SecureRandom;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.LongSupplier;
+
+/**
+ * Thread-safe store of found routes by random id, so each client draws and clears its own
+ * route. Routes are immutable, and looking one up takes no lock, so rasters for different
+ * clients render in parallel.
+ * A route expires once it has not been used for the time to live. When more than maxRoutes
+ * are stored, the least recently used ones are dropped.
+ */
+public class RouteStore {
+    private static final SecureRandom IDS = new SecureRandom();
+
+    private final int maxRoutes;
+    private final long ttlMillis;
+    private final LongSupplier clock;
+    private final ConcurrentHashMap<String, Entry> routes = new ConcurrentHashMap<>();
+    private final AtomicLong lastSweep = new AtomicLong();
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong expirations = new AtomicLong();
+    private final AtomicLong evictions = new AtomicLong();
+
+    private static class Entry {
+        final Route route;
+        volatile long lastUsed;
+
+        Entry(Route route, long lastUsed) {
+            this.route = route;
+            this.lastUsed = lastUsed;
+        }
+    }
+
+    /**
+     * @param maxRoutes Upper bound on the number of routes kept.
+     * @param ttlMillis How long a route is kept after it was last stored or looked up.
+     */
+    public RouteStore(int maxRoutes, long ttlMillis) {
+        this(maxRoutes, ttlMillis, System::currentTimeMillis);
+    }
+
+    RouteStore(int maxRoutes, long ttlMillis, LongSupplier clock) {
+        this.maxRoutes = Math.max(1, maxRoutes);
+        this.ttlMillis = ttlMillis;
+        this.clock = clock;
+        lastSweep.set(clock.getAsLong());
+    }
+
+    /**
+     * Stores a route under a new id.
+     *
+     * @return The id, 16 hex digits.
+     */
+    public String put(Route route) {
+        long now = clock.getAsLong();
+        String id;
+        do {
+            id = String.format("%016x", IDS.nextLong());
+        } while (routes.putIfAbsent(id, new Entry(route, now)) != null);
+        long last = lastSweep.get();
+        if (now - last >= ttlMillis / 4 && lastSweep.compareAndSet(last, now)) {
+            sweep(now);
+        }
+        if (routes.size() > maxRoutes) {
+            evict();
+        }
+        return id;
+    }
+
+    /**
+     * @return The route stored under id, or null if there is none or it has expired.
+     */
+    public Route get(String id) {
+        Entry entry = id == null ? null : routes.get(id);
+        long now = clock.getAsLong();
+        if (entry != null && now - entry.lastUsed > ttlMillis) {
+            if (routes.remove(id, entry)) {
+                expirations.incrementAndGet();
+            }
+            entry = null;
+        }
+        if (entry == null) {
+            misses.incrementAndGet();
+            return null;
+        }
+        entry.lastUsed = now;
+        hits.incrementAndGet();
+        return entry.route;
+    }
+
+    /**
+     * Forgets the route stored under id, if there is one.
+     */
+    public void remove(String id) {
+        if (id != null) {
+            routes.remove(id);
+        }
+    }
+
+    public int size() {
+        return routes.size();
+    }
+
+    private void sweep(long now) {
+        for (Map.Entry<String, Entry> e : routes.entrySet()) {
+            if (now - e.getValue().lastUsed > ttlMillis
+                    && routes.remove(e.getKey(), e.getValue())) {
+                expirations.incrementAndGet();
+            }
+        }
+    }
+
+    /**
+     * Drops the least recently used routes until an eighth of the capacity is free, so a full
+     * store scans its routes once per maxRoutes / 8 insertions rather than on each one.
+     */
+    private synchronized void evict() {
+        int excess = routes.size() - (maxRoutes - maxRoutes / 8);
+        if (excess <= 0) {
+            return;
+        }
+        /* Lookups keep updating lastUsed, so sort a copy of the times rather than the live
+         * entries, whose order could change under the sort. */
+        List<Map.Entry<String, Entry>> entries = new ArrayList<>(routes.entrySet());
+        long[] lastUsed = new long[entries.size()];
+        Integer[] order = new Integer[entries.size()];
+        for (int i = 0; i < order.length; i++) {
+            lastUsed[i] = entries.get(i).getValue().lastUsed;
+            order[i] = i;
+        }
+        Arrays.sort(order, (a, b) -> Long.compare(lastUsed[a], lastUsed[b]));
+        for (int i = 0; i < excess && i < order.length; i++) {
+            Map.Entry<String, Entry> e = entries.get(order[i]);
+            if (routes.remove(e.getKey(), e.getValue())) {
+                evictions.incrementAndGet();
+            }
+        }
+    }
+
+    /**
+     * @return The counters and current size, for the stats endpoint.
+     */
+    public Map<String, Object> stats() {
+        Map<String, Object> stats = new HashMap<>();
+        stats.put("routes", size());
+        stats.put("max_routes", maxRoutes);
+        stats.put("ttl_ms", ttlMillis);
+        stats.put("hits", hits.get());
+        stats.put("misses", misses.get());
+        stats.put("expirations", expirations.get());
+        stats.put("evictions", evictions.get());
+        return stats;
+    }
+
+    @Override
+    public String toString() {
+        return "RouteStore" + stats();
+    }
+}
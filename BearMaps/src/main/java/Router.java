@@ -0,0 +1,26 @@
+import java.util.Map;
+
+/**
+ * Finds shortest routes in a RoadGraph. Implementations must be safe to call from many request
+ * threads at once and must not modify the graph.
+ */
+public interface Router {
+    /**
+     * @param start Index of the first node.
+     * @param end   Index of the last node.
+     * @return The node indices of a shortest path from start to end, inclusive, or an empty
+     * array if end cannot be reached.
+     */
+    int[] shortestPath(int start, int end);
+
+    /**
+     * @return The number of nodes settled by the calling thread's last search, the usual
+     * measure for comparing search algorithms.
+     */
+    int lastSettledCount();
+
+    /**
+     * @return Totals over all searches, for the stats endpoint.
+     */
+    Map<String, Object> stats();
+}
@@ -0,0 +1,34 @@
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Running totals of a Router's searches.
+ */
+class RouterStats {
+    private final String algorithm;
+    private final AtomicLong searches = new AtomicLong();
+    private final AtomicLong settled = new AtomicLong();
+    private final AtomicLong nanos = new AtomicLong();
+
+    RouterStats(String algorithm) {
+        this.algorithm = algorithm;
+    }
+
+    void record(int settledCount, long elapsedNanos) {
+        searches.incrementAndGet();
+        settled.addAndGet(settledCount);
+        nanos.addAndGet(elapsedNanos);
+    }
+
+    Map<String, Object> toMap() {
+        long n = searches.get();
+        Map<String, Object> stats = new HashMap<>();
+        stats.put("algorithm", algorithm);
+        stats.put("searches", n);
+        stats.put("settled", settled.get());
+        stats.put("mean_settled", n == 0 ? 0 : (double) settled.get() / n);
+        stats.put("mean_ms", n == 0 ? 0 : nanos.get() / 1e6 / n);
+        return stats;
+    }
+}
@@ -0,0 +1,88 @@
+import java.util.Arrays;
+
+/**
+ * Scratch arrays for one shortest path search over a RoadGraph, meant to be reused by one
+ * thread for search after search. Entries are only valid for nodes stamped with the current
+ * generation, so starting a new search is O(1) instead of refilling arrays the size of the
+ * graph.
+ */
+class SearchState {
+    final double[] dist;
+    final int[] prev;
+    /* A per-node value a search wants to remember, such as its heuristic. */
+    final double[] cached;
+    final NodeHeap heap;
+    private final int[] reached;
+    private final int[] settled;
+    private int generation;
+    private int settledCount;
+
+    SearchState(int size) {
+        dist = new double[size];
+        prev = new int[size];
+        cached = new double[size];
+        heap = new NodeHeap(size);
+        reached = new int[size];
+        settled = new int[size];
+    }
+
+    /**
+     * Forgets the previous search.
+     */
+    void reset() {
+        heap.clear();
+        settledCount = 0;
+        generation += 1;
+        if (generation == Integer.MAX_VALUE) {
+            Arrays.fill(reached, 0);
+            Arrays.fill(settled, 0);
+            generation = 1;
+        }
+    }
+
+    boolean isReached(int v) {
+        return reached[v] == generation;
+    }
+
+    /**
+     * Records a tentative distance to v through prev.
+     */
+    void reach(int v, double distance, int previous) {
+        reached[v] = generation;
+        dist[v] = distance;
+        prev[v] = previous;
+    }
+
+    boolean isSettled(int v) {
+        return settled[v] == generation;
+    }
+
+    void settle(int v) {
+        settled[v] = generation;
+        settledCount += 1;
+    }
+
+    /**
+     * @return The number of nodes settled since the last reset.
+     */
+    int settledCount() {
+        return settledCount;
+    }
+
+    /**
+     * Follows predecessors from end back to the node whose predecessor is -1.
+     *
+     * @return The node indices from that node to end.
+     */
+    int[] pathTo(int end) {
+        int length = 0;
+        for (int v = end; v >= 0; v = prev[v]) {
+            length += 1;
+        }
+        int[] path = new int[length];
+        for (int v = end, i = length - 1; i >= 0; v = prev[v], i--) {
+            path[i] = v;
+        }
+        return path;
+    }
+}
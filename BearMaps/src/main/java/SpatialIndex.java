@@ -0,0 +1,266 @@
+import java.util.Arrays;
+
+/**
+ * Static 2-d tree over the nodes of a RoadGraph, for snapping points to the road network.
+ * The tree is implicit: the nodes are permuted so that each range's median splits it, on
+ * longitude and latitude in turn, so it takes three flat arrays and no node objects.
+ * Distances are euclidean in degrees, as everywhere in routing, and are compared squared.
+ */
+public class SpatialIndex {
+    private final int[] nodes;
+    private final double[] lons, lats;
+
+    public SpatialIndex(RoadGraph roads) {
+        int n = roads.size();
+        nodes = new int[n];
+        lons = new double[n];
+        lats = new double[n];
+        for (int v = 0; v < n; v++) {
+            nodes[v] = v;
+            lons[v] = roads.lon(v);
+            lats[v] = roads.lat(v);
+        }
+        build(0, n, true);
+    }
+
+    /**
+     * Rebuilds an index from the node order of one built for the same graph.
+     */
+    SpatialIndex(RoadGraph roads, int[] order) {
+        nodes = order;
+        lons = new double[order.length];
+        lats = new double[order.length];
+        for (int i = 0; i < order.length; i++) {
+            lons[i] = roads.lon(order[i]);
+            lats[i] = roads.lat(order[i]);
+        }
+    }
+
+    /**
+     * @return The nodes in tree order, which is all it takes to rebuild the index. Not a copy.
+     */
+    int[] order() {
+        return nodes;
+    }
+
+    private void build(int lo, int hi, boolean byLon) {
+        if (hi - lo <= 1) {
+            return;
+        }
+        int mid = (lo + hi) >>> 1;
+        select(lo, hi - 1, mid, byLon ? lons : lats);
+        build(lo, mid, !byLon);
+        build(mid + 1, hi, !byLon);
+    }
+
+    /* Quickselect: moves the k-th smallest key of [lo, hi] to k, smaller ones before it. */
+    private void select(int lo, int hi, int k, double[] keys) {
+        while (hi > lo) {
+            double pivot = keys[(lo + hi) >>> 1];
+            int i = lo;
+            int j = hi;
+            while (i <= j) {
+                while (keys[i] < pivot) {
+                    i++;
+                }
+                while (keys[j] > pivot) {
+                    j--;
+                }
+                if (i <= j) {
+                    swap(i++, j--);
+                }
+            }
+            if (k <= j) {
+                hi = j;
+            } else if (k >= i) {
+                lo = i;
+            } else {
+                return;
+            }
+        }
+    }
+
+    private void swap(int i, int j) {
+        int node = nodes[i];
+        nodes[i] = nodes[j];
+        nodes[j] = node;
+        double lon = lons[i];
+        lons[i] = lons[j];
+        lons[j] = lon;
+        double lat = lats[i];
+        lats[i] = lats[j];
+        lats[j] = lat;
+    }
+
+    public int size() {
+        return nodes.length;
+    }
+
+    /**
+     * @return The node closest to the point, the lowest index on ties, or -1 if there are no
+     * nodes.
+     */
+    public int nearest(double lat, double lon) {
+        int[] found = nearest(lat, lon, 1);
+        return found.length == 0 ? -1 : found[0];
+    }
+
+    /**
+     * @return The k nodes closest to the point, closest first, or every node if there are
+     * fewer than k.
+     */
+    public int[] nearest(double lat, double lon, int k) {
+        Nearest best = new Nearest(Math.min(k, nodes.length));
+        if (best.capacity > 0) {
+            nearest(0, nodes.length, true, lat, lon, best);
+        }
+        return best.sorted();
+    }
+
+    private void nearest(int lo, int hi, boolean byLon, double lat, double lon, Nearest best) {
+        if (lo >= hi) {
+            return;
+        }
+        int mid = (lo + hi) >>> 1;
+        best.offer(nodes[mid], squared(lat - lats[mid], lon - lons[mid]));
+        double delta = byLon ? lon - lons[mid] : lat - lats[mid];
+        /* Search the side of the split the point is on first; it usually holds the answer. */
+        if (delta < 0) {
+            nearest(lo, mid, !byLon, lat, lon, best);
+            if (delta * delta <= best.bound()) {
+                nearest(mid + 1, hi, !byLon, lat, lon, best);
+            }
+        } else {
+            nearest(mid + 1, hi, !byLon, lat, lon, best);
+            if (delta * delta <= best.bound()) {
+                nearest(lo, mid, !byLon, lat, lon, best);
+            }
+        }
+    }
+
+    /**
+     * @return Every node within radius of the point, in no particular order.
+     */
+    public int[] withinRadius(double lat, double lon, double radius) {
+        Within found = new Within(radius * radius);
+        within(0, nodes.length, true, lat, lon, found);
+        return Arrays.copyOf(found.nodes, found.size);
+    }
+
+    private void within(int lo, int hi, boolean byLon, double lat, double lon, Within found) {
+        if (lo >= hi) {
+            return;
+        }
+        int mid = (lo + hi) >>> 1;
+        if (squared(lat - lats[mid], lon - lons[mid]) <= found.bound) {
+            found.add(nodes[mid]);
+        }
+        double delta = byLon ? lon - lons[mid] : lat - lats[mid];
+        if (delta < 0 || delta * delta <= found.bound) {
+            within(lo, mid, !byLon, lat, lon, found);
+        }
+        if (delta >= 0 || delta * delta <= found.bound) {
+            within(mid + 1, hi, !byLon, lat, lon, found);
+        }
+    }
+
+    private static double squared(double dLat, double dLon) {
+        return dLat * dLat + dLon * dLon;
+    }
+
+    /**
+     * The k best nodes seen so far, as a max-heap on squared distance so the worst is at the
+     * root and is the one replaced.
+     */
+    private static class Nearest {
+        final int capacity;
+        final int[] nodes;
+        final double[] dists;
+        int size;
+
+        Nearest(int capacity) {
+            this.capacity = capacity;
+            this.nodes = new int[capacity];
+            this.dists = new double[capacity];
+        }
+
+        /* Squared distance a subtree must be within to hold a better node. */
+        double bound() {
+            return size < capacity ? Double.POSITIVE_INFINITY : dists[0];
+        }
+
+        void offer(int node, double dist) {
+            if (size < capacity) {
+                int i = size++;
+                while (i > 0 && ranksAfter(dist, node, dists[(i - 1) / 2], nodes[(i - 1) / 2])) {
+                    nodes[i] = nodes[(i - 1) / 2];
+                    dists[i] = dists[(i - 1) / 2];
+                    i = (i - 1) / 2;
+                }
+                nodes[i] = node;
+                dists[i] = dist;
+            } else if (ranksAfter(dists[0], nodes[0], dist, node)) {
+                siftDown(node, dist);
+            }
+        }
+
+        /* Replaces the root, the worst entry, and restores the heap order. */
+        private void siftDown(int node, double dist) {
+            int i = 0;
+            while (true) {
+                int child = 2 * i + 1;
+                if (child >= size) {
+                    break;
+                }
+                if (child + 1 < size && ranksAfter(dists[child + 1], nodes[child + 1],
+                        dists[child], nodes[child])) {
+                    child += 1;
+                }
+                if (!ranksAfter(dists[child], nodes[child], dist, node)) {
+                    break;
+                }
+                nodes[i] = nodes[child];
+                dists[i] = dists[child];
+                i = child;
+            }
+            nodes[i] = node;
+            dists[i] = dist;
+        }
+
+        /* Farther ranks after nearer, and a higher index after a lower one at equal distance. */
+        private static boolean ranksAfter(double dist1, int node1, double dist2, int node2) {
+            return dist1 > dist2 || dist1 == dist2 && node1 > node2;
+        }
+
+        /* Empties the heap, worst first, into an array sorted closest first. */
+        int[] sorted() {
+            int[] result = new int[size];
+            while (size > 0) {
+                result[size - 1] = nodes[0];
+                size -= 1;
+                siftDown(nodes[size], dists[size]);
+            }
+            return result;
+        }
+    }
+
+    /**
+     * Nodes found by a radius query.
+     */
+    private static class Within {
+        final double bound;
+        int[] nodes = new int[16];
+        int size;
+
+        Within(double bound) {
+            this.bound = bound;
+        }
+
+        void add(int node) {
+            if (size == nodes.length) {
+                nodes = Arrays.copyOf(nodes, size * 2);
+            }
+            nodes[size++] = node;
+        }
+    }
+}
@@ -0,0 +1,132 @@
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+import java.util.stream.IntStream;
+import javax.imageio.ImageIO;
+
+/**
+ * Every tile up to some depth decoded once into raw TYPE_INT_RGB pixels held off-heap, so
+ * RasterComposer can copy scanlines without touching the heap-side TileCache.
+ * Pixels are stored per slot (see TileIndex.slot) in direct buffers of TILES_PER_CHUNK tiles,
+ * since the full set is larger than a single buffer can address.
+ * Direct memory is limited by -XX:MaxDirectMemorySize, which defaults to the heap size.
+ */
+public class TileAtlas {
+    private static final int TILE_PIXELS = MapServer.TILE_SIZE * MapServer.TILE_SIZE;
+    /* 4096 tiles of 256 x 256 ints is 1 GiB per chunk. */
+    private static final int TILES_PER_CHUNK = 4096;
+
+    private final int maxDepth;
+    private final IntBuffer[] chunks;
+    private final boolean[] present;
+    private final int tileCount;
+
+    private TileAtlas(int maxDepth, IntBuffer[] chunks, boolean[] present) {
+        this.maxDepth = maxDepth;
+        this.chunks = chunks;
+        this.present = present;
+        int count = 0;
+        for (boolean p : present) {
+            count += p ? 1 : 0;
+        }
+        this.tileCount = count;
+    }
+
+    /**
+     * Decodes every tile of depth 1 through maxDepth from source. Tiles that are missing from
+     * the source are skipped, and rasters needing them fall back to the regular path.
+     */
+    public static TileAtlas load(TileSource source, int maxDepth) {
+        int slots = TileIndex.firstSlot(maxDepth + 1);
+        IntBuffer[] chunks = new IntBuffer[(slots + TILES_PER_CHUNK - 1) / TILES_PER_CHUNK];
+        for (int i = 0; i < chunks.length; i++) {
+            int tiles = Math.min(TILES_PER_CHUNK, slots - i * TILES_PER_CHUNK);
+            chunks[i] = ByteBuffer.allocateDirect(tiles * TILE_PIXELS * 4)
+                    .order(ByteOrder.nativeOrder()).asIntBuffer();
+        }
+        boolean[] present = new boolean[slots];
+        IntStream.rangeClosed(1, maxDepth).forEach(depth -> {
+            int n = 1 << depth;
+            IntStream.range(0, n * n).parallel().forEach(i -> {
+                int slot = TileIndex.slot(depth, i / n, i % n);
+                String id = TileIndex.tileId(depth, i / n, i % n);
+                BufferedImage tile;
+                try {
+                    tile = ImageIO.read(new ByteBufferInputStream(source.read(id)));
+                } catch (IOException e) {
+                    return;
+                }
+                if (tile == null) {
+                    return;
+                }
+                int[] pixels = ((DataBufferInt) TileCache.toIntRgb(tile).getRaster()
+                        .getDataBuffer()).getData();
+                IntBuffer chunk = chunks[slot / TILES_PER_CHUNK].duplicate();
+                chunk.position((slot % TILES_PER_CHUNK) * TILE_PIXELS);
+                chunk.put(pixels);
+                present[slot] = true;
+            });
+        });
+        return new TileAtlas(maxDepth, chunks, present);
+    }
+
+    /**
+     * @return Whether every tile of the grid is in the atlas.
+     */
+    public boolean covers(TileGrid grid) {
+        if (grid.depth() > maxDepth) {
+            return false;
+        }
+        for (QTreeNode tile : grid.tiles()) {
+            if (!present[TileIndex.slot(tile.getID())]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Copies one tile into a TYPE_INT_RGB pixel array.
+     *
+     * @param id       Quadtree id of a tile the atlas covers.
+     * @param dst      Destination pixels, row-major.
+     * @param offset   Index in dst of the tile's upper left pixel.
+     * @param scanline Width in pixels of the destination image.
+     */
+    public void copyTile(String id, int[] dst, int offset, int scanline) {
+        int slot = TileIndex.slot(id);
+        IntBuffer src = chunks[slot / TILES_PER_CHUNK].duplicate();
+        int start = (slot % TILES_PER_CHUNK) * TILE_PIXELS;
+        for (int row = 0; row < MapServer.TILE_SIZE; row++) {
+            src.position(start + row * MapServer.TILE_SIZE);
+            src.get(dst, offset + row * scanline, MapServer.TILE_SIZE);
+        }
+    }
+
+    public int tileCount() {
+        return tileCount;
+    }
+
+    /**
+     * @return Off-heap bytes reserved for pixels, including slots of missing tiles.
+     */
+    public long bytes() {
+        long bytes = 0;
+        for (IntBuffer chunk : chunks) {
+            bytes += chunk.capacity() * 4L;
+        }
+        return bytes;
+    }
+
+    @Override
+    public String toString() {
+        return "TileAtlas{"
+                + "tiles=" + tileCount
+                + ", maxDepth=" + maxDepth
+                + ", megabytes=" + bytes() / (1024 * 1024)
+                + '}';
+    }
+}
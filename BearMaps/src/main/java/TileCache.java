@@ -0,0 +1,149 @@
+import java.awt.Graphics;
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBuffer;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import javax.imageio.ImageIO;
+
+/**
+ * Thread-safe LRU cache of decoded tile images keyed by quadtree id. Capacity is a budget of
+ * pixel bytes rather than an entry count, so deep and shallow tiles are weighed fairly.
+ * Tiles are stored as TYPE_INT_RGB whatever their png color type, so they can be copied
+ * straight into a raster's pixel array.
+ * Decoding happens outside the lock; two threads missing on the same tile at once may both
+ * decode it, and the later insert simply replaces the earlier one.
+ * Cached images are shared between requests and must never be drawn on.
+ */
+public class TileCache {
+    private final TileSource source;
+    private final long maxBytes;
+    private final LinkedHashMap<String, BufferedImage> images =
+            new LinkedHashMap<>(256, 0.75f, true);
+    private long bytes;
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong evictions = new AtomicLong();
+
+    /**
+     * @param source   Where encoded tiles are read from on a miss.
+     * @param maxBytes Upper bound on the total decoded pixel bytes kept in memory.
+     */
+    public TileCache(TileSource source, long maxBytes) {
+        this.source = source;
+        this.maxBytes = maxBytes;
+    }
+
+    /**
+     * Returns the decoded TYPE_INT_RGB tile, reading and decoding it on a miss.
+     *
+     * @param id Quadtree id of the tile.
+     * @throws IOException If the tile could not be read or decoded.
+     */
+    public BufferedImage get(String id) throws IOException {
+        BufferedImage image;
+        synchronized (images) {
+            image = images.get(id);
+        }
+        if (image != null) {
+            hits.incrementAndGet();
+            return image;
+        }
+        misses.incrementAndGet();
+        image = ImageIO.read(new ByteBufferInputStream(source.read(id)));
+        if (image == null) {
+            throw new IOException("Tile " + id + " could not be decoded.");
+        }
+        image = toIntRgb(image);
+        put(id, image);
+        return image;
+    }
+
+    private void put(String id, BufferedImage image) {
+        long size = sizeOf(image);
+        if (size > maxBytes) {
+            return;
+        }
+        synchronized (images) {
+            BufferedImage old = images.put(id, image);
+            if (old != null) {
+                bytes -= sizeOf(old);
+            }
+            bytes += size;
+            Iterator<Map.Entry<String, BufferedImage>> eldest = images.entrySet().iterator();
+            while (bytes > maxBytes && eldest.hasNext()) {
+                bytes -= sizeOf(eldest.next().getValue());
+                eldest.remove();
+                evictions.incrementAndGet();
+            }
+        }
+    }
+
+    /**
+     * Converts a decoded tile to exactly the pixels drawImage would leave in a TYPE_INT_RGB
+     * raster, so copied tiles match drawn ones.
+     */
+    static BufferedImage toIntRgb(BufferedImage tile) {
+        if (tile.getType() == BufferedImage.TYPE_INT_RGB) {
+            return tile;
+        }
+        BufferedImage rgb = new BufferedImage(tile.getWidth(), tile.getHeight(),
+                BufferedImage.TYPE_INT_RGB);
+        Graphics g = rgb.getGraphics();
+        g.drawImage(tile, 0, 0, null);
+        g.dispose();
+        return rgb;
+    }
+
+    /**
+     * Number of bytes backing an image's pixels.
+     */
+    static long sizeOf(BufferedImage image) {
+        DataBuffer buffer = image.getRaster().getDataBuffer();
+        return (long) buffer.getSize() * buffer.getNumBanks()
+                * DataBuffer.getDataTypeSize(buffer.getDataType()) / 8;
+    }
+
+    public long hits() {
+        return hits.get();
+    }
+
+    public long misses() {
+        return misses.get();
+    }
+
+    public long evictions() {
+        return evictions.get();
+    }
+
+    public double hitRate() {
+        long h = hits.get();
+        long total = h + misses.get();
+        return total == 0 ? 0 : (double) h / total;
+    }
+
+    /**
+     * @return The counters and current footprint, for the stats endpoint.
+     */
+    public Map<String, Object> stats() {
+        Map<String, Object> stats = new HashMap<>();
+        synchronized (images) {
+            stats.put("entries", images.size());
+            stats.put("bytes", bytes);
+        }
+        stats.put("max_bytes", maxBytes);
+        stats.put("hits", hits());
+        stats.put("misses", misses());
+        stats.put("evictions", evictions());
+        stats.put("hit_rate", hitRate());
+        return stats;
+    }
+
+    @Override
+    public String toString() {
+        return "TileCache" + stats();
+    }
+}
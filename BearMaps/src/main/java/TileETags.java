@@ -0,0 +1,67 @@
+import java.nio.ByteBuffer;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+/**
+ * Strong HTTP entity tags for tiles, computed once per tile from a SHA-1 of its png bytes and
+ * remembered by slot (see TileIndex.slot).
+ */
+public class TileETags {
+    private static final char[] HEX = "0123456789abcdef".toCharArray();
+    /* Racy single-check: two threads may both hash a tile, but they store equal strings. */
+    private final String[] etags = new String[TileIndex.slotCount()];
+
+    /**
+     * @param id    Quadtree id of a valid tile.
+     * @param bytes The tile's encoded png; its position is not changed.
+     * @return The quoted entity tag, e.g. "\"3f2a...\"".
+     */
+    public String get(String id, ByteBuffer bytes) {
+        int slot = TileIndex.slot(id);
+        String etag = etags[slot];
+        if (etag == null) {
+            etag = hash(bytes);
+            etags[slot] = etag;
+        }
+        return etag;
+    }
+
+    private static String hash(ByteBuffer bytes) {
+        MessageDigest sha1;
+        try {
+            sha1 = MessageDigest.getInstance("SHA-1");
+        } catch (NoSuchAlgorithmException e) {
+            /* Every Java platform is required to support SHA-1. */
+            throw new IllegalStateException(e);
+        }
+        sha1.update(bytes.duplicate());
+        byte[] digest = sha1.digest();
+        StringBuilder etag = new StringBuilder(digest.length * 2 + 2).append('"');
+        for (byte b : digest) {
+            etag.append(HEX[(b >> 4) & 0xF]).append(HEX[b & 0xF]);
+        }
+        return etag.append('"').toString();
+    }
+
+    /**
+     * Whether an If-None-Match header value matches an entity tag. Uses the weak comparison
+     * RFC 7232 specifies for If-None-Match, so W/ prefixes are ignored.
+     *
+     * @param ifNoneMatch Header value, possibly null or a comma separated list.
+     */
+    public static boolean matches(String ifNoneMatch, String etag) {
+        if (ifNoneMatch == null) {
+            return false;
+        }
+        for (String candidate : ifNoneMatch.split(",")) {
+            candidate = candidate.trim();
+            if (candidate.startsWith("W/")) {
+                candidate = candidate.substring(2);
+            }
+            if (candidate.equals("*") || candidate.equals(etag)) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
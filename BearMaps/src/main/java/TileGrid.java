@@ -0,0 +1,70 @@
+import java.util.List;
+
+/**
+ * The rectangular block of tiles at one depth that covers a raster query, as returned by
+ * TileIndex.find. Tiles are stored in row-major order, upper left first.
+ */
+public class TileGrid {
+    private final int depth, firstRow, firstCol, rows, cols;
+    private final List<QTreeNode> tiles;
+
+    TileGrid(int depth, int firstRow, int firstCol, int rows, int cols, List<QTreeNode> tiles) {
+        this.depth = depth;
+        this.firstRow = firstRow;
+        this.firstCol = firstCol;
+        this.rows = rows;
+        this.cols = cols;
+        this.tiles = tiles;
+    }
+
+    public int depth() {
+        return depth;
+    }
+
+    public int firstRow() {
+        return firstRow;
+    }
+
+    public int firstCol() {
+        return firstCol;
+    }
+
+    public int rows() {
+        return rows;
+    }
+
+    public int cols() {
+        return cols;
+    }
+
+    public boolean isEmpty() {
+        return tiles.isEmpty();
+    }
+
+    public List<QTreeNode> tiles() {
+        return tiles;
+    }
+
+    public QTreeNode get(int row, int col) {
+        return tiles.get(row * cols + col);
+    }
+
+    public QTreeNode upperLeft() {
+        return tiles.get(0);
+    }
+
+    public QTreeNode lowerRight() {
+        return tiles.get(tiles.size() - 1);
+    }
+
+    @Override
+    public String toString() {
+        return "TileGrid{"
+                + "depth=" + depth
+                + ", firstRow=" + firstRow
+                + ", firstCol=" + firstCol
+                + ", rows=" + rows
+                + ", cols=" + cols
+                + '}';
+    }
+}
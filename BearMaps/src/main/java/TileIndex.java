@@ -0,0 +1,191 @@
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Immutable index over every quadtree tile under the root bounding box. Built once at startup;
+ * a raster query picks a depth and computes the covered column/row range arithmetically instead
+ * of walking a freshly built QuadTree.
+ * Tile ids are the same ones QuadTree produces: one digit per level, 1 = upper left,
+ * 2 = upper right, 3 = lower left, 4 = lower right.
+ */
+public class TileIndex {
+    /**
+     * Deepest level for which tiles were scraped into the img/ folder.
+     */
+    public static final int MAX_DEPTH = 7;
+
+    private final double ullat, ullon, lrlat, lrlon;
+    /* tiles[depth][row][col], depth is 1-indexed so tiles[0] is unused. */
+    private final QTreeNode[][][] tiles;
+
+    public TileIndex(double upperLeftLatitude, double upperLeftLongitude,
+                     double lowerRightLatitude, double lowerRightLongitude) {
+        this.ullat = upperLeftLatitude;
+        this.ullon = upperLeftLongitude;
+        this.lrlat = lowerRightLatitude;
+        this.lrlon = lowerRightLongitude;
+        tiles = new QTreeNode[MAX_DEPTH + 1][][];
+        for (int depth = 1; depth <= MAX_DEPTH; depth++) {
+            int n = 1 << depth;
+            double tileWidth = (lrlon - ullon) / n;
+            double tileHeight = (ullat - lrlat) / n;
+            tiles[depth] = new QTreeNode[n][n];
+            for (int row = 0; row < n; row++) {
+                for (int col = 0; col < n; col++) {
+                    tiles[depth][row][col] = new QTreeNode(tileId(depth, row, col),
+                            ullat - row * tileHeight, ullon + col * tileWidth,
+                            ullat - (row + 1) * tileHeight, ullon + (col + 1) * tileWidth);
+                }
+            }
+        }
+    }
+
+    /**
+     * Builds the quadtree id of the tile at the given row and column of a depth.
+     *
+     * @param depth 1-indexed depth, also the length of the id.
+     * @param row   Row of the tile, 0 at the top.
+     * @param col   Column of the tile, 0 at the left.
+     * @return The tile id, e.g. "1423".
+     */
+    static String tileId(int depth, int row, int col) {
+        char[] id = new char[depth];
+        for (int i = 0; i < depth; i++) {
+            int bit = depth - 1 - i;
+            id[i] = (char) ('1' + ((col >> bit) & 1) + 2 * ((row >> bit) & 1));
+        }
+        return new String(id);
+    }
+
+    /**
+     * Chooses the shallowest depth whose longitudinal distance per pixel is at most the query's,
+     * capped at MAX_DEPTH. Same rule as QuadTree.getDepthness.
+     */
+    public int depthFor(double width, double upperLeftLongitude, double lowerRightLongitude) {
+        double queryDpp = (lowerRightLongitude - upperLeftLongitude) / width;
+        int depth = 1;
+        while (queryDpp < lonPerPixel(depth) && depth != MAX_DEPTH) {
+            depth += 1;
+        }
+        return depth;
+    }
+
+    /**
+     * @return The longitudinal distance per pixel of the tiles at a depth.
+     */
+    public double lonPerPixel(int depth) {
+        return (lrlon - ullon) / ((1 << depth) * MapServer.TILE_SIZE);
+    }
+
+    /**
+     * @return The latitudinal distance per pixel of the tiles at a depth.
+     */
+    public double latPerPixel(int depth) {
+        return (ullat - lrlat) / ((1 << depth) * MapServer.TILE_SIZE);
+    }
+
+    /**
+     * Finds all tiles intersecting the query box at the depth chosen for the viewport width.
+     *
+     * @return The covered tiles, in row-major order. Empty if the box misses the root.
+     */
+    public TileGrid find(double width, double height,
+                         double upperLeftLatitude, double upperLeftLongitude,
+                         double lowerRightLatitude, double lowerRightLongitude) {
+        int depth = depthFor(width, upperLeftLongitude, lowerRightLongitude);
+        return find(depth, upperLeftLatitude, upperLeftLongitude,
+                lowerRightLatitude, lowerRightLongitude);
+    }
+
+    /**
+     * Finds all tiles of a depth intersecting the query box.
+     */
+    public TileGrid find(int depth, double upperLeftLatitude, double upperLeftLongitude,
+                         double lowerRightLatitude, double lowerRightLongitude) {
+        int n = 1 << depth;
+        if (upperLeftLongitude > lrlon || lowerRightLongitude < ullon
+                || upperLeftLatitude < lrlat || lowerRightLatitude > ullat
+                || upperLeftLongitude > lowerRightLongitude
+                || lowerRightLatitude > upperLeftLatitude) {
+            return new TileGrid(depth, 0, 0, 0, 0, Collections.<QTreeNode>emptyList());
+        }
+        double tileWidth = (lrlon - ullon) / n;
+        double tileHeight = (ullat - lrlat) / n;
+        int firstCol = clamp((int) Math.floor((upperLeftLongitude - ullon) / tileWidth), n);
+        int lastCol = clamp((int) Math.floor((lowerRightLongitude - ullon) / tileWidth), n);
+        int firstRow = clamp((int) Math.floor((ullat - upperLeftLatitude) / tileHeight), n);
+        int lastRow = clamp((int) Math.floor((ullat - lowerRightLatitude) / tileHeight), n);
+
+        int rows = lastRow - firstRow + 1;
+        int cols = lastCol - firstCol + 1;
+        List<QTreeNode> covered = new ArrayList<>(rows * cols);
+        for (int row = firstRow; row <= lastRow; row++) {
+            for (int col = firstCol; col <= lastCol; col++) {
+                covered.add(tiles[depth][row][col]);
+            }
+        }
+        return new TileGrid(depth, firstRow, firstCol, rows, cols,
+                Collections.unmodifiableList(covered));
+    }
+
+    /**
+     * Looks up a single tile by its quadtree id.
+     *
+     * @return The tile, or null if the id is not a valid tile id.
+     */
+    public QTreeNode get(String id) {
+        int slot = slot(id);
+        if (slot < 0) {
+            return null;
+        }
+        int depth = id.length();
+        int offset = slot - firstSlot(depth);
+        return tiles[depth][offset >> depth][offset & ((1 << depth) - 1)];
+    }
+
+    /**
+     * Maps a quadtree id to a dense slot number: all depth 1 tiles first, then depth 2, and so
+     * on, each depth in row-major order. Used to key fixed-size per-tile tables.
+     *
+     * @return The slot, or -1 if the id is not a valid tile id.
+     */
+    static int slot(String id) {
+        int depth = id.length();
+        if (depth < 1 || depth > MAX_DEPTH) {
+            return -1;
+        }
+        int row = 0;
+        int col = 0;
+        for (int i = 0; i < depth; i++) {
+            int quadrant = id.charAt(i) - '1';
+            if (quadrant < 0 || quadrant > 3) {
+                return -1;
+            }
+            col = (col << 1) | (quadrant & 1);
+            row = (row << 1) | (quadrant >> 1);
+        }
+        return slot(depth, row, col);
+    }
+
+    static int slot(int depth, int row, int col) {
+        return firstSlot(depth) + (row << depth) + col;
+    }
+
+    /**
+     * @return The slot of the upper left tile of a depth; firstSlot(MAX_DEPTH + 1) is the total
+     * number of tiles.
+     */
+    static int firstSlot(int depth) {
+        /* 4 + 16 + ... + 4^(depth - 1) */
+        return ((1 << (2 * depth)) - 4) / 3;
+    }
+
+    static int slotCount() {
+        return firstSlot(MAX_DEPTH + 1);
+    }
+
+    private static int clamp(int index, int n) {
+        return Math.max(0, Math.min(n - 1, index));
+    }
+}
@@ -0,0 +1,178 @@
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+
+/**
+ * All tile pngs packed into one memory-mapped file, replacing thousands of small files under
+ * img/. Layout (big-endian):
+ * <pre>
+ * int    magic "BMTP"
+ * int    format version
+ * int    slot count, TileIndex.slotCount()
+ * slot count x { long offset, int length }   one entry per TileIndex.slot(id)
+ * tile data
+ * </pre>
+ * A length of 0 marks a missing tile. Tile data never straddles a SEGMENT_SIZE boundary, so
+ * the file can be mapped as a few segments without any tile spanning two of them.
+ * Build a pack with <code>java TilePack img/ tiles.pack</code>.
+ */
+public class TilePack implements TileSource {
+    private static final int MAGIC = 0x424D5450;
+    private static final int VERSION = 1;
+    private static final int HEADER_SIZE = 12;
+    private static final int ENTRY_SIZE = 12;
+    static final long SEGMENT_SIZE = 1L << 30;
+
+    private final ByteBuffer index;
+    private final MappedByteBuffer[] segments;
+
+    private TilePack(ByteBuffer index, MappedByteBuffer[] segments) {
+        this.index = index;
+        this.segments = segments;
+    }
+
+    /**
+     * Memory-maps an existing pack file.
+     *
+     * @throws IOException If the file is missing, is not a pack of the current version, or is
+     *                     too short for its index or for a tile the index lists.
+     */
+    public static TilePack open(String path) throws IOException {
+        try (RandomAccessFile file = new RandomAccessFile(path, "r");
+             FileChannel channel = file.getChannel()) {
+            long size = channel.size();
+            int segmentCount = (int) ((size + SEGMENT_SIZE - 1) / SEGMENT_SIZE);
+            MappedByteBuffer[] segments = new MappedByteBuffer[segmentCount];
+            for (int i = 0; i < segmentCount; i++) {
+                long start = i * SEGMENT_SIZE;
+                segments[i] = channel.map(FileChannel.MapMode.READ_ONLY, start,
+                        Math.min(SEGMENT_SIZE, size - start));
+            }
+            ByteBuffer header = segments.length == 0 ? ByteBuffer.allocate(0) : segments[0];
+            if (header.limit() < HEADER_SIZE || header.getInt(0) != MAGIC
+                    || header.getInt(4) != VERSION
+                    || header.getInt(8) != TileIndex.slotCount()) {
+                throw new IOException(path + " is not a version " + VERSION + " tile pack.");
+            }
+            int indexEnd = HEADER_SIZE + TileIndex.slotCount() * ENTRY_SIZE;
+            if (header.limit() < indexEnd) {
+                throw new IOException(path + " is truncated.");
+            }
+            ByteBuffer index = header.duplicate();
+            index.position(HEADER_SIZE);
+            index.limit(indexEnd);
+            index = index.slice();
+            for (int slot = 0; slot < TileIndex.slotCount(); slot++) {
+                long offset = index.getLong(slot * ENTRY_SIZE);
+                int length = index.getInt(slot * ENTRY_SIZE + 8);
+                if (length < 0 || length > 0 && (offset < indexEnd || offset > size - length
+                        || offset / SEGMENT_SIZE != (offset + length - 1) / SEGMENT_SIZE)) {
+                    throw new IOException(path + " is truncated or corrupt: tile slot "
+                            + slot + " lies outside the file.");
+                }
+            }
+            return new TilePack(index, segments);
+        }
+    }
+
+    @Override
+    public ByteBuffer read(String id) throws IOException {
+        int slot = TileIndex.slot(id);
+        if (slot < 0) {
+            throw new IOException("Invalid tile id " + id + ".");
+        }
+        long offset = index.getLong(slot * ENTRY_SIZE);
+        int length = index.getInt(slot * ENTRY_SIZE + 8);
+        if (length == 0) {
+            throw new IOException("Tile " + id + " is not in the pack.");
+        }
+        ByteBuffer tile = segments[(int) (offset / SEGMENT_SIZE)].duplicate();
+        int start = (int) (offset % SEGMENT_SIZE);
+        tile.position(start);
+        tile.limit(start + length);
+        return tile.slice();
+    }
+
+    /**
+     * Writes every tile found under imgRoot into a new pack file.
+     *
+     * @param imgRoot Folder of tile pngs named by quadtree id.
+     * @param path    Pack file to create; overwritten if it exists.
+     * @return The number of tiles packed.
+     */
+    public static int write(String imgRoot, String path) throws IOException {
+        FileTileSource source = new FileTileSource(imgRoot);
+        String[] ids = new String[TileIndex.slotCount()];
+        long[] offsets = new long[ids.length];
+        int[] lengths = new int[ids.length];
+        long offset = HEADER_SIZE + (long) ids.length * ENTRY_SIZE;
+        for (int depth = 1; depth <= TileIndex.MAX_DEPTH; depth++) {
+            int n = 1 << depth;
+            for (int row = 0; row < n; row++) {
+                for (int col = 0; col < n; col++) {
+                    String id = TileIndex.tileId(depth, row, col);
+                    File file = source.file(id);
+                    if (!file.isFile()) {
+                        continue;
+                    }
+                    int slot = TileIndex.slot(depth, row, col);
+                    long length = file.length();
+                    if (offset / SEGMENT_SIZE != (offset + length - 1) / SEGMENT_SIZE) {
+                        offset = (offset / SEGMENT_SIZE + 1) * SEGMENT_SIZE;
+                    }
+                    ids[slot] = id;
+                    offsets[slot] = offset;
+                    lengths[slot] = (int) length;
+                    offset += length;
+                }
+            }
+        }
+
+        int packed = 0;
+        try (DataOutputStream out = new DataOutputStream(
+                new BufferedOutputStream(new FileOutputStream(path), 1 << 16))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(ids.length);
+            for (int slot = 0; slot < ids.length; slot++) {
+                out.writeLong(offsets[slot]);
+                out.writeInt(lengths[slot]);
+            }
+            long written = HEADER_SIZE + (long) ids.length * ENTRY_SIZE;
+            for (int slot = 0; slot < ids.length; slot++) {
+                if (ids[slot] == null) {
+                    continue;
+                }
+                for (; written < offsets[slot]; written++) {
+                    out.write(0);
+                }
+                byte[] bytes = Files.readAllBytes(source.file(ids[slot]).toPath());
+                if (bytes.length != lengths[slot]) {
+                    throw new IOException(ids[slot] + " changed while packing.");
+                }
+                out.write(bytes);
+                written += bytes.length;
+                packed += 1;
+            }
+        }
+        return packed;
+    }
+
+    public static void main(String[] args) throws IOException {
+        if (args.length != 2) {
+            System.err.println("Usage: java TilePack <img folder> <pack file>");
+            System.exit(1);
+        }
+        long start = System.currentTimeMillis();
+        int packed = write(args[0], args[1]);
+        System.out.println("Packed " + packed + " tiles into " + args[1] + " in "
+                + (System.currentTimeMillis() - start) + " ms.");
+    }
+}
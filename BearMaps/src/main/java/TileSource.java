@@ -0,0 +1,16 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * Where encoded tile pngs come from, addressed by quadtree id.
+ */
+public interface TileSource {
+    /**
+     * Returns the encoded png bytes of a tile, positioned at the start of the image.
+     * The buffer may be a view into shared storage and must be treated as read-only.
+     *
+     * @param id Quadtree id of the tile.
+     * @throws IOException If the tile does not exist or could not be read.
+     */
+    ByteBuffer read(String id) throws IOException;
+}
@@ -0,0 +1,151 @@
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+
+/**
+ * The part of a tile raster a client actually asked for: a crop box in raster pixels, snapped
+ * outwards to whole pixels around the query box, and the size it is sent at. Cropping and
+ * resampling to the viewport saves encoding and shipping pixels the client throws away.
+ */
+public class Viewport {
+    private final int x, y, width, height;
+    private final int outWidth, outHeight;
+    private final double lonPerPixel, latPerPixel;
+    private final double ullat, ullon;
+
+    private Viewport(int x, int y, int width, int height, int outWidth, int outHeight,
+                     double lonPerPixel, double latPerPixel, double ullat, double ullon) {
+        this.x = x;
+        this.y = y;
+        this.width = width;
+        this.height = height;
+        this.outWidth = outWidth;
+        this.outHeight = outHeight;
+        this.lonPerPixel = lonPerPixel;
+        this.latPerPixel = latPerPixel;
+        this.ullat = ullat;
+        this.ullon = ullon;
+    }
+
+    /**
+     * Computes the crop of a grid's raster covering a query box.
+     *
+     * @param resample Whether to scale the crop to w x h rather than keep tile resolution.
+     * @return The viewport, or null if the box covers no whole pixel of the raster.
+     */
+    public static Viewport of(TileGrid grid, double ullat, double ullon, double lrlat,
+                              double lrlon, double w, double h, boolean resample) {
+        QTreeNode ul = grid.upperLeft();
+        QTreeNode lr = grid.lowerRight();
+        int rasterWidth = grid.cols() * MapServer.TILE_SIZE;
+        int rasterHeight = grid.rows() * MapServer.TILE_SIZE;
+        double lonPerPixel = (lr.lowerRightLongitude() - ul.upperLeftLongitude()) / rasterWidth;
+        double latPerPixel = (ul.upperLeftLatitude() - lr.lowerRightLatitude()) / rasterHeight;
+
+        int x0 = clamp((int) Math.floor((ullon - ul.upperLeftLongitude()) / lonPerPixel),
+                rasterWidth);
+        int x1 = clamp((int) Math.ceil((lrlon - ul.upperLeftLongitude()) / lonPerPixel),
+                rasterWidth);
+        int y0 = clamp((int) Math.floor((ul.upperLeftLatitude() - ullat) / latPerPixel),
+                rasterHeight);
+        int y1 = clamp((int) Math.ceil((ul.upperLeftLatitude() - lrlat) / latPerPixel),
+                rasterHeight);
+        if (x1 <= x0 || y1 <= y0) {
+            return null;
+        }
+        int outWidth = resample ? Math.max(1, (int) Math.round(w)) : x1 - x0;
+        int outHeight = resample ? Math.max(1, (int) Math.round(h)) : y1 - y0;
+        return new Viewport(x0, y0, x1 - x0, y1 - y0, outWidth, outHeight,
+                lonPerPixel, latPerPixel, ul.upperLeftLatitude(), ul.upperLeftLongitude());
+    }
+
+    private static int clamp(int pixel, int size) {
+        return Math.max(0, Math.min(size, pixel));
+    }
+
+    /**
+     * Cuts the viewport out of a full TYPE_INT_RGB tile raster and scales it if requested.
+     *
+     * @return A new image; raster is not modified.
+     */
+    public BufferedImage apply(BufferedImage raster) {
+        BufferedImage crop = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+        int[] src = ((DataBufferInt) raster.getRaster().getDataBuffer()).getData();
+        int[] dst = ((DataBufferInt) crop.getRaster().getDataBuffer()).getData();
+        for (int row = 0; row < height; row++) {
+            System.arraycopy(src, (y + row) * raster.getWidth() + x, dst, row * width, width);
+        }
+        if (outWidth == width && outHeight == height) {
+            return crop;
+        }
+        BufferedImage scaled = new BufferedImage(outWidth, outHeight, BufferedImage.TYPE_INT_RGB);
+        Graphics2D g = scaled.createGraphics();
+        g.setRenderingHint(RenderingHints.KEY_INTERPOLATION,
+                RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+        g.drawImage(crop, 0, 0, outWidth, outHeight, null);
+        g.dispose();
+        return scaled;
+    }
+
+    public double upperLeftLatitude() {
+        return ullat - y * latPerPixel;
+    }
+
+    public double upperLeftLongitude() {
+        return ullon + x * lonPerPixel;
+    }
+
+    public double lowerRightLatitude() {
+        return ullat - (y + height) * latPerPixel;
+    }
+
+    public double lowerRightLongitude() {
+        return ullon + (x + width) * lonPerPixel;
+    }
+
+    public int outWidth() {
+        return outWidth;
+    }
+
+    public int outHeight() {
+        return outHeight;
+    }
+
+    /* Two viewports of the same grid are equal when they produce the same image. */
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (!(o instanceof Viewport)) {
+            return false;
+        }
+        Viewport v = (Viewport) o;
+        return x == v.x && y == v.y && width == v.width && height == v.height
+                && outWidth == v.outWidth && outHeight == v.outHeight;
+    }
+
+    @Override
+    public int hashCode() {
+        int result = x;
+        result = 31 * result + y;
+        result = 31 * result + width;
+        result = 31 * result + height;
+        result = 31 * result + outWidth;
+        result = 31 * result + outHeight;
+        return result;
+    }
+
+    @Override
+    public String toString() {
+        return "Viewport{"
+                + "x=" + x
+                + ", y=" + y
+                + ", width=" + width
+                + ", height=" + height
+                + ", outWidth=" + outWidth
+                + ", outHeight=" + outHeight
+                + '}';
+    }
+}
@@ -0,0 +1,59 @@
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.function.IntConsumer;
+
+/**
+ * The one bounded pool shared by all parallel work in the server, so concurrent requests that
+ * each fan out cannot oversubscribe the machine. Sized by -Dbearmaps.workers, defaulting to
+ * the number of available processors.
+ */
+public class WorkerPool {
+    public static final int PARALLELISM = Integer.getInteger("bearmaps.workers",
+            Runtime.getRuntime().availableProcessors());
+    private static final ForkJoinPool POOL = new ForkJoinPool(PARALLELISM);
+
+    private WorkerPool() {
+    }
+
+    public static ForkJoinPool get() {
+        return POOL;
+    }
+
+    /**
+     * Runs action for every index in [0, n) on the pool, a few contiguous ranges per worker,
+     * and waits for all of them. Meant for CPU-bound preprocessing.
+     *
+     * @throws RuntimeException The first exception thrown by action.
+     */
+    public static void forEach(int n, IntConsumer action) {
+        int ranges = Math.min(n, PARALLELISM * 4);
+        List<Callable<Void>> tasks = new ArrayList<>(ranges);
+        for (int r = 0; r < ranges; r++) {
+            int from = (int) ((long) n * r / ranges);
+            int to = (int) ((long) n * (r + 1) / ranges);
+            tasks.add(() -> {
+                for (int i = from; i < to; i++) {
+                    action.accept(i);
+                }
+                return null;
+            });
+        }
+        try {
+            for (Future<Void> done : POOL.invokeAll(tasks)) {
+                done.get();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while waiting for workers.", e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw new IllegalStateException(e.getCause());
+        }
+    }
+}
@@ -10,7 +10,9 @@
 var params = {ullat: 37.88, ullon: -122.27625, lrlat: 37.83, lrlon: -122.22,
               w: $(window).width(), h: $(window).height()};
 var route_params = {};
-var map; var dest;
+var route_id = null; // Names this client's route to the server
+var route_levels = null; // Encoded route polyline per depth, drawn over the map
+var map; var dest; var route_line;
 var tx = 0; var ty = 0;
 var rtx; var rty;
 var markers = [];
@@ -29,6 +31,28 @@ function real_lrlat() { return params["ullat"] - hdpp * params["h"]; }
 
 function real_lrlon() { return params["ullon"] + wdpp * params["w"]; }
 
+// Decode an encoded polyline into [lat, lon] pairs
+function decodePolyline(encoded) {
+    var points = [];
+    var value = [0, 0];
+    var coordinate = 0, number = 0, shift = 0;
+    for (var i = 0; i < encoded.length; i++) {
+        var chunk = encoded.charCodeAt(i) - 63;
+        number += (chunk & 0x1f) * Math.pow(2, shift);
+        shift += 5;
+        if (chunk < 0x20) {
+            value[coordinate] += number % 2 ? -(number + 1) / 2 : number / 2;
+            number = 0;
+            shift = 0;
+            coordinate ^= 1;
+            if (coordinate == 0) {
+                points.push([value[0] / 1e5, value[1] / 1e5]);
+            }
+        }
+    }
+    return points;
+}
+
 $( document ).ready(function() {
     if (document.location.hostname !== "localhost") {
         host = "http://" + document.location.host;
@@ -41,6 +65,7 @@ $( document ).ready(function() {
     var search = host + "/search"
     map = document.getElementById("map");
     dest = document.getElementById("dest");
+    route_line = document.getElementById("route-line");
     dest.style.visibility = 'hidden';
     params["lrlon"] = real_lrlon();
     params["lrlat"] = real_lrlat();
@@ -115,7 +140,11 @@ $( document ).ready(function() {
         $.get({
             async: true,
             url: clear_route,
+            data: { route_id: route_id },
             success: function(data) {
+                route_id = null;
+                route_levels = null;
+                drawRoute();
                 dest.style.visibility = 'hidden';
                 update();
             },
@@ -274,11 +303,12 @@ $( document ).ready(function() {
         $.get({
             async: false,
             url: raster_server,
-            data: params,
+            data: $.extend({draw_route: false}, params),
             success: function(data) {
                 if (data.query_success) {
                     console.log("Updating map");
-                    map.src = "data:image/png;base64," + data.b64_encoded_image_data;
+                    map.src = "data:" + (data.raster_content_type || "image/png") + ";base64,"
+                        + data.b64_encoded_image_data;
                     ullon_bound = data.raster_ul_lon;
                     ullat_bound = data.raster_ul_lat;
                     lrlon_bound = data.raster_lr_lon;
@@ -294,14 +324,31 @@ $( document ).ready(function() {
                     rtx = (route_params["end_lon"] - params["ullon"]) * (1 / wdpp) - dest.width / 2 - tx;
                     rty = - (route_params["end_lat"] - params["ullat"]) * (1 / hdpp) - dest.height - ty;
                     updateMarkers();
+                    drawRoute();
                 }
             },
             dataType: "json"
         });
     }
 
+    // Draw the route over the map in raster pixels, at the detail of the raster's depth
+    function drawRoute() {
+        var points = [];
+        if (route_levels) {
+            var coords = decodePolyline(route_levels[current_level] || route_levels[max_level]);
+            for (var i = 0; i < coords.length; i++) {
+                points.push(((coords[i][1] - ullon_bound) / wdpp).toFixed(1) + ","
+                    + ((ullat_bound - coords[i][0]) / hdpp).toFixed(1));
+            }
+        }
+        route_line.setAttribute("points", points.join(" "));
+        route_line.parentNode.setAttribute("width", img_w);
+        route_line.parentNode.setAttribute("height", img_h);
+    }
+
     function updateT() {
         map.style.transform = "translateX(" + tx + "px) translateY(" + ty + "px)";
+        route_line.parentNode.style.transform = map.style.transform;
         dest.style.transform = "translateX(" + (tx+rtx) + "px) translateY(" + (ty+rty) + "px)";
         for (var i = 0; i < markers.length; i++) {
             marker = markers[i];
@@ -317,10 +364,13 @@ $( document ).ready(function() {
         $.get({
             async: true,
             url: route_server,
-            data: route_params,
+            data: $.extend({levels: true}, route_params),
             success: function(data) {
+                route_id = data.found ? data.route_id : null;
+                route_levels = data.found ? data.levels : null;
                 updateImg();
             },
+            dataType: "json"
         });
     }
 
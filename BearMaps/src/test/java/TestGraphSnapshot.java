@@ -0,0 +1,129 @@
+import static org.junit.Assert.*;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Random;
+
+public class TestGraphSnapshot {
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private static GraphSnapshot randomGraph(Random random) {
+        RoadGraph.Builder builder = new RoadGraph.Builder();
+        Places.Builder placesBuilder = new Places.Builder();
+        for (int v = 0; v < 300; v++) {
+            builder.addNode(1000 + v, 37.8 + random.nextDouble() / 10,
+                    -122.3 + random.nextDouble() / 10);
+            builder.addEdge(1000 + v, 1000 + random.nextInt(300));
+            if (random.nextInt(5) == 0) {
+                placesBuilder.add(1000 + v, 37.8, -122.3, "Place " + random.nextInt(40),
+                        random.nextInt(3) * 5);
+            }
+        }
+        RoadGraph roads = builder.build();
+        return new GraphSnapshot(roads, new SpatialIndex(roads), placesBuilder.build());
+    }
+
+    private File source() throws IOException {
+        File source = folder.newFile("test.osm");
+        Files.write(source.toPath(), "<osm></osm>\n".getBytes(StandardCharsets.UTF_8));
+        assertTrue(source.setLastModified(1500000000000L));
+        return source;
+    }
+
+    private static void assertReadFails(String path, File source) {
+        try {
+            GraphSnapshot.read(path, source);
+            fail(path + " was read.");
+        } catch (IOException expected) {
+            /* Callers parse the source again. */
+        }
+    }
+
+    /**
+     * Reading a snapshot back gives the roads, node order and places that were written.
+     */
+    @Test
+    public void testRoundTrip() throws IOException {
+        GraphSnapshot written = randomGraph(new Random(16));
+        File source = source();
+        String path = new File(folder.getRoot(), "test.osm.snapshot").getPath();
+        written.write(path, source);
+        GraphSnapshot read = GraphSnapshot.read(path, source);
+
+        RoadGraph expected = written.roads();
+        RoadGraph actual = read.roads();
+        assertEquals(expected.size(), actual.size());
+        assertEquals(expected.edgeCount(), actual.edgeCount());
+        assertEquals(expected.checksum(), actual.checksum());
+        for (int e = 0; e < expected.edgeCount(); e++) {
+            assertEquals(expected.weight(e), actual.weight(e), 0);
+        }
+        assertArrayEquals(written.spatialIndex().order(), read.spatialIndex().order());
+        int nearest = written.spatialIndex().nearest(37.85, -122.25);
+        assertEquals(nearest, read.spatialIndex().nearest(37.85, -122.25));
+
+        Places before = written.places();
+        Places after = read.places();
+        assertEquals(before.size(), after.size());
+        assertArrayEquals(before.keys(), after.keys());
+        assertArrayEquals(before.names(), after.names());
+        assertArrayEquals(before.scores(), after.scores());
+        assertArrayEquals(before.nodeOffsets(), after.nodeOffsets());
+        assertArrayEquals(before.ids(), after.ids());
+        assertArrayEquals(before.lats(), after.lats(), 0);
+        assertArrayEquals(before.lons(), after.lons(), 0);
+        assertEquals(before.byPrefix("place 1", 5), after.byPrefix("place 1", 5));
+    }
+
+    /**
+     * A changed byte after the header fails the checksum, and a cut-off file is rejected
+     * before anything is decoded.
+     */
+    @Test
+    public void testCorrupt() throws IOException {
+        File source = source();
+        String path = new File(folder.getRoot(), "test.osm.snapshot").getPath();
+        randomGraph(new Random(17)).write(path, source);
+        byte[] good = Files.readAllBytes(new File(path).toPath());
+
+        try (RandomAccessFile file = new RandomAccessFile(path, "rw")) {
+            file.seek(good.length / 2);
+            file.write(good[good.length / 2] ^ 0x10);
+        }
+        assertReadFails(path, source);
+
+        for (int length : new int[]{0, 20, 60, good.length - 1}) {
+            byte[] cut = new byte[length];
+            System.arraycopy(good, 0, cut, 0, length);
+            Files.write(new File(path).toPath(), cut);
+            assertReadFails(path, source);
+        }
+    }
+
+    /**
+     * A snapshot is stale once its source's modification time or length changes.
+     */
+    @Test
+    public void testStale() throws IOException {
+        File source = source();
+        String path = new File(folder.getRoot(), "test.osm.snapshot").getPath();
+        randomGraph(new Random(18)).write(path, source);
+        GraphSnapshot.read(path, source);
+
+        assertTrue(source.setLastModified(1500000001000L));
+        assertReadFails(path, source);
+
+        assertTrue(source.setLastModified(1500000000000L));
+        GraphSnapshot.read(path, source);
+        Files.write(source.toPath(), "<osm> </osm>\n".getBytes(StandardCharsets.UTF_8));
+        assertTrue(source.setLastModified(1500000000000L));
+        assertReadFails(path, source);
+    }
+}
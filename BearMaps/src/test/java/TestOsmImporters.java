@@ -0,0 +1,250 @@
+import static org.junit.Assert.*;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.zip.Deflater;
+import javax.xml.parsers.SAXParserFactory;
+
+public class TestOsmImporters {
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    /* Nodes 101, 102, 103 and 105 are on a road, 104 only on a footway. */
+    private static final long[] IDS = {101, 102, 103, 104, 105};
+    private static final String[] LATS = {"37.8712345", "37.8723456", "37.8734567", "37.87",
+        "-0.0000001"};
+    private static final String[] LONS = {"-122.2581234", "-122.2592345", "-122.2603456",
+        "-122.26", "0.5"};
+
+    /* Named place on node 104. */
+    private static final String PLACE = "Caf\u00e9 & Co";
+
+    private Places places;
+
+    private RoadGraph importXml(File osm) throws IOException {
+        RoadGraph.Builder builder = new RoadGraph.Builder();
+        Places.Builder placesBuilder = new Places.Builder();
+        new OsmXmlImporter(osm).importInto(builder, placesBuilder);
+        places = placesBuilder.build();
+        return builder.build();
+    }
+
+    private RoadGraph importPbf(File pbf) throws IOException {
+        RoadGraph.Builder builder = new RoadGraph.Builder();
+        Places.Builder placesBuilder = new Places.Builder();
+        new OsmPbfImporter(pbf).importInto(builder, placesBuilder);
+        places = placesBuilder.build();
+        return builder.build();
+    }
+
+    private File writeXml() throws IOException {
+        StringBuilder xml = new StringBuilder("<?xml version='1.0' encoding='UTF-8'?>\n"
+                + "<!-- ways come first here; <node> order does not matter -->\n<osm>\n");
+        xml.append("<way id='1'><nd ref='101'/><nd ref='102'/><nd ref='103'/><nd ref='105'/>"
+                + "<tag k='name' v='Oxford &amp; Hearst'/><tag k='highway' v='primary'/>"
+                + "</way>\n");
+        xml.append("<way id='2'>\n <nd ref=\"103\"/>\n <nd ref=\"104\"/>\n"
+                + " <tag k=\"highway\" v=\"footway\"/>\n</way>\n");
+        for (int i = 0; i < IDS.length; i++) {
+            xml.append("<node id=\"").append(IDS[i]).append("\" lat=\"").append(LATS[i])
+                    .append("\" lon=\"").append(LONS[i]);
+            if (IDS[i] == 104) {
+                xml.append("\">\n <tag k=\"amenity\" v=\"cafe\"/>\n"
+                        + " <tag k=\"name\" v=\"Caf\u00e9 &amp; Co\"/>\n</node>\n");
+            } else {
+                xml.append("\"/>\n");
+            }
+        }
+        xml.append("</osm>\n");
+        File osm = folder.newFile("test.osm");
+        Files.write(osm.toPath(), xml.toString().getBytes(StandardCharsets.UTF_8));
+        return osm;
+    }
+
+    /**
+     * Writes the same map as writeXml as PBF: a header blob, then a zlib-compressed block of
+     * dense nodes and an uncompressed block holding a plain node and the ways.
+     */
+    private File writePbf(String... features) throws IOException {
+        File pbf = folder.newFile("test.osm.pbf");
+        try (DataOutputStream out = new DataOutputStream(new FileOutputStream(pbf))) {
+            Proto header = new Proto();
+            for (String feature : features) {
+                header.bytes(4, feature.getBytes(StandardCharsets.UTF_8));
+            }
+            writeBlob(out, "OSMHeader", header, true);
+
+            Proto dense = new Proto();
+            Proto ids = new Proto();
+            Proto lats = new Proto();
+            Proto lons = new Proto();
+            Proto keysValues = new Proto();
+            for (int i = 0; i < 4; i++) {
+                ids.sint(i == 0 ? IDS[i] : IDS[i] - IDS[i - 1]);
+                lats.sint(i == 0 ? centi(LATS[i]) : centi(LATS[i]) - centi(LATS[i - 1]));
+                lons.sint(i == 0 ? centi(LONS[i]) : centi(LONS[i]) - centi(LONS[i - 1]));
+                if (IDS[i] == 104) {
+                    keysValues.raw(1).raw(2).raw(3).raw(4);
+                }
+                keysValues.raw(0);
+            }
+            dense.bytes(1, ids).bytes(8, lats).bytes(9, lons).bytes(10, keysValues);
+            Proto table = new Proto().bytes(1, new byte[0]);
+            for (String s : new String[]{"name", PLACE, "amenity", "cafe"}) {
+                table.bytes(1, s.getBytes(StandardCharsets.UTF_8));
+            }
+            Proto block = new Proto().bytes(1, table).bytes(2, new Proto().bytes(2, dense));
+            writeBlob(out, "OSMData", block, true);
+
+            Proto strings = new Proto().bytes(1, new byte[0]);
+            for (String s : new String[]{"highway", "primary", "footway"}) {
+                strings.bytes(1, s.getBytes(StandardCharsets.UTF_8));
+            }
+            Proto node = new Proto().varint(1, zigzag(IDS[4]))
+                    .varint(8, zigzag(centi(LATS[4]))).varint(9, zigzag(centi(LONS[4])));
+            Proto road = new Proto().varint(1, 1).bytes(2, new Proto().raw(1))
+                    .bytes(3, new Proto().raw(2))
+                    .bytes(8, new Proto().sint(101).sint(1).sint(1).sint(2));
+            Proto footway = new Proto().varint(1, 2).bytes(2, new Proto().raw(1))
+                    .bytes(3, new Proto().raw(3)).bytes(8, new Proto().sint(103).sint(1));
+            block = new Proto().bytes(1, strings).bytes(2, new Proto().bytes(1, node))
+                    .bytes(2, new Proto().bytes(3, road).bytes(3, footway));
+            writeBlob(out, "OSMData", block, false);
+        }
+        return pbf;
+    }
+
+    /* Coordinates in units of the default granularity, 100 nanodegrees. */
+    private static long centi(String degrees) {
+        return new BigDecimal(degrees).movePointRight(7).longValueExact();
+    }
+
+    private static long zigzag(long n) {
+        return (n << 1) ^ (n >> 63);
+    }
+
+    private static void writeBlob(DataOutputStream out, String type, Proto data,
+                                  boolean compress) throws IOException {
+        byte[] raw = data.toByteArray();
+        Proto blob = new Proto();
+        if (compress) {
+            Deflater deflater = new Deflater();
+            deflater.setInput(raw);
+            deflater.finish();
+            byte[] compressed = new byte[raw.length + 64];
+            int n = deflater.deflate(compressed);
+            deflater.end();
+            blob.varint(2, raw.length).bytes(3, Arrays.copyOf(compressed, n));
+        } else {
+            blob.bytes(1, raw);
+        }
+        byte[] header = new Proto().bytes(1, type.getBytes(StandardCharsets.UTF_8))
+                .varint(3, blob.toByteArray().length).toByteArray();
+        out.writeInt(header.length);
+        out.write(header);
+        out.write(blob.toByteArray());
+    }
+
+    /**
+     * Just enough of a protobuf encoder to write test files.
+     */
+    private static class Proto extends ByteArrayOutputStream {
+        Proto raw(long n) {
+            while ((n & ~0x7FL) != 0) {
+                write((int) (n & 0x7F) | 0x80);
+                n >>>= 7;
+            }
+            write((int) n);
+            return this;
+        }
+
+        Proto sint(long n) {
+            return raw(zigzag(n));
+        }
+
+        Proto varint(int field, long n) {
+            return raw(field << 3).raw(n);
+        }
+
+        Proto bytes(int field, byte[] b) {
+            raw(field << 3 | 2).raw(b.length);
+            write(b, 0, b.length);
+            return this;
+        }
+
+        Proto bytes(int field, Proto message) {
+            return bytes(field, message.toByteArray());
+        }
+    }
+
+    /**
+     * Only the primary road is imported, and coordinates are parsed exactly.
+     */
+    @Test
+    public void testXml() throws IOException {
+        RoadGraph roads = importXml(writeXml());
+        assertEquals(4, roads.size());
+        assertEquals(6, roads.edgeCount());
+        assertEquals(-1, roads.indexOf(104));
+        assertEquals(Double.parseDouble(LATS[0]), roads.lat(roads.indexOf(101)), 0);
+        assertEquals(Double.parseDouble(LONS[2]), roads.lon(roads.indexOf(103)), 0);
+        assertEquals(-1e-7, roads.lat(roads.indexOf(105)), 0);
+        assertEquals(Arrays.asList(PLACE), places.byPrefix("caf", 10));
+        assertEquals(1, places.placeCount());
+    }
+
+    /**
+     * The byte-level scanner builds exactly the graph and places the SAX handler does.
+     */
+    @Test
+    public void testXmlMatchesSax() throws Exception {
+        File osm = writeXml();
+        RoadGraph scanned = importXml(osm);
+        Places scannedPlaces = places;
+        RoadGraph.Builder builder = new RoadGraph.Builder();
+        Places.Builder placesBuilder = new Places.Builder();
+        SAXParserFactory.newInstance().newSAXParser()
+                .parse(osm, new MapDBHandler(builder, placesBuilder));
+        RoadGraph parsed = builder.build();
+        Places parsedPlaces = placesBuilder.build();
+        assertEquals(parsed.size(), scanned.size());
+        assertEquals(parsed.edgeCount(), scanned.edgeCount());
+        assertEquals(parsed.checksum(), scanned.checksum());
+        assertEquals(parsedPlaces.byPrefix("", 10), scannedPlaces.byPrefix("", 10));
+        assertEquals(parsedPlaces.score(0), scannedPlaces.score(0));
+    }
+
+    /**
+     * A PBF file of the same map builds exactly the same graph.
+     */
+    @Test
+    public void testPbf() throws IOException {
+        RoadGraph xml = importXml(writeXml());
+        Places xmlPlaces = places;
+        RoadGraph pbf = importPbf(writePbf("OsmSchema-V0.6", "DenseNodes"));
+        assertEquals(4, pbf.size());
+        assertEquals(xmlPlaces.byPrefix("", 10), places.byPrefix("", 10));
+        assertEquals(xmlPlaces.score(0), places.score(0));
+        assertEquals(xml.checksum(), pbf.checksum());
+    }
+
+    @Test(expected = IOException.class)
+    public void testUnsupportedFeature() throws IOException {
+        importPbf(writePbf("OsmSchema-V0.6", "HistoricalInformation"));
+    }
+
+    @Test(expected = IOException.class)
+    public void testNotPbf() throws IOException {
+        importPbf(writeXml());
+    }
+}
@@ -0,0 +1,185 @@
+import static org.junit.Assert.*;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+public class TestPlaces {
+    private static final String[] WORDS = {"Oak", "Oakland", "Sather", "Gate", "Cafe", "Strada",
+        "Top", "Dog", "Berkeley", "Bowl"};
+
+    /**
+     * The best k names for a prefix are those a scan of every name would pick.
+     */
+    @Test
+    public void testByPrefix() {
+        Random random = new Random(4);
+        Places.Builder builder = new Places.Builder();
+        for (int i = 0; i < 2000; i++) {
+            String name = WORDS[random.nextInt(WORDS.length)];
+            if (random.nextBoolean()) {
+                name += " " + WORDS[random.nextInt(WORDS.length)];
+            }
+            if (random.nextInt(4) == 0) {
+                name = name.toUpperCase() + "!";
+            }
+            builder.add(i, random.nextDouble(), random.nextDouble(), name, random.nextInt(3) * 5);
+        }
+        Places places = builder.build();
+
+        for (String prefix : new String[]{"", "o", "OAK", "oak ", "Oakland Cafe", "s", "sa",
+            "top-dog", "x", "bowl bowl"}) {
+            String cleaned = GraphDB.cleanString(prefix);
+            List<Integer> matches = new ArrayList<>();
+            for (int e = 0; e < places.size(); e++) {
+                if (GraphDB.cleanString(places.name(e)).startsWith(cleaned)) {
+                    matches.add(e);
+                }
+            }
+            matches.sort((a, b) -> places.score(a) != places.score(b)
+                    ? Integer.compare(places.score(b), places.score(a)) : Integer.compare(a, b));
+            for (int limit : new int[]{1, 5, Integer.MAX_VALUE}) {
+                List<String> expected = new ArrayList<>();
+                for (int e : matches.subList(0, Math.min(limit, matches.size()))) {
+                    expected.add(places.name(e));
+                }
+                assertEquals(prefix + " " + limit, expected, places.byPrefix(prefix, limit));
+            }
+        }
+    }
+
+    /**
+     * Names rank by their most important place, then by how many places have them.
+     */
+    @Test
+    public void testRanking() {
+        Places.Builder builder = new Places.Builder();
+        builder.add(1, 0, 0, "Berkeley Bowl", 0);
+        builder.add(2, 0, 0, "Berkeley Bowl", 0);
+        builder.add(3, 0, 0, "Berkeley", Places.importance("place", "city"));
+        builder.add(4, 0, 0, "Berkeley Art Museum", Places.importance("tourism", "museum"));
+        builder.add(5, 0, 0, "Berkeley Marina", 0);
+        builder.add(6, 0, 0, "7-11", 0);
+        Places places = builder.build();
+        assertEquals(4, places.size());
+        assertEquals(Arrays.asList("Berkeley", "Berkeley Art Museum", "Berkeley Bowl",
+                "Berkeley Marina"), places.byPrefix("berk", 10));
+        assertEquals(Arrays.asList("Berkeley", "Berkeley Art Museum"),
+                places.byPrefix("berk", 2));
+        assertEquals(Arrays.asList(), places.byPrefix("berkeley bowls", 10));
+        assertEquals(Arrays.asList(), new Places.Builder().build().byPrefix("", 10));
+    }
+
+    /**
+     * Full-name lookups match every entry with the same cleaned name, and only those.
+     */
+    @Test
+    public void testByName() {
+        Places.Builder builder = new Places.Builder();
+        builder.add(1, 1, 2, "Top Dog", 0);
+        builder.add(2, 3, 4, "TOP DOG!", 0);
+        builder.add(3, 5, 6, "Top Dog", 0);
+        builder.add(4, 7, 8, "Top Dogs", 0);
+        Places places = builder.build();
+        int[] entries = places.byName("top dog.");
+        assertEquals(2, entries.length);
+        assertEquals("TOP DOG!", places.name(entries[0]));
+        assertEquals("Top Dog", places.name(entries[1]));
+        int p = places.placesStart(entries[1]);
+        assertEquals(2, places.placesEnd(entries[1]) - p);
+        assertEquals(1, places.id(p));
+        assertEquals(5, places.lat(p + 1), 0);
+        assertEquals(6, places.lon(p + 1), 0);
+        assertEquals(0, places.byName("top do").length);
+        assertEquals(0, new Places.Builder().build().byName("").length);
+    }
+
+    /**
+     * Fuzzy lookups find the names a scan computing every edit distance would.
+     */
+    @Test
+    public void testByNameFuzzy() {
+        Random random = new Random(20);
+        Places.Builder builder = new Places.Builder();
+        for (int i = 0; i < 2000; i++) {
+            String name = WORDS[random.nextInt(WORDS.length)];
+            if (random.nextBoolean()) {
+                name += " " + WORDS[random.nextInt(WORDS.length)];
+            }
+            builder.add(i, 0, 0, mutate(name, random), random.nextInt(3) * 5);
+        }
+        Places places = builder.build();
+
+        for (int i = 0; i < 200; i++) {
+            String query = mutate(WORDS[random.nextInt(WORDS.length)]
+                    + (random.nextBoolean() ? " " + WORDS[random.nextInt(WORDS.length)] : ""),
+                    random);
+            String cleaned = GraphDB.cleanString(query);
+            int edits = Places.maxEdits(cleaned.length());
+            List<Integer> expected = new ArrayList<>();
+            for (int e = 0; e < places.size(); e++) {
+                if (distance(cleaned, GraphDB.cleanString(places.name(e))) <= edits) {
+                    expected.add(e);
+                }
+            }
+            int[] actual = places.byNameFuzzy(query);
+            List<Integer> found = new ArrayList<>();
+            for (int e : actual) {
+                found.add(e);
+            }
+            for (int j = 1; j < actual.length; j++) {
+                int d0 = distance(cleaned, GraphDB.cleanString(places.name(actual[j - 1])));
+                int d1 = distance(cleaned, GraphDB.cleanString(places.name(actual[j])));
+                assertTrue(query, d0 <= d1);
+            }
+            found.sort(null);
+            assertEquals(query, expected, found);
+        }
+
+        Places.Builder small = new Places.Builder();
+        small.add(1, 0, 0, "Berkeley", 0);
+        small.add(2, 0, 0, "Berkeley Bowl", 0);
+        small.add(3, 0, 0, "Bowl", 0);
+        Places few = small.build();
+        assertEquals(1, few.byNameFuzzy("Berkely").length);
+        assertEquals("Berkeley", few.name(few.byNameFuzzy("Berkely")[0]));
+        assertEquals(0, few.byNameFuzzy("Bw").length);
+        assertEquals("Berkeley Bowl", few.name(few.byNameFuzzy("berkeley bowl")[0]));
+    }
+
+    /* Applies up to two random typos. */
+    private static String mutate(String name, Random random) {
+        StringBuilder s = new StringBuilder(name);
+        for (int typos = random.nextInt(3); typos > 0; typos--) {
+            int i = random.nextInt(s.length());
+            switch (random.nextInt(3)) {
+                case 0:
+                    s.deleteCharAt(i);
+                    break;
+                case 1:
+                    s.insert(i, (char) ('a' + random.nextInt(26)));
+                    break;
+                default:
+                    s.setCharAt(i, (char) ('a' + random.nextInt(26)));
+            }
+            if (s.length() == 0) {
+                s.append('a');
+            }
+        }
+        return s.toString();
+    }
+
+    private static int distance(String a, String b) {
+        int[][] d = new int[a.length() + 1][b.length() + 1];
+        for (int i = 0; i <= a.length(); i++) {
+            for (int j = 0; j <= b.length(); j++) {
+                d[i][j] = i == 0 ? j : j == 0 ? i : Math.min(d[i - 1][j - 1]
+                        + (a.charAt(i - 1) == b.charAt(j - 1) ? 0 : 1),
+                        Math.min(d[i - 1][j], d[i][j - 1]) + 1);
+            }
+        }
+        return d[a.length()][b.length()];
+    }
+}
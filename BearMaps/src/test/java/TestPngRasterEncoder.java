@@ -0,0 +1,69 @@
+import static org.junit.Assert.*;
+import org.junit.Test;
+
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.util.Random;
+import java.util.zip.Deflater;
+import javax.imageio.ImageIO;
+
+public class TestPngRasterEncoder {
+    private static BufferedImage randomImage(int width, int height, int type) {
+        BufferedImage image = new BufferedImage(width, height, type);
+        Random random = new Random(61);
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                /* Mostly smooth gradients with some noise, like map tiles. */
+                int rgb = random.nextInt(10) == 0 ? random.nextInt()
+                        : (x * 3 << 16) | (y * 5 << 8) | ((x + y) & 0xFF);
+                image.setRGB(x, y, rgb);
+            }
+        }
+        return image;
+    }
+
+    private static void assertDecodesTo(BufferedImage expected, byte[] png) throws Exception {
+        BufferedImage decoded = ImageIO.read(new ByteArrayInputStream(png));
+        assertEquals(expected.getWidth(), decoded.getWidth());
+        assertEquals(expected.getHeight(), decoded.getHeight());
+        for (int y = 0; y < expected.getHeight(); y++) {
+            for (int x = 0; x < expected.getWidth(); x++) {
+                assertEquals("Pixel (" + x + ", " + y + ")",
+                        expected.getRGB(x, y) & 0xFFFFFF, decoded.getRGB(x, y) & 0xFFFFFF);
+            }
+        }
+    }
+
+    /**
+     * Every filter must round-trip through ImageIO's decoder without losing a pixel.
+     */
+    @Test
+    public void testFiltersAreLossless() throws Exception {
+        BufferedImage image = randomImage(37, 21, BufferedImage.TYPE_INT_RGB);
+        for (PngRasterEncoder.Filter filter : PngRasterEncoder.Filter.values()) {
+            ByteArrayOutputStream os = new ByteArrayOutputStream();
+            new PngRasterEncoder(6, Deflater.FILTERED, filter).encode(image, os);
+            assertDecodesTo(image, os.toByteArray());
+        }
+    }
+
+    /**
+     * Images whose deflated data spans several IDAT chunks, and non-int image types.
+     */
+    @Test
+    public void testLargeAndNonIntImages() throws Exception {
+        BufferedImage large = randomImage(512, 300, BufferedImage.TYPE_INT_RGB);
+        ByteArrayOutputStream os = new ByteArrayOutputStream();
+        new PngRasterEncoder(Deflater.NO_COMPRESSION, Deflater.DEFAULT_STRATEGY,
+                PngRasterEncoder.Filter.NONE).encode(large, os);
+        assertTrue(os.size() > 2 * (1 << 16));
+        assertDecodesTo(large, os.toByteArray());
+
+        BufferedImage bgr = randomImage(20, 20, BufferedImage.TYPE_3BYTE_BGR);
+        os = new ByteArrayOutputStream();
+        new PngRasterEncoder(9, Deflater.DEFAULT_STRATEGY, PngRasterEncoder.Filter.PAETH)
+                .encode(bgr, os);
+        assertDecodesTo(bgr, os.toByteArray());
+    }
+}
@@ -0,0 +1,92 @@
+import static org.junit.Assert.*;
+import org.junit.Test;
+
+import java.util.List;
+import java.util.Random;
+
+public class TestPolyline {
+    private static Route route(double[][] points) {
+        RoadGraph.Builder builder = new RoadGraph.Builder();
+        int[] path = new int[points.length];
+        for (int i = 0; i < points.length; i++) {
+            builder.addNode(i, points[i][0], points[i][1]);
+            if (i > 0) {
+                builder.addEdge(i - 1, i);
+            }
+            path[i] = i;
+        }
+        return Route.of(builder.build(), path);
+    }
+
+    /**
+     * The format's published example encodes to the published string.
+     */
+    @Test
+    public void testEncodeKnown() {
+        Route route = route(new double[][]{{38.5, -120.2}, {40.7, -120.95}, {43.252, -126.453}});
+        assertEquals("_p~iF~ps|U_ulLnnqC_mqNvxq`@", Polyline.encode(route, null));
+        List<double[]> ends = Polyline.decode(Polyline.encode(route, new int[]{0, 2}));
+        assertEquals(2, ends.size());
+        assertEquals(43.252, ends.get(1)[0], 1e-9);
+        assertEquals(-126.453, ends.get(1)[1], 1e-9);
+        assertEquals("", Polyline.encode(Route.EMPTY, null));
+    }
+
+    /**
+     * Decoding gives back every point, to the format's precision.
+     */
+    @Test
+    public void testRoundTrip() {
+        Random random = new Random(22);
+        double[][] points = new double[500][];
+        for (int i = 0; i < points.length; i++) {
+            points[i] = new double[]{37.8 + random.nextDouble() * 0.1,
+                -122.3 + random.nextDouble() * 0.1};
+        }
+        List<double[]> decoded = Polyline.decode(Polyline.encode(route(points), null));
+        assertEquals(points.length, decoded.size());
+        for (int i = 0; i < points.length; i++) {
+            assertEquals(points[i][0], decoded.get(i)[0], 0.5 / Polyline.PRECISION + 1e-12);
+            assertEquals(points[i][1], decoded.get(i)[1], 0.5 / Polyline.PRECISION + 1e-12);
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testDecodeTruncated() {
+        Polyline.decode("_p~iF~ps|");
+    }
+
+    /**
+     * Simplification keeps both ends, drops straight runs and leaves every dropped point within
+     * the tolerance of the segment that replaced it.
+     */
+    @Test
+    public void testSimplify() {
+        assertArrayEquals(new int[]{0, 4}, Polyline.simplify(new double[]{0, 1, 2, 3, 4},
+                new double[]{0, 0, 0, 0, 0}, 0.1));
+        assertArrayEquals(new int[]{0, 2, 4}, Polyline.simplify(new double[]{0, 1, 2, 3, 4},
+                new double[]{0, 1, 2, 1, 0}, 0.1));
+        assertArrayEquals(new int[]{0}, Polyline.simplify(new double[]{5}, new double[]{5}, 1));
+
+        Random random = new Random(23);
+        int n = 2000;
+        double[] xs = new double[n];
+        double[] ys = new double[n];
+        for (int i = 1; i < n; i++) {
+            xs[i] = xs[i - 1] + random.nextDouble();
+            ys[i] = ys[i - 1] + random.nextGaussian();
+        }
+        double tolerance = 2;
+        int[] keep = Polyline.simplify(xs, ys, tolerance);
+        assertEquals(0, keep[0]);
+        assertEquals(n - 1, keep[keep.length - 1]);
+        assertTrue(keep.length < n / 2);
+        for (int k = 1; k < keep.length; k++) {
+            assertTrue(keep[k - 1] < keep[k]);
+            for (int i = keep[k - 1] + 1; i < keep[k]; i++) {
+                assertTrue(Polyline.squaredDistance(xs[i], ys[i], xs[keep[k - 1]],
+                        ys[keep[k - 1]], xs[keep[k]], ys[keep[k]]) <= tolerance * tolerance);
+            }
+        }
+    }
+}
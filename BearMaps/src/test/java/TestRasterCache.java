@@ -0,0 +1,122 @@
+import static org.junit.Assert.*;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class TestRasterCache {
+    private static final int THREADS = 4;
+
+    private final TileIndex index = new TileIndex(MapServer.ROOT_ULLAT, MapServer.ROOT_ULLON,
+            MapServer.ROOT_LRLAT, MapServer.ROOT_LRLON);
+    private final RasterCache.Key key =
+            new RasterCache.Key(index.find(2, 37.87, -122.28, 37.84, -122.23), null, 0);
+
+    /**
+     * Starts THREADS lookups of key and returns once one is rendering and the rest are
+     * waiting on it.
+     */
+    private static List<Future<byte[]>> getAll(ExecutorService pool, RasterCache cache,
+                                               RasterCache.Key key,
+                                               RasterCache.Renderer renderer)
+            throws InterruptedException {
+        List<Future<byte[]>> results = new ArrayList<>();
+        for (int i = 0; i < THREADS; i++) {
+            results.add(pool.submit(() -> cache.get(key, renderer)));
+        }
+        long deadline = System.currentTimeMillis() + 10000;
+        while ((long) cache.stats().get("coalesced") < THREADS - 1) {
+            assertTrue("Lookups did not coalesce.", System.currentTimeMillis() < deadline);
+            Thread.sleep(1);
+        }
+        return results;
+    }
+
+    /**
+     * Concurrent misses on one key render it once and all get that raster, which later
+     * lookups then find in the cache.
+     */
+    @Test
+    public void testSingleFlight() throws Exception {
+        RasterCache cache = new RasterCache(1 << 20);
+        AtomicInteger renders = new AtomicInteger();
+        CountDownLatch release = new CountDownLatch(1);
+        byte[] raster = {1, 2, 3};
+        RasterCache.Renderer renderer = () -> {
+            renders.incrementAndGet();
+            try {
+                assertTrue(release.await(10, TimeUnit.SECONDS));
+            } catch (InterruptedException e) {
+                throw new IOException(e);
+            }
+            return raster;
+        };
+
+        ExecutorService pool = Executors.newFixedThreadPool(THREADS);
+        try {
+            List<Future<byte[]>> results = getAll(pool, cache, key, renderer);
+            assertEquals(1, renders.get());
+            release.countDown();
+            for (Future<byte[]> result : results) {
+                assertSame(raster, result.get(10, TimeUnit.SECONDS));
+            }
+        } finally {
+            pool.shutdownNow();
+        }
+        assertSame(raster, cache.get(key, () -> {
+            throw new AssertionError("Rendered a cached raster.");
+        }));
+        assertEquals(1, renders.get());
+        assertEquals(1L, cache.stats().get("misses"));
+        assertEquals(1L, cache.stats().get("hits"));
+        assertEquals(3L, cache.stats().get("bytes"));
+    }
+
+    /**
+     * A failed render fails every lookup waiting on it and is not cached, so the next lookup
+     * renders again.
+     */
+    @Test
+    public void testFailureNotCached() throws Exception {
+        RasterCache cache = new RasterCache(1 << 20);
+        CountDownLatch release = new CountDownLatch(1);
+        RasterCache.Renderer failing = () -> {
+            try {
+                assertTrue(release.await(10, TimeUnit.SECONDS));
+            } catch (InterruptedException e) {
+                throw new IOException(e);
+            }
+            throw new IOException("Tile missing.");
+        };
+
+        ExecutorService pool = Executors.newFixedThreadPool(THREADS);
+        try {
+            List<Future<byte[]>> results = getAll(pool, cache, key, failing);
+            release.countDown();
+            for (Future<byte[]> result : results) {
+                try {
+                    result.get(10, TimeUnit.SECONDS);
+                    fail("A failed render returned a raster.");
+                } catch (ExecutionException e) {
+                    assertTrue(e.getCause() instanceof IOException);
+                    assertEquals("Tile missing.", e.getCause().getMessage());
+                }
+            }
+        } finally {
+            pool.shutdownNow();
+        }
+        assertEquals(0, cache.stats().get("entries"));
+        byte[] raster = {4, 5};
+        assertSame(raster, cache.get(key, () -> raster));
+        assertEquals(2L, cache.stats().get("misses"));
+        assertSame(raster, cache.get(key, () -> null));
+    }
+}
@@ -0,0 +1,159 @@
+import static org.junit.Assert.*;
+import org.junit.Test;
+
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import javax.imageio.ImageIO;
+
+public class TestRasterComposer {
+    private final TileIndex index = new TileIndex(MapServer.ROOT_ULLAT, MapServer.ROOT_ULLON,
+            MapServer.ROOT_LRLAT, MapServer.ROOT_LRLON);
+
+    /**
+     * Serves a distinct png for every tile id, in a few color types so that decoding has to
+     * convert some of them to int RGB, except for the missing ids.
+     */
+    private static class StubSource implements TileSource {
+        private final Map<String, byte[]> pngs = new HashMap<>();
+        private final Set<String> missing;
+
+        StubSource(Set<String> missing) {
+            this.missing = missing;
+        }
+
+        @Override
+        public synchronized ByteBuffer read(String id) throws IOException {
+            if (missing.contains(id)) {
+                throw new IOException("Tile " + id + " is missing.");
+            }
+            return ByteBuffer.wrap(pngs.computeIfAbsent(id, StubSource::png));
+        }
+
+        private static byte[] png(String id) {
+            int[] types = {BufferedImage.TYPE_INT_RGB, BufferedImage.TYPE_3BYTE_BGR,
+                BufferedImage.TYPE_BYTE_GRAY, BufferedImage.TYPE_INT_ARGB};
+            BufferedImage tile = new BufferedImage(MapServer.TILE_SIZE, MapServer.TILE_SIZE,
+                    types[id.hashCode() & 3]);
+            Random random = new Random(id.hashCode());
+            for (int y = 0; y < MapServer.TILE_SIZE; y++) {
+                for (int x = 0; x < MapServer.TILE_SIZE; x++) {
+                    int rgb = random.nextInt(20) == 0 ? random.nextInt()
+                            : (x << 16) | (y << 8) | (id.length() * 30);
+                    tile.setRGB(x, y, rgb | 0xFF000000);
+                }
+            }
+            ByteArrayOutputStream png = new ByteArrayOutputStream();
+            try {
+                ImageIO.write(tile, "png", png);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            return png.toByteArray();
+        }
+    }
+
+    private TileGrid wholeMap(int depth) {
+        return index.find(depth, MapServer.ROOT_ULLAT, MapServer.ROOT_ULLON,
+                MapServer.ROOT_LRLAT, MapServer.ROOT_LRLON);
+    }
+
+    /**
+     * The raster the original server drew: each decoded tile drawn with drawImage.
+     */
+    private static BufferedImage drawn(TileSource source, TileGrid grid) throws IOException {
+        BufferedImage raster = new BufferedImage(grid.cols() * MapServer.TILE_SIZE,
+                grid.rows() * MapServer.TILE_SIZE, BufferedImage.TYPE_INT_RGB);
+        Graphics2D g = raster.createGraphics();
+        for (int i = 0; i < grid.tiles().size(); i++) {
+            BufferedImage tile = ImageIO.read(new ByteBufferInputStream(
+                    source.read(grid.tiles().get(i).getID())));
+            g.drawImage(tile, i % grid.cols() * MapServer.TILE_SIZE,
+                    i / grid.cols() * MapServer.TILE_SIZE, null);
+        }
+        g.dispose();
+        return raster;
+    }
+
+    private static int[] pixels(BufferedImage image) {
+        return ((DataBufferInt) image.getRaster().getDataBuffer()).getData();
+    }
+
+    /**
+     * Rasters composed from the atlas match those composed from the TileCache and those drawn
+     * with drawImage, pixel for pixel.
+     */
+    @Test
+    public void testAtlasMatchesTileCache() throws IOException {
+        StubSource source = new StubSource(Collections.<String>emptySet());
+        TileAtlas atlas = TileAtlas.load(source, 2);
+        assertEquals(4 + 16, atlas.tileCount());
+        RasterComposer fromAtlas = new RasterComposer(new TileCache(source, 0), atlas,
+                Integer.MAX_VALUE);
+        RasterComposer fromCache = new RasterComposer(new TileCache(source, 1 << 24), null,
+                Integer.MAX_VALUE);
+        for (TileGrid grid : new TileGrid[]{wholeMap(1), wholeMap(2),
+            index.find(2, 37.87, -122.28, 37.84, -122.23)}) {
+            assertTrue(atlas.covers(grid));
+            int[] expected = pixels(drawn(source, grid));
+            assertArrayEquals(expected, pixels(fromCache.compose(grid)));
+            assertArrayEquals(expected, pixels(fromAtlas.compose(grid)));
+        }
+    }
+
+    /**
+     * The atlas does not cover grids with a tile it could not load, or deeper than its
+     * maximum depth.
+     */
+    @Test
+    public void testAtlasMissingTile() {
+        TileAtlas atlas = TileAtlas.load(new StubSource(Collections.singleton("23")), 2);
+        assertEquals(4 + 15, atlas.tileCount());
+        assertFalse(atlas.covers(wholeMap(2)));
+        assertTrue(atlas.covers(wholeMap(1)));
+        TileGrid upperLeft = index.find(2, MapServer.ROOT_ULLAT, MapServer.ROOT_ULLON,
+                MapServer.ROOT_ULLAT - 1e-6, MapServer.ROOT_ULLON + 1e-6);
+        assertEquals("11", upperLeft.tiles().get(0).getID());
+        assertTrue(atlas.covers(upperLeft));
+        assertFalse(atlas.covers(wholeMap(3)));
+    }
+
+    /**
+     * Composing on the WorkerPool places every tile in its own block exactly where composing
+     * on the request thread does, from the cache and from the atlas, and a tile that cannot
+     * be read still fails the raster with an IOException.
+     */
+    @Test
+    public void testParallelMatchesSerial() throws IOException {
+        StubSource source = new StubSource(Collections.singleton("4444"));
+        TileAtlas atlas = TileAtlas.load(source, 2);
+        for (TileAtlas maybeAtlas : new TileAtlas[]{null, atlas}) {
+            RasterComposer serial = new RasterComposer(new TileCache(source, 1 << 24),
+                    maybeAtlas, Integer.MAX_VALUE);
+            RasterComposer parallel = new RasterComposer(new TileCache(source, 1 << 24),
+                    maybeAtlas, 1);
+            for (TileGrid grid : new TileGrid[]{wholeMap(1), wholeMap(2),
+                index.find(3, 37.87, -122.28, 37.84, -122.23)}) {
+                assertArrayEquals(pixels(serial.compose(grid)), pixels(parallel.compose(grid)));
+            }
+            TileGrid lowerRight = index.find(4, MapServer.ROOT_LRLAT + 0.005,
+                    MapServer.ROOT_LRLON - 0.008, MapServer.ROOT_LRLAT, MapServer.ROOT_LRLON);
+            assertEquals(4, lowerRight.tiles().size());
+            try {
+                parallel.compose(lowerRight);
+                fail("A raster with a missing tile was composed.");
+            } catch (IOException expected) {
+                assertEquals("Tile 4444 is missing.", expected.getMessage());
+            }
+        }
+    }
+}
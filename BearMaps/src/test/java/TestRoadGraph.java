@@ -0,0 +1,39 @@
+import static org.junit.Assert.*;
+import org.junit.Test;
+
+public class TestRoadGraph {
+    /**
+     * Nodes on no road and segments to unknown nodes are dropped; every segment is stored in
+     * both directions once, with its length as weight.
+     */
+    @Test
+    public void testBuild() {
+        RoadGraph.Builder builder = new RoadGraph.Builder();
+        builder.addEdge(30, 10);
+        builder.addNode(30, 0, 1);
+        builder.addNode(10, 0, 0);
+        builder.addNode(20, 1, 0);
+        builder.addNode(40, 5, 5);
+        builder.addEdge(10, 20);
+        builder.addEdge(20, 10);
+        builder.addEdge(10, 99);
+        builder.addEdge(20, 20);
+        RoadGraph roads = builder.build();
+
+        assertEquals(3, roads.size());
+        assertEquals(4, roads.edgeCount());
+        assertEquals(-1, roads.indexOf(40));
+        assertEquals(-1, roads.indexOf(99));
+        int a = roads.indexOf(10);
+        int b = roads.indexOf(20);
+        int c = roads.indexOf(30);
+        assertEquals(10, roads.osmId(a));
+        assertEquals(1.0, roads.lat(b), 0);
+        assertEquals(1.0, roads.lon(c), 0);
+        assertEquals(2, roads.endEdge(a) - roads.firstEdge(a));
+        assertEquals(1, roads.endEdge(b) - roads.firstEdge(b));
+        int e = roads.firstEdge(c);
+        assertEquals(a, roads.target(e));
+        assertEquals(1.0, roads.weight(e), 1e-12);
+    }
+}
@@ -0,0 +1,95 @@
+import static org.junit.Assert.*;
+import org.junit.Test;
+
+import java.awt.BasicStroke;
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.util.Random;
+
+public class TestRouteOverlay {
+    private static final TileIndex TILES = new TileIndex(MapServer.ROOT_ULLAT,
+            MapServer.ROOT_ULLON, MapServer.ROOT_LRLAT, MapServer.ROOT_LRLON);
+
+    /**
+     * A random walk across the map with steps of a few meters.
+     */
+    private static Route walk(Random random, int n) {
+        RoadGraph.Builder builder = new RoadGraph.Builder();
+        double lat = (MapServer.ROOT_ULLAT + MapServer.ROOT_LRLAT) / 2;
+        double lon = (MapServer.ROOT_ULLON + MapServer.ROOT_LRLON) / 2;
+        int[] path = new int[n];
+        for (int i = 0; i < n; i++) {
+            builder.addNode(i, lat, lon);
+            if (i > 0) {
+                builder.addEdge(i - 1, i);
+            }
+            path[i] = i;
+            lat += random.nextGaussian() * 1e-4;
+            lon += random.nextGaussian() * 1e-4 + 2e-5;
+        }
+        return Route.of(builder.build(), path);
+    }
+
+    private static Graphics2D pen(BufferedImage image) {
+        Graphics2D g = image.createGraphics();
+        g.setStroke(new BasicStroke(MapServer.ROUTE_STROKE_WIDTH_PX, BasicStroke.CAP_ROUND,
+                BasicStroke.JOIN_ROUND));
+        g.setColor(Color.WHITE);
+        return g;
+    }
+
+    /**
+     * Drawing only the segments near the raster paints the same pixels as drawing them all,
+     * and skips most of a long route at a deep zoom.
+     */
+    @Test
+    public void testDrawMatchesFullDraw() {
+        Random random = new Random(23);
+        Route route = walk(random, 5000);
+        for (int depth = 1; depth <= TileIndex.MAX_DEPTH; depth++) {
+            RouteOverlay overlay = route.overlay(TILES, depth);
+            assertSame(overlay, route.overlay(TILES, depth));
+            int[] kept = overlay.kept();
+            assertEquals(0, kept[0]);
+            assertEquals(route.size() - 1, kept[kept.length - 1]);
+            double lonPerPixel = TILES.lonPerPixel(depth);
+            double latPerPixel = TILES.latPerPixel(depth);
+            for (int q = 0; q < 20; q++) {
+                int k = random.nextInt(route.size());
+                double x0 = route.lon(k) / lonPerPixel - random.nextInt(512);
+                double y0 = -route.lat(k) / latPerPixel - random.nextInt(256);
+
+                BufferedImage clipped = new BufferedImage(512, 256, BufferedImage.TYPE_INT_RGB);
+                Graphics2D g = pen(clipped);
+                int drawn = overlay.draw(g, x0, y0, 512, 256, MapServer.ROUTE_STROKE_WIDTH_PX);
+                g.dispose();
+
+                BufferedImage full = new BufferedImage(512, 256, BufferedImage.TYPE_INT_RGB);
+                g = pen(full);
+                for (int i = 0; i + 1 < kept.length; i++) {
+                    g.drawLine((int) (route.lon(kept[i]) / lonPerPixel - x0),
+                            (int) (-route.lat(kept[i]) / latPerPixel - y0),
+                            (int) (route.lon(kept[i + 1]) / lonPerPixel - x0),
+                            (int) (-route.lat(kept[i + 1]) / latPerPixel - y0));
+                }
+                g.dispose();
+
+                assertTrue(drawn > 0);
+                for (int y = 0; y < 256; y++) {
+                    for (int x = 0; x < 512; x++) {
+                        assertEquals(depth + " " + x + " " + y,
+                                full.getRGB(x, y), clipped.getRGB(x, y));
+                    }
+                }
+                if (depth == TileIndex.MAX_DEPTH) {
+                    assertTrue(drawn < overlay.segments() / 4);
+                }
+            }
+            Graphics2D g = pen(new BufferedImage(512, 256, BufferedImage.TYPE_INT_RGB));
+            assertEquals(0, overlay.draw(g, -1e9, -1e9, 512, 256, 5));
+            g.dispose();
+        }
+        assertTrue(route.overlay(TILES, 1).segments() < route.overlay(TILES, 7).segments());
+    }
+}
@@ -0,0 +1,77 @@
+import static org.junit.Assert.*;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+public class TestRouteStore {
+    private long now;
+
+    private static Route route() {
+        RoadGraph.Builder builder = new RoadGraph.Builder();
+        builder.addNode(1, 0, 0);
+        builder.addNode(2, 1, 1);
+        builder.addEdge(1, 2);
+        return Route.of(builder.build(), new int[]{0, 1});
+    }
+
+    /**
+     * Each client's route is kept apart and can be cleared on its own.
+     */
+    @Test
+    public void testPutGetRemove() {
+        RouteStore store = new RouteStore(10, 1000, () -> now);
+        Route a = route();
+        Route b = route();
+        String idA = store.put(a);
+        String idB = store.put(b);
+        assertNotEquals(idA, idB);
+        assertSame(a, store.get(idA));
+        assertSame(b, store.get(idB));
+        store.remove(idA);
+        assertNull(store.get(idA));
+        assertSame(b, store.get(idB));
+        assertNull(store.get(null));
+        assertNull(store.get("nonsense"));
+    }
+
+    /**
+     * Routes expire once unused for the time to live; using one keeps it alive.
+     */
+    @Test
+    public void testExpiry() {
+        RouteStore store = new RouteStore(10, 1000, () -> now);
+        String used = store.put(route());
+        String unused = store.put(route());
+        now = 800;
+        assertNotNull(store.get(used));
+        now = 1500;
+        assertNotNull(store.get(used));
+        assertNull(store.get(unused));
+        now = 3000;
+        assertNull(store.get(used));
+        assertEquals(0, store.size());
+    }
+
+    /**
+     * A full store drops its least recently used routes first.
+     */
+    @Test
+    public void testEviction() {
+        RouteStore store = new RouteStore(16, 1000000, () -> now);
+        List<String> ids = new ArrayList<>();
+        for (int i = 0; i < 16; i++) {
+            now = i;
+            ids.add(store.put(route()));
+        }
+        now = 100;
+        assertNotNull(store.get(ids.get(0)));
+        now = 101;
+        String last = store.put(route());
+        assertTrue(store.size() <= 16);
+        assertNotNull(store.get(ids.get(0)));
+        assertNotNull(store.get(last));
+        assertNull(store.get(ids.get(1)));
+        assertNotNull(store.get(ids.get(15)));
+    }
+}
@@ -0,0 +1,375 @@
+import static org.junit.Assert.*;
+import org.junit.Test;
+
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+
+public class TestRouters {
+    private static final int SIDE = 40;
+
+    /**
+     * A jittered SIDE x SIDE street grid with a random tenth of the blocks missing and an
+     * unconnected island, so some queries have no route.
+     */
+    private static RoadGraph streetGrid(Random random) {
+        RoadGraph.Builder builder = new RoadGraph.Builder();
+        for (int row = 0; row < SIDE; row++) {
+            for (int col = 0; col < SIDE; col++) {
+                builder.addNode(row * SIDE + col, row + random.nextDouble() * 0.6,
+                        col + random.nextDouble() * 0.6);
+                if (col > 0 && random.nextInt(10) > 0) {
+                    builder.addEdge(row * SIDE + col - 1, row * SIDE + col);
+                }
+                if (row > 0 && random.nextInt(10) > 0) {
+                    builder.addEdge((row - 1) * SIDE + col, row * SIDE + col);
+                }
+            }
+        }
+        builder.addNode(-1, -5, -5);
+        builder.addNode(-2, -5, -6);
+        builder.addEdge(-1, -2);
+        return builder.build();
+    }
+
+    private static double length(RoadGraph roads, int[] path) {
+        double length = 0;
+        for (int i = 1; i < path.length; i++) {
+            boolean adjacent = false;
+            for (int e = roads.firstEdge(path[i - 1]); e < roads.endEdge(path[i - 1]); e++) {
+                if (roads.target(e) == path[i]) {
+                    adjacent = true;
+                    length += roads.weight(e);
+                    break;
+                }
+            }
+            assertTrue("Path uses a missing edge.", adjacent);
+        }
+        return length;
+    }
+
+    /**
+     * Textbook Dijkstra with a binary heap of (distance, node) entries and lazy deletion.
+     *
+     * @return The distance from source to every node, infinite where there is no path.
+     */
+    private static double[] dijkstra(RoadGraph roads, int source) {
+        double[] dist = new double[roads.size()];
+        Arrays.fill(dist, Double.POSITIVE_INFINITY);
+        dist[source] = 0;
+        PriorityQueue<double[]> fringe = new PriorityQueue<>((a, b) -> Double.compare(a[0], b[0]));
+        fringe.add(new double[]{0, source});
+        while (!fringe.isEmpty()) {
+            double[] entry = fringe.poll();
+            int v = (int) entry[1];
+            if (entry[0] > dist[v]) {
+                continue;
+            }
+            for (int e = roads.firstEdge(v); e < roads.endEdge(v); e++) {
+                double d = dist[v] + roads.weight(e);
+                if (d < dist[roads.target(e)]) {
+                    dist[roads.target(e)] = d;
+                    fringe.add(new double[]{d, roads.target(e)});
+                }
+            }
+        }
+        return dist;
+    }
+
+    /**
+     * A* must find a valid path exactly as long as the shortest one plain Dijkstra finds, or
+     * none where Dijkstra cannot reach the end, and reuse its search state correctly across
+     * queries.
+     */
+    @Test
+    public void testAStar() {
+        Random random = new Random(12);
+        RoadGraph roads = streetGrid(random);
+        Router astar = new AStarRouter(roads);
+        for (int s = 0; s < 40; s++) {
+            int start = s == 0 ? roads.indexOf(-1) : random.nextInt(roads.size());
+            double[] dist = dijkstra(roads, start);
+            for (int q = 0; q < 25; q++) {
+                int end = q == 0 ? start : random.nextInt(roads.size());
+                int[] path = astar.shortestPath(start, end);
+                if (Double.isInfinite(dist[end])) {
+                    assertEquals(0, path.length);
+                    continue;
+                }
+                assertEquals(start, path[0]);
+                assertEquals(end, path[path.length - 1]);
+                assertEquals(dist[end], length(roads, path), 1e-9);
+            }
+        }
+    }
+
+    /**
+     * Every router must find a valid path of the same length as A*, or agree there is none.
+     */
+    private static void checkAgainstAStar(RoadGraph roads, Router router, Random random) {
+        Router astar = new AStarRouter(roads);
+        for (int q = 0; q < 500; q++) {
+            int start = random.nextInt(roads.size());
+            int end = q == 0 ? start : random.nextInt(roads.size());
+            int[] expected = astar.shortestPath(start, end);
+            int[] actual = router.shortestPath(start, end);
+            if (expected.length == 0) {
+                assertEquals(0, actual.length);
+                continue;
+            }
+            assertEquals(start, actual[0]);
+            assertEquals(end, actual[actual.length - 1]);
+            assertEquals(length(roads, expected), length(roads, actual), 1e-9);
+        }
+    }
+
+    @Test
+    public void testAlt() {
+        Random random = new Random(14);
+        RoadGraph roads = streetGrid(random);
+        checkAgainstAStar(roads, new AltRouter(roads, Landmarks.select(roads, 8)), random);
+    }
+
+    /**
+     * Without landmarks ALT has only the straight-line bound and must still be exact.
+     */
+    @Test
+    public void testAltWithoutLandmarks() {
+        Random random = new Random(13);
+        RoadGraph roads = streetGrid(random);
+        Landmarks none = Landmarks.select(roads, 0);
+        assertEquals(0, none.count());
+        assertEquals(0, Landmarks.select(roads, -1).count());
+        checkAgainstAStar(roads, new AltRouter(roads, none), random);
+    }
+
+    @Test
+    public void testContractionHierarchy() {
+        Random random = new Random(15);
+        RoadGraph roads = streetGrid(random);
+        checkAgainstAStar(roads, new ChRouter(ContractionHierarchy.build(roads)), random);
+    }
+
+    /**
+     * Every matrix entry must be the length of A*'s path, or infinite where A* finds none,
+     * including for repeated targets and sources that are also targets.
+     */
+    @Test
+    public void testDistanceMatrix() {
+        Random random = new Random(24);
+        RoadGraph roads = streetGrid(random);
+        Router astar = new AStarRouter(roads);
+        int[] sources = new int[30];
+        int[] targets = new int[45];
+        for (int i = 0; i < sources.length; i++) {
+            sources[i] = random.nextInt(roads.size());
+        }
+        for (int j = 0; j < targets.length; j++) {
+            targets[j] = j % 5 == 0 ? sources[j % sources.length] : random.nextInt(roads.size());
+        }
+        targets[1] = targets[2];
+        double[][] distances = new DistanceMatrix(roads).compute(sources, targets);
+        assertEquals(sources.length, distances.length);
+        for (int i = 0; i < sources.length; i++) {
+            assertEquals(targets.length, distances[i].length);
+            for (int j = 0; j < targets.length; j++) {
+                int[] path = astar.shortestPath(sources[i], targets[j]);
+                if (path.length == 0) {
+                    assertTrue(Double.isInfinite(distances[i][j]));
+                } else {
+                    assertEquals(length(roads, path), distances[i][j], 1e-9);
+                }
+            }
+        }
+        assertEquals(0, new DistanceMatrix(roads).compute(new int[0], targets).length);
+    }
+
+    /**
+     * Finds routes the way MapServer.findRoute does, from the nodes nearest the endpoints.
+     */
+    private static Function<Map<String, Double>, Route> finder(RoadGraph roads) {
+        SpatialIndex index = new SpatialIndex(roads);
+        Router astar = new AStarRouter(roads);
+        return params -> {
+            int start = index.nearest(params.get("start_lat"), params.get("start_lon"));
+            int end = index.nearest(params.get("end_lat"), params.get("end_lon"));
+            int[] path = astar.shortestPath(start, end);
+            return path.length == 0 ? Route.EMPTY : Route.of(roads, path);
+        };
+    }
+
+    private static String routeJson(double startLat, double startLon, double endLat,
+                                    double endLon) {
+        return "{\"start_lat\": " + startLat + ", \"start_lon\": " + startLon
+                + ", \"end_lat\": " + endLat + ", \"end_lon\": " + endLon + "}";
+    }
+
+    private static JsonObject[] writeRoutes(String body,
+                                            Function<Map<String, Double>, Route> finder,
+                                            ExecutorService pool, int maxInFlight,
+                                            ByteArrayOutputStream os) throws IOException {
+        MapServer.writeRoutes(MapServer.parseRouteRequests(body), finder, pool, maxInFlight, os);
+        String[] lines = new String(os.toByteArray(), StandardCharsets.UTF_8).split("\n");
+        JsonObject[] routes = new JsonObject[lines.length];
+        for (int i = 0; i < lines.length; i++) {
+            routes[i] = new JsonParser().parse(lines[i]).getAsJsonObject();
+        }
+        return routes;
+    }
+
+    /**
+     * Each batch route is written once with its request's index: found ones with A*'s nodes and
+     * length, unreachable ones as not found, and a failing one as an error that does not stop
+     * the others.
+     */
+    @Test
+    public void testBatchRoutes() throws IOException {
+        Random random = new Random(25);
+        RoadGraph roads = streetGrid(random);
+        Router astar = new AStarRouter(roads);
+        Function<Map<String, Double>, Route> finder = finder(roads);
+        int[][] pairs = new int[40][];
+        StringBuilder body = new StringBuilder("[");
+        for (int i = 0; i < pairs.length; i++) {
+            int start = random.nextInt(roads.size());
+            int end = i % 10 == 0 ? roads.indexOf(-1) : random.nextInt(roads.size());
+            pairs[i] = new int[]{start, end};
+            body.append(i == 0 ? "" : ", ").append(i == 7 ? routeJson(-90, 0, 0, 0)
+                    : routeJson(roads.lat(start), roads.lon(start), roads.lat(end),
+                    roads.lon(end)));
+        }
+        body.append("]");
+        Function<Map<String, Double>, Route> failing = params -> {
+            if (params.get("start_lat") == -90) {
+                throw new IllegalStateException("No road near the south pole.");
+            }
+            return finder.apply(params);
+        };
+
+        ExecutorService pool = Executors.newFixedThreadPool(4);
+        try {
+            JsonObject[] routes = writeRoutes(body.toString(), failing, pool, 8,
+                    new ByteArrayOutputStream());
+            assertEquals(pairs.length, routes.length);
+            boolean[] seen = new boolean[pairs.length];
+            for (JsonObject route : routes) {
+                int i = route.get("index").getAsInt();
+                assertFalse(seen[i]);
+                seen[i] = true;
+                if (i == 7) {
+                    assertEquals("No road near the south pole.",
+                            route.get("error").getAsString());
+                    assertNull(route.get("found"));
+                    continue;
+                }
+                int[] path = astar.shortestPath(pairs[i][0], pairs[i][1]);
+                assertEquals(path.length > 0, route.get("found").getAsBoolean());
+                assertEquals(path.length, route.get("ids").getAsJsonArray().size());
+                assertEquals(path.length == 0 ? 0 : length(roads, path),
+                        route.get("length").getAsDouble(), 1e-9);
+                for (int k = 0; k < path.length; k++) {
+                    assertEquals(roads.osmId(path[k]),
+                            route.get("ids").getAsJsonArray().get(k).getAsLong());
+                }
+            }
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
+    /**
+     * A route is written as soon as it is found, ahead of earlier requests still searching,
+     * and no more than maxInFlight routes are searched for at once.
+     */
+    @Test
+    public void testBatchRoutesStreaming() throws IOException {
+        RoadGraph roads = streetGrid(new Random(26));
+        Function<Map<String, Double>, Route> finder = finder(roads);
+        CountDownLatch firstLine = new CountDownLatch(1);
+        ByteArrayOutputStream os = new ByteArrayOutputStream() {
+            @Override
+            public void flush() {
+                firstLine.countDown();
+            }
+        };
+        Function<Map<String, Double>, Route> slowFirst = params -> {
+            if (params.get("start_lat") == 1.5) {
+                try {
+                    assertTrue(firstLine.await(10, TimeUnit.SECONDS));
+                } catch (InterruptedException e) {
+                    throw new IllegalStateException(e);
+                }
+            }
+            return finder.apply(params);
+        };
+        ExecutorService pool = Executors.newFixedThreadPool(8);
+        try {
+            JsonObject[] routes = writeRoutes("[" + routeJson(1.5, 1.5, 3, 3) + ", "
+                    + routeJson(2, 2, 3, 3) + "]", slowFirst, pool, 2, os);
+            assertEquals(1, routes[0].get("index").getAsInt());
+            assertEquals(0, routes[1].get("index").getAsInt());
+
+            AtomicInteger running = new AtomicInteger();
+            AtomicInteger mostRunning = new AtomicInteger();
+            Function<Map<String, Double>, Route> counting = params -> {
+                mostRunning.accumulateAndGet(running.incrementAndGet(), Math::max);
+                try {
+                    Thread.sleep(2);
+                } catch (InterruptedException e) {
+                    throw new IllegalStateException(e);
+                }
+                running.decrementAndGet();
+                return finder.apply(params);
+            };
+            StringBuilder body = new StringBuilder("[");
+            for (int i = 0; i < 30; i++) {
+                body.append(i == 0 ? "" : ", ").append(routeJson(i, i, 0, 0));
+            }
+            body.append("]");
+            routes = writeRoutes(body.toString(), counting, pool, 3,
+                    new ByteArrayOutputStream());
+            assertEquals(30, routes.length);
+            assertTrue(mostRunning.get() <= 3);
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
+    /**
+     * Malformed /routes bodies are rejected before any route is searched for; the endpoint
+     * turns the message into its 403 response.
+     */
+    @Test
+    public void testParseRouteRequests() {
+        assertEquals(0, MapServer.parseRouteRequests("[]").length);
+        assertEquals(2, MapServer.parseRouteRequests("[" + routeJson(1, 2, 3, 4) + ", "
+                + routeJson(5, 6, 7, 8) + "]").length);
+        StringBuilder tooMany = new StringBuilder("[");
+        for (int i = 0; i <= Integer.getInteger("bearmaps.maxBatchRoutes", 10000); i++) {
+            tooMany.append(i == 0 ? "" : ", ").append(routeJson(1, 2, 3, 4));
+        }
+        tooMany.append("]");
+        for (String body : new String[]{"", "[{", "{\"start_lat\": 1}", "[null]",
+            "[{\"start_lat\": 1, \"start_lon\": 2, \"end_lat\": 3}]", tooMany.toString()}) {
+            try {
+                MapServer.parseRouteRequests(body);
+                fail(body.length() > 40 ? "Too many routes were accepted." : body);
+            } catch (IllegalArgumentException expected) {
+                /* Rejected. */
+            }
+        }
+    }
+}
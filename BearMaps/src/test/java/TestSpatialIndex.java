@@ -0,0 +1,73 @@
+import static org.junit.Assert.*;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Random;
+
+public class TestSpatialIndex {
+    private static final int NODES = 2000;
+
+    /**
+     * A random graph whose nodes sit on a coarse lattice, so many queries have ties.
+     */
+    private static RoadGraph randomGraph(Random random) {
+        RoadGraph.Builder builder = new RoadGraph.Builder();
+        for (int i = 0; i < NODES; i++) {
+            builder.addNode(i, random.nextInt(50) / 50.0, random.nextInt(50) / 50.0);
+            if (i > 0) {
+                builder.addEdge(i - 1, i);
+            }
+        }
+        return builder.build();
+    }
+
+    private static double squared(RoadGraph roads, int v, double lat, double lon) {
+        double dLat = roads.lat(v) - lat;
+        double dLon = roads.lon(v) - lon;
+        return dLat * dLat + dLon * dLon;
+    }
+
+    /**
+     * Queries must agree with a linear scan, including the lowest-index tie-break.
+     */
+    @Test
+    public void testMatchesLinearScan() {
+        Random random = new Random(61);
+        RoadGraph roads = randomGraph(random);
+        SpatialIndex index = new SpatialIndex(roads);
+        for (int q = 0; q < 300; q++) {
+            double lat = random.nextDouble() * 1.2 - 0.1;
+            double lon = random.nextDouble() * 1.2 - 0.1;
+            Integer[] byDistance = new Integer[roads.size()];
+            for (int v = 0; v < byDistance.length; v++) {
+                byDistance[v] = v;
+            }
+            Arrays.sort(byDistance, (a, b) -> {
+                int c = Double.compare(squared(roads, a, lat, lon), squared(roads, b, lat, lon));
+                return c != 0 ? c : Integer.compare(a, b);
+            });
+            assertEquals((int) byDistance[0], index.nearest(lat, lon));
+
+            int[] nearest = index.nearest(lat, lon, 7);
+            for (int i = 0; i < 7; i++) {
+                assertEquals((int) byDistance[i], nearest[i]);
+            }
+
+            double radius = random.nextDouble() * 0.2;
+            int[] within = index.withinRadius(lat, lon, radius);
+            Arrays.sort(within);
+            int[] expected = Arrays.stream(byDistance).mapToInt(Integer::intValue)
+                    .filter(v -> squared(roads, v, lat, lon) <= radius * radius).sorted()
+                    .toArray();
+            assertArrayEquals(expected, within);
+        }
+    }
+
+    @Test
+    public void testEmpty() {
+        SpatialIndex index = new SpatialIndex(new RoadGraph.Builder().build());
+        assertEquals(-1, index.nearest(0, 0));
+        assertEquals(0, index.nearest(0, 0, 3).length);
+        assertEquals(0, index.withinRadius(0, 0, 1).length);
+    }
+}
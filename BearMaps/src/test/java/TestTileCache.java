@@ -0,0 +1,96 @@
+import static org.junit.Assert.*;
+import org.junit.Test;
+
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.HashMap;
+import java.util.Map;
+import javax.imageio.ImageIO;
+
+public class TestTileCache {
+    /**
+     * Serves a width x 10 png for each id "&lt;width&gt;-&lt;n&gt;" and counts the reads.
+     */
+    private static class CountingSource implements TileSource {
+        final Map<String, Integer> reads = new HashMap<>();
+
+        @Override
+        public ByteBuffer read(String id) throws IOException {
+            reads.merge(id, 1, Integer::sum);
+            int width = Integer.parseInt(id.substring(0, id.indexOf('-')));
+            BufferedImage tile = new BufferedImage(width, 10, BufferedImage.TYPE_3BYTE_BGR);
+            tile.setRGB(0, 0, id.hashCode());
+            ByteArrayOutputStream png = new ByteArrayOutputStream();
+            ImageIO.write(tile, "png", png);
+            return ByteBuffer.wrap(png.toByteArray());
+        }
+    }
+
+    /**
+     * Tiles are weighed by their decoded int RGB pixels, and the least recently used ones are
+     * dropped until the rest fit the byte budget.
+     */
+    @Test
+    public void testEvictsLeastRecentlyUsed() throws IOException {
+        CountingSource source = new CountingSource();
+        TileCache cache = new TileCache(source, 1600);
+
+        BufferedImage a = cache.get("10-a");
+        assertEquals(BufferedImage.TYPE_INT_RGB, a.getType());
+        assertEquals(400, TileCache.sizeOf(a));
+        cache.get("20-b");
+        assertEquals(1200L, cache.stats().get("bytes"));
+        assertSame(a, cache.get("10-a"));
+        cache.get("10-c");
+        assertEquals(1600L, cache.stats().get("bytes"));
+        assertEquals(0, cache.evictions());
+
+        /* 20-b is now the least recently used, and dropping it alone makes room. */
+        cache.get("10-d");
+        assertEquals(1, cache.evictions());
+        assertEquals(3, cache.stats().get("entries"));
+        assertEquals(1200L, cache.stats().get("bytes"));
+        assertSame(a, cache.get("10-a"));
+        cache.get("10-c");
+        cache.get("10-d");
+        assertEquals(4, cache.misses());
+        assertEquals(4, cache.hits());
+
+        /* Bringing 20-b back drops only 10-a, the least recently used, then re-reading 10-a
+         * drops 10-c. */
+        cache.get("20-b");
+        assertEquals(2, (int) source.reads.get("20-b"));
+        assertEquals(2, cache.evictions());
+        assertEquals(3, cache.stats().get("entries"));
+        assertEquals(1600L, cache.stats().get("bytes"));
+        cache.get("10-d");
+        cache.get("10-a");
+        assertEquals(3, cache.evictions());
+        assertEquals(1600L, cache.stats().get("bytes"));
+        cache.get("20-b");
+        cache.get("10-c");
+        assertEquals(2, (int) source.reads.get("10-a"));
+        assertEquals(2, (int) source.reads.get("10-c"));
+        assertEquals(1, (int) source.reads.get("10-d"));
+    }
+
+    /**
+     * A tile larger than the whole budget is returned but neither cached nor allowed to evict
+     * anything.
+     */
+    @Test
+    public void testOversizedTile() throws IOException {
+        CountingSource source = new CountingSource();
+        TileCache cache = new TileCache(source, 1600);
+        cache.get("10-a");
+        BufferedImage big = cache.get("50-big");
+        assertEquals(2000, TileCache.sizeOf(big));
+        assertEquals(1, cache.stats().get("entries"));
+        assertEquals(400L, cache.stats().get("bytes"));
+        assertEquals(0, cache.evictions());
+        cache.get("50-big");
+        assertEquals(2, (int) source.reads.get("50-big"));
+    }
+}
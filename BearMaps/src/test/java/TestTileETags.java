@@ -0,0 +1,90 @@
+import static org.junit.Assert.*;
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+public class TestTileETags {
+    private static final String ETAG = "\"0beec7b5ea3f0fdbc95d0dd47f3c5bc275da8a33\"";
+
+    /**
+     * Equal bytes get the same quoted SHA-1, different bytes a different one, and hashing
+     * leaves the buffer where it was.
+     */
+    @Test
+    public void testGet() {
+        TileETags etags = new TileETags();
+        ByteBuffer foo = ByteBuffer.wrap("foo".getBytes(StandardCharsets.US_ASCII));
+        assertEquals(ETAG, etags.get("1", foo));
+        assertEquals(3, foo.remaining());
+        assertEquals(ETAG, etags.get("1", foo));
+        assertEquals(ETAG, new TileETags().get("1234",
+                ByteBuffer.wrap("foo".getBytes(StandardCharsets.US_ASCII))));
+        String bar = etags.get("2", ByteBuffer.wrap("bar".getBytes(StandardCharsets.US_ASCII)));
+        assertNotEquals(ETAG, bar);
+        assertTrue(bar.matches("\"[0-9a-f]{40}\""));
+    }
+
+    /**
+     * If-None-Match matches on any listed tag, ignoring W/ and whitespace, or on *.
+     */
+    @Test
+    public void testMatches() {
+        assertFalse(TileETags.matches(null, ETAG));
+        assertFalse(TileETags.matches("", ETAG));
+        assertTrue(TileETags.matches(ETAG, ETAG));
+        assertTrue(TileETags.matches("W/" + ETAG, ETAG));
+        assertTrue(TileETags.matches("\"abc\", W/\"def\" ,  " + ETAG, ETAG));
+        assertTrue(TileETags.matches("*", ETAG));
+        assertTrue(TileETags.matches("\"abc\", *", ETAG));
+        assertFalse(TileETags.matches("\"abc\", W/\"def\"", ETAG));
+        /* Tags are compared quoted and whole. */
+        assertFalse(TileETags.matches(ETAG.substring(1, ETAG.length() - 1), ETAG));
+        assertFalse(TileETags.matches(ETAG.substring(0, 20) + "\"", ETAG));
+    }
+
+    /**
+     * Every id the QuadTree builds, at every depth, has its own slot, so /tiles/:id accepts
+     * exactly the QTreeNode ids and each keeps its own tag.
+     */
+    @Test
+    public void testSlotsMatchQuadTree() {
+        QuadTree quadTree = new QuadTree(MapServer.ROOT_ULLAT, MapServer.ROOT_ULLON,
+                MapServer.ROOT_LRLAT, MapServer.ROOT_LRLON);
+        QTreeNode root = new QTreeNode("root", MapServer.ROOT_ULLAT, MapServer.ROOT_ULLON,
+                MapServer.ROOT_LRLAT, MapServer.ROOT_LRLON);
+        quadTree.insert(root, "0", MapServer.ROOT_ULLAT, MapServer.ROOT_ULLON,
+                MapServer.ROOT_LRLAT, MapServer.ROOT_LRLON);
+        boolean[] used = new boolean[TileIndex.slotCount()];
+        int[] perDepth = new int[TileIndex.MAX_DEPTH + 1];
+        for (QTreeNode child : new QTreeNode[]{root.first, root.second, root.third,
+            root.fourth}) {
+            checkSlots(child, used, perDepth);
+        }
+        for (int depth = 1; depth <= TileIndex.MAX_DEPTH; depth++) {
+            assertEquals(1 << (2 * depth), perDepth[depth]);
+        }
+        for (boolean slot : used) {
+            assertTrue(slot);
+        }
+        for (String id : new String[]{"", "0", "5", "12a", "12345671"}) {
+            assertEquals(id, -1, TileIndex.slot(id));
+        }
+    }
+
+    private static void checkSlots(QTreeNode node, boolean[] used, int[] perDepth) {
+        if (node == null) {
+            return;
+        }
+        String id = node.getID();
+        int slot = TileIndex.slot(id);
+        assertTrue(id, slot >= 0 && slot < used.length);
+        assertFalse(id, used[slot]);
+        used[slot] = true;
+        perDepth[id.length()] += 1;
+        checkSlots(node.first, used, perDepth);
+        checkSlots(node.second, used, perDepth);
+        checkSlots(node.third, used, perDepth);
+        checkSlots(node.fourth, used, perDepth);
+    }
+}
@@ -0,0 +1,90 @@
+import static org.junit.Assert.*;
+import org.junit.Test;
+
+import java.util.List;
+
+public class TestTileIndex {
+    private final TileIndex index = new TileIndex(MapServer.ROOT_ULLAT, MapServer.ROOT_ULLON,
+            MapServer.ROOT_LRLAT, MapServer.ROOT_LRLON);
+
+    /**
+     * Every tile the QuadTree builds must be found under the same id with the same bounds.
+     */
+    @Test
+    public void testIdsMatchQuadTree() {
+        QuadTree quadTree = new QuadTree(MapServer.ROOT_ULLAT, MapServer.ROOT_ULLON,
+                MapServer.ROOT_LRLAT, MapServer.ROOT_LRLON);
+        QTreeNode root = new QTreeNode("root", MapServer.ROOT_ULLAT, MapServer.ROOT_ULLON,
+                MapServer.ROOT_LRLAT, MapServer.ROOT_LRLON);
+        quadTree.insert(root, "0", MapServer.ROOT_ULLAT, MapServer.ROOT_ULLON,
+                MapServer.ROOT_LRLAT, MapServer.ROOT_LRLON);
+        checkSubtree(root.first);
+        checkSubtree(root.second);
+        checkSubtree(root.third);
+        checkSubtree(root.fourth);
+    }
+
+    private void checkSubtree(QTreeNode expected) {
+        if (expected == null) {
+            return;
+        }
+        QTreeNode actual = index.get(expected.getID());
+        assertNotNull(expected.getID(), actual);
+        assertEquals(expected.upperLeftLatitude(), actual.upperLeftLatitude(), 1e-13);
+        assertEquals(expected.upperLeftLongitude(), actual.upperLeftLongitude(), 1e-13);
+        assertEquals(expected.lowerRightLatitude(), actual.lowerRightLatitude(), 1e-13);
+        assertEquals(expected.lowerRightLongitude(), actual.lowerRightLongitude(), 1e-13);
+        checkSubtree(expected.first);
+        checkSubtree(expected.second);
+        checkSubtree(expected.third);
+        checkSubtree(expected.fourth);
+    }
+
+    @Test
+    public void testFindIsRowMajor() {
+        TileGrid grid = index.find(2, 37.87, -122.28, 37.84, -122.23);
+        assertEquals(2, grid.depth());
+        assertEquals(grid.rows() * grid.cols(), grid.tiles().size());
+        List<QTreeNode> tiles = grid.tiles();
+        for (int i = 1; i < tiles.size(); i++) {
+            QTreeNode prev = tiles.get(i - 1);
+            QTreeNode next = tiles.get(i);
+            if (i % grid.cols() == 0) {
+                assertTrue(next.upperLeftLatitude() < prev.upperLeftLatitude());
+            } else {
+                assertEquals(prev.lowerRightLongitude(), next.upperLeftLongitude(), 1e-13);
+                assertEquals(prev.upperLeftLatitude(), next.upperLeftLatitude(), 1e-13);
+            }
+        }
+        assertEquals("13", grid.upperLeft().getID());
+        assertEquals("44", grid.lowerRight().getID());
+    }
+
+    @Test
+    public void testQueryInsideSingleTile() {
+        QTreeNode tile = index.get("1234123");
+        double midLat = (tile.upperLeftLatitude() + tile.lowerRightLatitude()) / 2;
+        double midLon = (tile.upperLeftLongitude() + tile.lowerRightLongitude()) / 2;
+        TileGrid grid = index.find(7, midLat + 1e-6, midLon - 1e-6, midLat - 1e-6, midLon + 1e-6);
+        assertEquals(1, grid.tiles().size());
+        assertEquals("1234123", grid.upperLeft().getID());
+    }
+
+    @Test
+    public void testQueryOutsideRoot() {
+        assertTrue(index.find(3, 10, 10, 9, 11).isEmpty());
+        assertNull(index.get("15"));
+        assertNull(index.get("12341238"));
+    }
+
+    @Test
+    public void testDepthMatchesQuadTree() {
+        QuadTree quadTree = new QuadTree(MapServer.ROOT_ULLAT, MapServer.ROOT_ULLON,
+                MapServer.ROOT_LRLAT, MapServer.ROOT_LRLON);
+        double[] widths = {0.2, 0.05, 0.01, 0.004, 0.001, 0.0002};
+        for (double w : widths) {
+            assertEquals(quadTree.getDepthness(600, 800, 37.87, -122.26, 37.87 - w, -122.26 + w),
+                    index.depthFor(800, -122.26, -122.26 + w));
+        }
+    }
+}
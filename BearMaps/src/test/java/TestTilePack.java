@@ -0,0 +1,102 @@
+import static org.junit.Assert.*;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Random;
+
+public class TestTilePack {
+    /* Header plus one index entry per slot, where the first tile's data starts. */
+    private static final int DATA_START = 12 + TileIndex.slotCount() * 12;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    /**
+     * Writes a few tiles of random bytes under a new img folder and packs them.
+     *
+     * @return The tiles by quadtree id, in the order they are packed.
+     */
+    private Map<String, byte[]> pack(String path) throws IOException {
+        File img = folder.newFolder("img");
+        Random random = new Random(3);
+        Map<String, byte[]> tiles = new LinkedHashMap<>();
+        for (String id : new String[]{"1", "4", "23", "2134", "4444444"}) {
+            byte[] bytes = new byte[100 + random.nextInt(400)];
+            random.nextBytes(bytes);
+            Files.write(new File(img, id + ".png").toPath(), bytes);
+            tiles.put(id, bytes);
+        }
+        assertEquals(tiles.size(), TilePack.write(img.getPath() + File.separator, path));
+        return tiles;
+    }
+
+    private static byte[] bytes(ByteBuffer buffer) {
+        byte[] bytes = new byte[buffer.remaining()];
+        buffer.get(bytes);
+        return bytes;
+    }
+
+    private static void assertOpenFails(String path) {
+        try {
+            TilePack.open(path);
+            fail(path + " was opened.");
+        } catch (IOException expected) {
+            /* Callers fall back to the img folder. */
+        }
+    }
+
+    /**
+     * Every packed tile reads back byte for byte under its id; tiles not in the pack and
+     * invalid ids are reported as IOExceptions.
+     */
+    @Test
+    public void testRoundTrip() throws IOException {
+        String path = new File(folder.getRoot(), "tiles.pack").getPath();
+        Map<String, byte[]> tiles = pack(path);
+        TilePack pack = TilePack.open(path);
+        for (Map.Entry<String, byte[]> tile : tiles.entrySet()) {
+            assertArrayEquals(tile.getKey(), tile.getValue(), bytes(pack.read(tile.getKey())));
+        }
+        for (String id : new String[]{"2", "5", "0", ""}) {
+            try {
+                pack.read(id);
+                fail(id + " was read.");
+            } catch (IOException expected) {
+                /* Missing or invalid. */
+            }
+        }
+    }
+
+    /**
+     * A pack cut off in its header, its index or a tile, or whose index points past its end,
+     * fails to open with an IOException.
+     */
+    @Test
+    public void testTruncated() throws IOException {
+        String path = new File(folder.getRoot(), "tiles.pack").getPath();
+        pack(path);
+        byte[] good = Files.readAllBytes(new File(path).toPath());
+        String cutPath = new File(folder.getRoot(), "cut.pack").getPath();
+        for (int length : new int[]{0, 8, 20, DATA_START - 1, DATA_START + 50,
+            good.length - 1}) {
+            Files.write(new File(cutPath).toPath(), Arrays.copyOf(good, length));
+            assertOpenFails(cutPath);
+        }
+
+        /* Point tile "1", slot 0, past the end of the file. */
+        try (RandomAccessFile file = new RandomAccessFile(path, "rw")) {
+            file.seek(12);
+            file.writeLong(good.length);
+        }
+        assertOpenFails(path);
+    }
+}
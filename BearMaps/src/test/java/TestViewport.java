@@ -0,0 +1,122 @@
+import static org.junit.Assert.*;
+import org.junit.Test;
+
+import java.awt.image.BufferedImage;
+
+public class TestViewport {
+    private static final double LON_SPAN = MapServer.ROOT_LRLON - MapServer.ROOT_ULLON;
+    private static final double LAT_SPAN = MapServer.ROOT_ULLAT - MapServer.ROOT_LRLAT;
+
+    private final TileIndex index = new TileIndex(MapServer.ROOT_ULLAT, MapServer.ROOT_ULLON,
+            MapServer.ROOT_LRLAT, MapServer.ROOT_LRLON);
+
+    /**
+     * A raster whose pixel (x, y) holds y * width + x, to see where a crop came from.
+     */
+    private static BufferedImage numbered(TileGrid grid) {
+        int width = grid.cols() * MapServer.TILE_SIZE;
+        int height = grid.rows() * MapServer.TILE_SIZE;
+        BufferedImage raster = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                raster.setRGB(x, y, y * width + x);
+            }
+        }
+        return raster;
+    }
+
+    /**
+     * A box reaching past the map's corners is cropped to the raster's edges, and the crop
+     * starts at the raster's first or ends at its last pixel.
+     */
+    @Test
+    public void testMapEdge() {
+        double ullat = MapServer.ROOT_ULLAT + LAT_SPAN / 10;
+        double ullon = MapServer.ROOT_ULLON - LON_SPAN / 10;
+        double lrlat = MapServer.ROOT_ULLAT - LAT_SPAN * 0.3;
+        double lrlon = MapServer.ROOT_ULLON + LON_SPAN * 0.3;
+        TileGrid grid = index.find(2, ullat, ullon, lrlat, lrlon);
+        assertEquals(0, grid.firstRow());
+        assertEquals(0, grid.firstCol());
+        Viewport upperLeft = Viewport.of(grid, ullat, ullon, lrlat, lrlon, 300, 300, false);
+        assertEquals(MapServer.ROOT_ULLAT, upperLeft.upperLeftLatitude(), 0);
+        assertEquals(MapServer.ROOT_ULLON, upperLeft.upperLeftLongitude(), 0);
+        double lonPerPixel = LON_SPAN / (4 * MapServer.TILE_SIZE);
+        double latPerPixel = LAT_SPAN / (4 * MapServer.TILE_SIZE);
+        assertTrue(upperLeft.lowerRightLongitude() >= lrlon);
+        assertTrue(upperLeft.lowerRightLongitude() < lrlon + lonPerPixel);
+        assertTrue(upperLeft.lowerRightLatitude() <= lrlat);
+        assertTrue(upperLeft.lowerRightLatitude() > lrlat - latPerPixel);
+        BufferedImage raster = numbered(grid);
+        BufferedImage crop = upperLeft.apply(raster);
+        assertEquals(upperLeft.outWidth(), crop.getWidth());
+        assertEquals(upperLeft.outHeight(), crop.getHeight());
+        assertEquals(raster.getRGB(0, 0), crop.getRGB(0, 0));
+        assertEquals(raster.getRGB(crop.getWidth() - 1, crop.getHeight() - 1),
+                crop.getRGB(crop.getWidth() - 1, crop.getHeight() - 1));
+
+        ullat = MapServer.ROOT_LRLAT + LAT_SPAN * 0.2;
+        ullon = MapServer.ROOT_LRLON - LON_SPAN * 0.2;
+        lrlat = MapServer.ROOT_LRLAT - LAT_SPAN / 10;
+        lrlon = MapServer.ROOT_LRLON + LON_SPAN / 10;
+        grid = index.find(2, ullat, ullon, lrlat, lrlon);
+        Viewport lowerRight = Viewport.of(grid, ullat, ullon, lrlat, lrlon, 300, 300, false);
+        assertEquals(MapServer.ROOT_LRLAT, lowerRight.lowerRightLatitude(), 1e-12);
+        assertEquals(MapServer.ROOT_LRLON, lowerRight.lowerRightLongitude(), 1e-12);
+        raster = numbered(grid);
+        crop = lowerRight.apply(raster);
+        assertEquals(raster.getRGB(raster.getWidth() - 1, raster.getHeight() - 1),
+                crop.getRGB(crop.getWidth() - 1, crop.getHeight() - 1));
+
+        /* Touching the map only along its left edge covers no whole pixel. */
+        ullon = MapServer.ROOT_ULLON - LON_SPAN / 10;
+        grid = index.find(2, ullat, ullon, lrlat, MapServer.ROOT_ULLON);
+        assertNull(Viewport.of(grid, ullat, ullon, lrlat, MapServer.ROOT_ULLON, 300, 300,
+                false));
+    }
+
+    /**
+     * A box inside a single pixel of a deepest tile gets that whole pixel, sent as at least
+     * one pixel even when resampled to less.
+     */
+    @Test
+    public void testSmallerThanTile() {
+        int n = 1 << TileIndex.MAX_DEPTH;
+        double lonPerPixel = LON_SPAN / (n * MapServer.TILE_SIZE);
+        double latPerPixel = LAT_SPAN / (n * MapServer.TILE_SIZE);
+        int col = 60 * MapServer.TILE_SIZE + 100;
+        int row = 50 * MapServer.TILE_SIZE + 40;
+        double ullon = MapServer.ROOT_ULLON + (col + 0.3) * lonPerPixel;
+        double lrlon = MapServer.ROOT_ULLON + (col + 0.5) * lonPerPixel;
+        double ullat = MapServer.ROOT_ULLAT - (row + 0.4) * latPerPixel;
+        double lrlat = MapServer.ROOT_ULLAT - (row + 0.6) * latPerPixel;
+        TileGrid grid = index.find(TileIndex.MAX_DEPTH, ullat, ullon, lrlat, lrlon);
+        assertEquals(1, grid.rows());
+        assertEquals(1, grid.cols());
+
+        Viewport pixel = Viewport.of(grid, ullat, ullon, lrlat, lrlon, 0.2, 0.2, false);
+        assertEquals(1, pixel.outWidth());
+        assertEquals(1, pixel.outHeight());
+        assertEquals(MapServer.ROOT_ULLON + col * lonPerPixel, pixel.upperLeftLongitude(),
+                1e-12);
+        assertEquals(MapServer.ROOT_ULLAT - row * latPerPixel, pixel.upperLeftLatitude(),
+                1e-12);
+        BufferedImage raster = numbered(grid);
+        BufferedImage crop = pixel.apply(raster);
+        assertEquals(1, crop.getWidth());
+        assertEquals(raster.getRGB(100, 40), crop.getRGB(0, 0));
+
+        Viewport resampled = Viewport.of(grid, ullat, ullon, lrlat, lrlon, 0.2, 0.2, true);
+        assertEquals(1, resampled.outWidth());
+        assertEquals(1, resampled.outHeight());
+        assertEquals(pixel, resampled);
+
+        /* A box straddling a pixel corner gets the four pixels around it. */
+        Viewport corner = Viewport.of(grid, MapServer.ROOT_ULLAT - (row + 0.9) * latPerPixel,
+                MapServer.ROOT_ULLON + (col + 0.9) * lonPerPixel,
+                MapServer.ROOT_ULLAT - (row + 1.1) * latPerPixel,
+                MapServer.ROOT_ULLON + (col + 1.1) * lonPerPixel, 1, 1, false);
+        assertEquals(2, corner.outWidth());
+        assertEquals(2, corner.outHeight());
+    }
+}